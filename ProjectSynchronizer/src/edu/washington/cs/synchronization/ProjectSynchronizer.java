@@ -1,6 +1,10 @@
 package edu.washington.cs.synchronization;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -14,6 +18,7 @@ import org.eclipse.core.resources.IContainer;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IFolder;
 import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IProjectDescription;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
@@ -28,7 +33,9 @@ import com.kivancmuslu.www.zip.Zipper;
 
 import edu.washington.cs.synchronization.sync.SynchronizerBufferChangedListener;
 import edu.washington.cs.synchronization.sync.SynchronizerResourceChangeListener;
+import edu.washington.cs.synchronization.sync.task.internal.ContentHashIndex;
 import edu.washington.cs.synchronization.sync.task.internal.TaskWorker;
+import edu.washington.cs.util.eclipse.DependencyUtility;
 import edu.washington.cs.util.eclipse.ResourceUtility;
 
 /**
@@ -51,6 +58,9 @@ import edu.washington.cs.util.eclipse.ResourceUtility;
  * <li>A {@link SynchronizerBufferChangedListener} (for each file) to get notified about all changes done to the buffers
  * of .java files on the class-path of the project.</li>
  * </ol>
+ * The shadow project is created lazily (see {@link #LAZY_SHADOW}): the files that are never modified by the
+ * synchronization or by a speculative change (e.g., archives and images) are linked to the original files instead of
+ * being copied, and version control folders are not copied at all. <br>
  * Project synchronizer also provides static methods to create, maintain and retrieve different synchronizers for
  * different projects and purposes.
  * 
@@ -59,6 +69,8 @@ import edu.washington.cs.util.eclipse.ResourceUtility;
 public class ProjectSynchronizer
 {
     public static final String SHADOW_PREFIX = "DO_NOT_DELETE_";
+    /** Separator used between the shadow project's name and the index of a replica in the shadow pool. */
+    public static final String REPLICA_SEPARATOR = "_replica_";
     /** Constant value that represents the working set name to be assigned to the shadow projects. */
     public static final String WORKING_SET_NAME = "QFS";
     public static final String PLUG_IN_ID = "edu.washington.cs.synchronization";
@@ -67,8 +79,25 @@ public class ProjectSynchronizer
     
     private static final long MB = 1024*1024;
     private static final long ZIP_LIMIT = MB * 20;
+    /** Names of the files (in the working location of the shadow project) that the content hashes are stored in. */
+    private static final String ORIGINAL_HASHES = "original.hashes";
+    private static final String SHADOW_HASHES = "shadow.hashes";
+    /**
+     * Name of the file (in the working location of the shadow project) that the time of the last synchronization is
+     * stored in. The file only exists between a clean shutdown and the next start.
+     */
+    private static final String SYNC_MANIFEST = "sync.manifest";
     
     public static final boolean CONTOLLED_EXPERIMENT = false;
+    /**
+     * If <code>true</code>, the shadow project shares the files with {@link #SHARED_EXTENSIONS} with the original
+     * project through linked resources. A shared file is copied when it is about to be modified (see
+     * {@link ResourceUtility#unlinkFile(IFile)}).
+     */
+    public static final boolean LAZY_SHADOW = true;
+    /** Extensions of the files that are shared with the original project instead of being copied. */
+    private static final String [] SHARED_EXTENSIONS = new String [] {"jar", "zip", "war", "ear", "png", "gif", "jpg",
+            "jpeg", "bmp", "ico"};
     
     private static double toMB(long bytes)
     {
@@ -110,6 +139,36 @@ public class ProjectSynchronizer
     private final TaskWorker worker_;
     /** prefix that is used to during the construction of the shadow project. */
     private final String prefix_;
+    /**
+     * Additional shadow projects (replicas) that form the shadow pool together with {@link #shadow_}. <br>
+     * Replicas are not updated by the {@link #worker_}, they are synchronized with {@link #shadow_} on demand using
+     * {@link #syncShadowPool()}. <br>
+     * This field is protected by 'this'.
+     */
+    private final ArrayList <IProject> replicas_;
+    /**
+     * Project relative paths of the files in the {@link #shadow_} project that are modified since each replica was last
+     * synchronized, keyed by the replica. A <code>null</code> value means that the modifications are unknown, so the
+     * replica needs a full synchronization. <br>
+     * This field is protected by 'this'.
+     */
+    private final Map <IProject, Set <IPath>> replicaModifications_;
+    /** Content hashes of the files in the {@link #original_} project. */
+    private final ContentHashIndex originalHashes_;
+    /** Content hashes of the files in the {@link #shadow_} project, invalidated by the {@link #worker_}. */
+    private final ContentHashIndex shadowHashes_;
+    /**
+     * Time of the last completed synchronization, <code>0</code> if unknown. <br>
+     * The files that are not modified after this time and whose recorded content hashes are equal are in sync, so they
+     * are not validated again (see {@link ContentHashIndex#getRecordedHash(IFile, long)}).
+     */
+    private volatile long lastSyncTime_ = 0;
+    /**
+     * <code>true</code> if both projects are refreshed at the beginning of the current synchronization, so that the
+     * workspace reflects the modifications done outside Eclipse and the recorded content hashes can be trusted (see
+     * {@link #areFilesIdentical(IFile, IFile)}).
+     */
+    private volatile boolean refreshed_ = false;
     private boolean internalCheck_ = false;
     private boolean internalResult_ = true;
     
@@ -134,7 +193,7 @@ public class ProjectSynchronizer
             for (String prefix: getKnownPrefixes())
             {
                 String shadowName = getShadowProjectName(pro, prefix);
-                if (projectName.equals(shadowName))
+                if (projectName.equals(shadowName) || projectName.startsWith(shadowName + REPLICA_SEPARATOR))
                     return true;
             }
         }
@@ -266,7 +325,13 @@ public class ProjectSynchronizer
         knownPrefixes_.add(prefix_);
         original_ = original;
         shadow_ = ResourceUtility.getProject(getShadowProjectName(original_, prefix_));
+        replicas_ = new ArrayList <IProject>();
+        replicaModifications_ = new HashMap <IProject, Set <IPath>>();
         worker_ = new TaskWorker();
+        originalHashes_ = new ContentHashIndex();
+        shadowHashes_ = new ContentHashIndex();
+        worker_.setContentHashIndex(shadowHashes_);
+        worker_.setDeclarationProject(shadow_);
         addProjectSynchronizer(this);
     }
 
@@ -277,7 +342,10 @@ public class ProjectSynchronizer
      */
     public void init()
     {
+        loadContentHashes();
+        loadSyncManifest();
         syncProjects();
+        saveContentHashes();
         worker_.start();
         logger.info("Created and initialized a synchronizer for project = " + original_.getName());
     }
@@ -289,10 +357,37 @@ public class ProjectSynchronizer
     public void stop()
     {
         worker_.killAndJoin();
+        saveState();
         removeProjectSynchronizer(this);
         logger.finer("Killed worker.");
     }
 
+    /**
+     * Stores the state of every synchronizer, so that the next Eclipse session only validates the files that are
+     * modified in between (e.g., when the workspace is saved at shutdown).
+     */
+    public static void saveAllStates()
+    {
+        ProjectSynchronizer [] synchronizers;
+        synchronized (ProjectSynchronizer.class)
+        {
+            synchronizers = synchronizers_.values().toArray(new ProjectSynchronizer [synchronizers_.size()]);
+        }
+        for (ProjectSynchronizer synchronizer: synchronizers)
+            synchronizer.saveState();
+    }
+
+    /**
+     * Stores the content hashes and, if the {@link #worker_} has no pending changes, the time of the last
+     * synchronization alongside the {@link #shadow_} project.
+     */
+    public void saveState()
+    {
+        saveContentHashes();
+        if (worker_.isEmpty())
+            saveSyncManifest();
+    }
+
     public boolean testSynchronization()
     {
         startInternalCheck();
@@ -322,6 +417,8 @@ public class ProjectSynchronizer
         }
         Timer.startSession();
         boolean blocked = worker_.isBlocked();
+        long syncStart = System.currentTimeMillis();
+        boolean completed = false;
         try
         {
             // Initially the result is equal to the emptiness of the work queue. If the queue
@@ -336,9 +433,11 @@ public class ProjectSynchronizer
             // Wait until the worker is completely blocked.
             worker_.waitUntilSynchronization();
             // worker_.clear();
-            // Refresh the projects just in case.
-            ResourceUtility.syncWithFileSystemIfNecessary(original_);
-            ResourceUtility.syncWithFileSystemIfNecessary(shadow_);
+            // Refresh the projects, the recorded content hashes are only trusted for files that are refreshed.
+            refreshed_ = false;
+            boolean originalRefreshed = ResourceUtility.syncWithFileSystemIfNecessary(original_);
+            boolean shadowRefreshed = ResourceUtility.syncWithFileSystemIfNecessary(shadow_);
+            refreshed_ = originalRefreshed && shadowRefreshed;
             if (!shadow_.exists())
                 createShadow();
             else
@@ -347,6 +446,7 @@ public class ProjectSynchronizer
                 syncContainers(original_, shadow_);
                 cleanContainers(original_, shadow_);
             }
+            completed = true;
         } catch (Exception e)
         {
             // If there is an exception during sync, we return false no matter what.
@@ -370,6 +470,8 @@ public class ProjectSynchronizer
             }
             else
             {
+                if (completed)
+                    lastSyncTime_ = syncStart;
                 if (!blocked)
                     worker_.unblock();
                 // if (blocked)
@@ -382,6 +484,209 @@ public class ProjectSynchronizer
         return result;
     }
 
+    /**
+     * Returns the project relative paths of the files in the {@link #shadow_} project that are modified since the last
+     * call to this method, together with the files that depend on them. <br>
+     * The dependents include the files that reference a type or member that the modifications removed (or renamed),
+     * which are found through the declarations that the {@link #worker_} recorded before the modifications. <br>
+     * Returns <code>null</code> if the modifications cannot be tracked precisely (e.g., the shadow project is
+     * re-created, a file is deleted, or the build path is changed). Clients should assume that every file is affected
+     * in that case. <br>
+     * The caller must make sure that the {@link #shadow_} project is not modified during this operation (i.e., the
+     * {@link #worker_} is blocked).
+     * 
+     * The modified files are also remembered for the replicas, so that the next {@link #syncShadowPool()} only
+     * synchronizes them.
+     * 
+     * @return The modified files and their dependents, or <code>null</code> if they are unknown.
+     * @see DependencyUtility#findDependentFiles(IProject, java.util.Collection, Map)
+     */
+    public Set <IPath> consumeAffectedFiles()
+    {
+        Set <IPath> modifiedFiles = worker_.consumeModifiedFiles();
+        Map <IPath, Set <String>> declarations = worker_.consumeDeclarations();
+        recordReplicaModifications(modifiedFiles);
+        if (modifiedFiles == null || declarations == null)
+            return null;
+        if (modifiedFiles.isEmpty())
+            return modifiedFiles;
+        long start = System.currentTimeMillis();
+        Set <IPath> result = DependencyUtility.findDependentFiles(shadow_, modifiedFiles, declarations);
+        logger.fine("Computing the dependents of " + modifiedFiles.size() + " modified file(s) took: "
+                + (System.currentTimeMillis() - start) + " ms.");
+        return result;
+    }
+
+    /**
+     * Updates the number of shadow projects in the shadow pool. <br>
+     * The pool always contains {@link #shadow_}, so a size of 1 means that no replicas are used. Replicas that are no
+     * longer necessary are deleted, new replicas are created lazily by {@link #syncShadowPool()}. <br>
+     * <br>
+     * This method is synchronized over 'this'.
+     * 
+     * @param size The requested number of shadow projects in the pool.
+     */
+    public synchronized void setShadowPoolSize(int size)
+    {
+        int replicaCount = Math.max(0, size - 1);
+        while (replicas_.size() > replicaCount)
+        {
+            IProject replica = replicas_.remove(replicas_.size() - 1);
+            replicaModifications_.remove(replica);
+            logger.info("Deleting replica = " + replica.getName() + " since the shadow pool is shrunk.");
+            ResourceUtility.deleteResource(replica);
+        }
+        while (replicas_.size() < replicaCount)
+        {
+            String replicaName = getShadowProjectName(original_, prefix_) + REPLICA_SEPARATOR + (replicas_.size() + 1);
+            IProject replica = ResourceUtility.getProject(replicaName);
+            replicas_.add(replica);
+            // A replica that is left from a previous session might be stale.
+            replicaModifications_.put(replica, null);
+        }
+    }
+
+    /**
+     * Synchronizes every replica in the shadow pool with respect to the {@link #shadow_} project. <br>
+     * Only the files that are modified in the {@link #shadow_} project since a replica was last synchronized are
+     * synchronized (see {@link #consumeAffectedFiles()}). The replicas whose modifications are unknown are synchronized
+     * completely. <br>
+     * The caller must make sure that the {@link #shadow_} project is not modified during this operation (i.e., the
+     * {@link #worker_} is blocked).
+     */
+    public void syncShadowPool()
+    {
+        for (IProject replica: getReplicas())
+            syncReplica(replica, consumeReplicaModifications(replica));
+    }
+
+    /**
+     * Synchronizes the given replica completely with respect to the {@link #shadow_} project (e.g., after a change on
+     * the replica cannot be reverted). If the replica does not exist yet, it is created as a copy of the
+     * {@link #shadow_} project.
+     * 
+     * @param replica A replica from the shadow pool.
+     */
+    public void syncReplica(IProject replica)
+    {
+        consumeReplicaModifications(replica);
+        syncReplica(replica, null);
+    }
+
+    /**
+     * Synchronizes the given replica with respect to the {@link #shadow_} project. <br>
+     * If the given modified files are known, only they are synchronized. Otherwise (or if the replica does not exist),
+     * the replica is synchronized completely.
+     * 
+     * @param replica A replica from the shadow pool.
+     * @param modifiedFiles Project relative paths of the files that are modified in the {@link #shadow_} project since
+     *            the replica was last synchronized, <code>null</code> if unknown.
+     */
+    private void syncReplica(IProject replica, Set <IPath> modifiedFiles)
+    {
+        // Replicas might be synchronized concurrently, so we cannot use Timer (which is not thread-safe) here.
+        long start = System.currentTimeMillis();
+        try
+        {
+            if (modifiedFiles != null && replica.exists() && syncReplicaMembers(replica, modifiedFiles))
+                return;
+            ResourceUtility.syncWithFileSystemIfNecessary(replica);
+            if (!replica.exists())
+            {
+                ResourceUtility.copyResource(shadow_, replica);
+                ResourceUtility.addToWorkingSet(WORKING_SET_NAME, replica);
+            }
+            else
+            {
+                syncContainers(shadow_, replica);
+                cleanContainers(shadow_, replica);
+            }
+        }
+        catch (Exception e)
+        {
+            logger.log(Level.WARNING, "Could not sync replica: " + replica.getName() + " due to exception.", e);
+            recordReplicaModifications(replica, null);
+        }
+        finally
+        {
+            logger.fine("Synchronizing replica " + replica.getName() + " took: "
+                    + (System.currentTimeMillis() - start) + " ms.");
+        }
+    }
+
+    /**
+     * Synchronizes the members of the given replica that are represented by the given project relative paths with
+     * respect to the {@link #shadow_} project. <br>
+     * Returns <code>false</code> if a member cannot be synchronized on its own (i.e., its parent does not exist in the
+     * replica), in which case the replica should be synchronized completely.
+     */
+    private boolean syncReplicaMembers(IProject replica, Set <IPath> modifiedFiles)
+    {
+        for (IPath path: modifiedFiles)
+        {
+            IResource shadowMember = shadow_.findMember(path);
+            IResource replicaMember = replica.findMember(path);
+            if (replicaMember != null && (shadowMember == null || replicaMember.getType() != shadowMember.getType()))
+                ResourceUtility.deleteResource(replicaMember);
+            if (shadowMember == null)
+                continue;
+            if (!replica.getFolder(path).getParent().exists())
+                return false;
+            if (shadowMember.getType() == IResource.FILE)
+                syncFiles((IFile) shadowMember, replica.getFile(path));
+            else if (shadowMember.getType() == IResource.FOLDER)
+            {
+                IFolder replicaFolder = replica.getFolder(path);
+                syncFolders((IFolder) shadowMember, replicaFolder);
+                if (replicaFolder.exists())
+                    cleanContainers((IFolder) shadowMember, replicaFolder);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Records the given files as modified for every replica (see {@link #syncShadowPool()}).
+     * <p>
+     * This method is synchronized over 'this'.
+     * </p>
+     * 
+     * @param modifiedFiles Project relative paths of the modified files in the {@link #shadow_} project,
+     *            <code>null</code> if unknown.
+     */
+    private synchronized void recordReplicaModifications(Set <IPath> modifiedFiles)
+    {
+        for (IProject replica: replicas_)
+            recordReplicaModifications(replica, modifiedFiles);
+    }
+
+    private synchronized void recordReplicaModifications(IProject replica, Set <IPath> modifiedFiles)
+    {
+        if (!replicaModifications_.containsKey(replica))
+            return;
+        Set <IPath> current = replicaModifications_.get(replica);
+        if (modifiedFiles == null)
+            replicaModifications_.put(replica, null);
+        else if (current != null)
+            current.addAll(modifiedFiles);
+    }
+
+    /**
+     * Returns the project relative paths of the files that are modified since the given replica was last synchronized
+     * (<code>null</code> if unknown) and starts recording them from scratch.
+     * <p>
+     * This method is synchronized over 'this'.
+     * </p>
+     */
+    private synchronized Set <IPath> consumeReplicaModifications(IProject replica)
+    {
+        if (!replicaModifications_.containsKey(replica))
+            return null;
+        Set <IPath> result = replicaModifications_.get(replica);
+        replicaModifications_.put(replica, new HashSet <IPath>());
+        return result;
+    }
+
     /**
      * Deletes any file that is included in shadow container but not included in the original container.
      * 
@@ -404,7 +709,12 @@ public class ProjectSynchronizer
                 if (originalFolder.exists())
                     cleanContainers(originalFolder, shadowFolder);
                 else
+                {
                     ResourceUtility.deleteResource(shadowFolder);
+                    recordModification(shadowFolder);
+                    if (isIndexed(originalFolder, shadowFolder))
+                        originalHashes_.invalidate(originalFolder.getProjectRelativePath());
+                }
             }
             else if (type == IResource.FILE)
             {
@@ -415,6 +725,9 @@ public class ProjectSynchronizer
                     logger.fine("Deleting shadow file = " + originalFile.getName()
                             + " since it does not exist in original project.");
                     ResourceUtility.deleteResource(shadowFile);
+                    recordModification(shadowFile);
+                    if (isIndexed(originalFile, shadowFile))
+                        originalHashes_.invalidate(originalFile.getProjectRelativePath());
                 }
             }
             else
@@ -458,7 +771,16 @@ public class ProjectSynchronizer
         if (shouldSkip(original))
             return;
         if (!shadow.exists())
-            ResourceUtility.copyResource(original, shadow);
+        {
+            if (LAZY_SHADOW)
+            {
+                ResourceUtility.createFolder(shadow);
+                syncContainers(original, shadow);
+            }
+            else
+                ResourceUtility.copyResource(original, shadow);
+            recordModification(shadow);
+        }
         else
             syncContainers(original, shadow);
     }
@@ -490,6 +812,10 @@ public class ProjectSynchronizer
             // Make sure that compilation units are created correctly.
             if (originalUnit != null && shadowUnit != null)
             {
+                // Only the open compilation units can have unsaved changes, so there is no need to open the buffers
+                // of the rest (which reads them from the disc).
+                if (!originalUnit.hasUnsavedChanges())
+                    return false;
                 IBuffer originalBuffer = originalUnit.getBuffer();
                 IBuffer shadowBuffer = shadowUnit.getBuffer();
                 if (!originalBuffer.hasUnsavedChanges())
@@ -510,6 +836,7 @@ public class ProjectSynchronizer
                     }
                     shadowBuffer.setContents(originalContents);
                     shadowBuffer.save(null, false);
+                    recordModification(shadow);
                     logger.fine("Sync completed.");
                 }
                 else
@@ -575,13 +902,20 @@ public class ProjectSynchronizer
 
     private boolean shouldSkip(IFolder folder)
     {
-        return isHGDirectory(folder);
+        return isVCDirectory(folder);
     }
 
-    private boolean isHGDirectory(IFolder folder)
+    private boolean isVCDirectory(IFolder folder)
     {
         String name = folder.getName();
-        return name.equals(".hg");
+        if (!LAZY_SHADOW)
+            return name.equals(".hg");
+        for (String prefix: VCPrefixes)
+        {
+            if (name.equals(prefix))
+                return true;
+        }
+        return false;
     }
 
     private boolean shouldSkip(IFile file)
@@ -619,11 +953,21 @@ public class ProjectSynchronizer
         logger.finest("Syncing files, shadow = " + shadow.getLocation() + ", original = " + original.getLocation());
         if (!shadow.exists())
         {
-            ResourceUtility.copyResource(original, shadow);
+            createShadowFile(original, shadow);
+            recordModification(shadow);
             // Try to update the copy over buffer level... Here we don't care about the result of
             // the buffer sync operation since we have already copied the file.
             syncBuffers(original, shadow);
         }
+        else if (shadow.isLinked())
+        {
+            // A shared file is in sync as long as it is linked to the original file.
+            if (shadow.getLocation() != null && shadow.getLocation().equals(original.getLocation()))
+                return;
+            ResourceUtility.deleteResource(shadow);
+            createShadowFile(original, shadow);
+            recordModification(shadow);
+        }
         else
         {
             // Try to update the copy over buffer level...
@@ -641,6 +985,7 @@ public class ProjectSynchronizer
                 logger.fine("File = " + shadow.getName()
                         + " has different content in shadow project, copying it again.");
                 ResourceUtility.copyFile(original, shadow);
+                recordModification(shadow);
                 // ResourceUtility.deleteResource(shadow);
                 // ResourceUtility.copyResource(original, shadow);
                 syncBuffers(original, shadow);
@@ -651,6 +996,32 @@ public class ProjectSynchronizer
     
     private boolean areFilesIdentical(IFile original, IFile shadow)
     {
+        if (isIndexed(original, shadow) && lastSyncTime_ != 0 && refreshed_)
+        {
+            // Files that are not modified since the last synchronization are still in sync.
+            String originalHash = originalHashes_.getRecordedHash(original, lastSyncTime_);
+            if (originalHash != null && originalHash.equals(shadowHashes_.getRecordedHash(shadow, lastSyncTime_)))
+                return true;
+        }
+        if (isIndexed(original, shadow))
+        {
+            // Compare the content hashes, which only reads the files that are modified since their hash is computed.
+            try
+            {
+                IFileInfo originalInfo = ResourceUtility.getFileInfo(original);
+                IFileInfo shadowInfo = ResourceUtility.getFileInfo(shadow);
+                if (originalInfo.getLength() != shadowInfo.getLength())
+                    return false;
+                String originalHash = originalHashes_.getHash(original, originalInfo);
+                String shadowHash = shadowHashes_.getHash(shadow, shadowInfo);
+                if (originalHash != null && shadowHash != null)
+                    return originalHash.equals(shadowHash);
+            }
+            catch (CoreException e)
+            {
+                // Fall back to the byte by byte comparison.
+            }
+        }
         // Quickly check through last modification date.
         try
         {
@@ -691,8 +1062,196 @@ public class ProjectSynchronizer
         IProject shadow = ResourceUtility.getProject(destination.toString());
         if (shadow.exists())
             ResourceUtility.deleteResource(shadow);
-        ResourceUtility.copyResource(original_, shadow);
+        if (!LAZY_SHADOW || !createLazyShadow(shadow))
+            ResourceUtility.copyResource(original_, shadow);
         ResourceUtility.addToWorkingSet(WORKING_SET_NAME, shadow);
+        worker_.markAllFilesModified();
+    }
+
+    /**
+     * Returns <code>true</code> if the given resources are from the {@link #original_} and {@link #shadow_} projects
+     * (i.e., their content hashes are tracked), <code>false</code> otherwise (e.g., a replica is being synchronized).
+     * 
+     * @param original A resource from the project that the synchronization is based on.
+     * @param shadow A resource from the project that is being synchronized.
+     * @return <code>true</code> if the content hashes of the given resources are tracked.
+     */
+    private boolean isIndexed(IResource original, IResource shadow)
+    {
+        return original.getProject().equals(original_) && shadow.getProject().equals(shadow_);
+    }
+
+    /**
+     * Loads the content hashes that are stored alongside the {@link #shadow_} project, if any.
+     */
+    private void loadContentHashes()
+    {
+        File originalStorage = getContentHashStorage(ORIGINAL_HASHES);
+        File shadowStorage = getContentHashStorage(SHADOW_HASHES);
+        if (originalStorage != null && shadowStorage != null)
+        {
+            originalHashes_.load(originalStorage);
+            shadowHashes_.load(shadowStorage);
+        }
+    }
+
+    /**
+     * Stores the content hashes alongside the {@link #shadow_} project, so that the next session does not need to read
+     * the files that are not modified in between.
+     */
+    private void saveContentHashes()
+    {
+        File originalStorage = getContentHashStorage(ORIGINAL_HASHES);
+        File shadowStorage = getContentHashStorage(SHADOW_HASHES);
+        if (originalStorage != null && shadowStorage != null)
+        {
+            originalHashes_.save(originalStorage);
+            shadowHashes_.save(shadowStorage);
+        }
+    }
+
+    /**
+     * Loads the time of the last synchronization that is stored at the last clean shutdown, if any. <br>
+     * The manifest is deleted once it is loaded, so that it is not trusted after a crash.
+     */
+    private void loadSyncManifest()
+    {
+        File manifest = getContentHashStorage(SYNC_MANIFEST);
+        if (manifest == null || !manifest.exists())
+            return;
+        BufferedReader reader = null;
+        try
+        {
+            reader = new BufferedReader(new FileReader(manifest));
+            String line = reader.readLine();
+            if (line != null)
+                lastSyncTime_ = Long.parseLong(line.trim());
+            logger.info("Shadow project = " + shadow_.getName() + " was last synchronized at " + lastSyncTime_ + ".");
+        }
+        catch (IOException e)
+        {
+            logger.log(Level.WARNING, "Cannot load the synchronization manifest from " + manifest + ".", e);
+        }
+        catch (NumberFormatException e)
+        {
+            logger.log(Level.WARNING, "Synchronization manifest " + manifest + " is corrupted.", e);
+        }
+        finally
+        {
+            ResourceUtility.close(reader, manifest);
+            manifest.delete();
+        }
+    }
+
+    private void saveSyncManifest()
+    {
+        File manifest = getContentHashStorage(SYNC_MANIFEST);
+        if (manifest == null || lastSyncTime_ == 0)
+            return;
+        FileWriter writer = null;
+        try
+        {
+            writer = new FileWriter(manifest);
+            writer.write(Long.toString(lastSyncTime_));
+        }
+        catch (IOException e)
+        {
+            logger.log(Level.WARNING, "Cannot save the synchronization manifest to " + manifest + ".", e);
+        }
+        finally
+        {
+            ResourceUtility.close(writer, manifest);
+        }
+    }
+
+    /**
+     * Returns the file with the given name in the working location of the {@link #shadow_} project, <code>null</code>
+     * if the shadow project does not exist.
+     * 
+     * @param name The name of the file.
+     * @return The file with the given name in the working location of the shadow project.
+     */
+    private File getContentHashStorage(String name)
+    {
+        if (!shadow_.isOpen())
+            return null;
+        IPath location = shadow_.getWorkingLocation(PLUG_IN_ID);
+        return location == null ? null : location.append(name).toFile();
+    }
+
+    /**
+     * Creates the given shadow project with the description of the {@link #original_} project and fills it using
+     * {@link #syncContainers(IContainer, IContainer)}, so that the shared files are linked instead of copied.
+     * 
+     * @param shadow The shadow project that does not exist yet.
+     * @return <code>true</code> if the shadow project is created, <code>false</code> otherwise.
+     */
+    private boolean createLazyShadow(IProject shadow)
+    {
+        try
+        {
+            IProjectDescription description = original_.getDescription();
+            description.setName(shadow.getName());
+            description.setLocation(null);
+            shadow.create(description, null);
+            shadow.open(null);
+        }
+        catch (CoreException e)
+        {
+            logger.log(Level.WARNING, "Cannot create lazy shadow for project = " + original_.getName()
+                    + ", copying the whole project instead.", e);
+            if (shadow.exists())
+                ResourceUtility.deleteResource(shadow);
+            return false;
+        }
+        syncContainers(original_, shadow);
+        return true;
+    }
+
+    /**
+     * Creates the given shadow file, either as a link to the original file (if it can be shared) or as a copy of it.
+     * 
+     * @param original The original file.
+     * @param shadow The shadow file that does not exist yet.
+     */
+    private void createShadowFile(IFile original, IFile shadow)
+    {
+        if (isShared(original) && ResourceUtility.linkFile(shadow, original.getLocation()))
+            return;
+        ResourceUtility.copyResource(original, shadow);
+    }
+
+    /**
+     * Returns <code>true</code> if the given original file can be shared with the shadow project through a link,
+     * <code>false</code> otherwise.
+     * 
+     * @param original The original file.
+     * @return <code>true</code> if the given file can be shared with the shadow project.
+     */
+    private boolean isShared(IFile original)
+    {
+        String extension = original.getFileExtension();
+        if (!LAZY_SHADOW || extension == null || original.getLocation() == null)
+            return false;
+        for (String sharedExtension: SHARED_EXTENSIONS)
+        {
+            if (sharedExtension.equalsIgnoreCase(extension))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records the given resource as modified if it belongs to the {@link #shadow_} project. <br>
+     * Replicas are synchronized with the same methods, but their modifications are not interesting for the clients.
+     * 
+     * @param shadow A resource that is modified during the synchronization.
+     * @see #consumeAffectedFiles()
+     */
+    private void recordModification(IResource shadow)
+    {
+        if (shadow.getProject().equals(shadow_))
+            worker_.addModifiedFile(shadow.getProjectRelativePath());
     }
 
     /**
@@ -763,6 +1322,28 @@ public class ProjectSynchronizer
         return original_;
     }
 
+    /**
+     * Returns the shadow projects in the shadow pool. The first element is always the shadow project that is kept in
+     * sync by the {@link #worker_}, the rest are the replicas. <br>
+     * <br>
+     * This method is synchronized over 'this'.
+     * 
+     * @return The shadow projects in the shadow pool.
+     */
+    public synchronized IProject [] getShadowPool()
+    {
+        IProject [] result = new IProject [replicas_.size() + 1];
+        result[0] = shadow_;
+        for (int a = 0; a < replicas_.size(); a++)
+            result[a + 1] = replicas_.get(a);
+        return result;
+    }
+
+    private synchronized IProject [] getReplicas()
+    {
+        return replicas_.toArray(new IProject [replicas_.size()]);
+    }
+
     public void startInternalCheck()
     {
         internalCheck_ = true;
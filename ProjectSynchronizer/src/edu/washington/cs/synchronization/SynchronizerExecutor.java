@@ -0,0 +1,180 @@
+package edu.washington.cs.synchronization;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Synchronizer executor runs the short background jobs of the plug-ins (e.g., processing a resource change event)
+ * on a shared, bounded pool of named daemon threads, instead of each listener starting a new thread per event. <br>
+ * The queue of the pool is bounded by {@link #QUEUE_LIMIT}. Events cannot be dropped without breaking the
+ * synchronization, and the submitting threads (the UI thread, or a thread that notifies resource changes while holding
+ * the workspace) cannot run the jobs themselves without risking a deadlock with the task workers. So a job that does
+ * not fit in the queue runs in a new thread, and the number of such rejections is reported by
+ * {@link #getRejectedCount()}. <br>
+ * Delayed jobs (e.g., signaling the end of a typing session) run on a separate single scheduler thread, so that they
+ * can be rescheduled or cancelled cheaply (see {@link #schedule(Runnable, long)}).
+ * 
+ * @author Kivanc Muslu
+ */
+public class SynchronizerExecutor
+{
+    /** Logger for debugging. */
+    private static final Logger logger = Logger.getLogger(SynchronizerExecutor.class.getName());
+    static
+    {
+        logger.setLevel(Level.INFO);
+    }
+    /** Number of threads in the pool. */
+    private static final int POOL_SIZE = 3;
+    /** Maximum number of jobs that can wait in the queue of the pool. */
+    public static final int QUEUE_LIMIT = 256;
+    /** Time (in seconds) that an idle thread of the pool waits for a new job before it dies. */
+    private static final long KEEP_ALIVE_TIME = 30;
+
+    private static final ThreadPoolExecutor pool_;
+    private static final ScheduledThreadPoolExecutor scheduler_;
+    private static final AtomicLong rejectedCount_ = new AtomicLong();
+    static
+    {
+        pool_ = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+                new ArrayBlockingQueue <Runnable>(QUEUE_LIMIT), new NamedThreadFactory("Project Synchronizer Executor"),
+                new RejectionHandler());
+        pool_.allowCoreThreadTimeOut(true);
+        scheduler_ = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("Project Synchronizer Scheduler"));
+    }
+
+    /**
+     * This class cannot be instantiated.
+     */
+    private SynchronizerExecutor()
+    {}
+
+    /**************
+     * PUBLIC API *
+     *************/
+    /**
+     * Runs the given job on the shared pool. <br>
+     * If the queue of the pool is full, the job is run in a new thread.
+     * 
+     * @param job The job.
+     */
+    public static void execute(Runnable job)
+    {
+        pool_.execute(new LoggingJob(job));
+    }
+
+    /**
+     * Runs the given job on the scheduler thread after the given delay. <br>
+     * The job should be short, since all delayed jobs share the same thread.
+     * 
+     * @param job The job.
+     * @param delay The delay in milliseconds.
+     * @return The future of the scheduled job, which can be used to cancel it.
+     */
+    public static ScheduledFuture <?> schedule(Runnable job, long delay)
+    {
+        return scheduler_.schedule(new LoggingJob(job), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /*********************
+     * GETTERS & SETTERS *
+     ********************/
+    /**
+     * @return The number of jobs that are run in a new thread since the queue of the pool was full.
+     */
+    public static long getRejectedCount()
+    {
+        return rejectedCount_.get();
+    }
+
+    /**
+     * @return The number of jobs that are waiting in the queue of the pool.
+     */
+    public static int getQueueDepth()
+    {
+        return pool_.getQueue().size();
+    }
+
+    /**
+     * @return The number of jobs that are completed by the pool.
+     */
+    public static long getCompletedCount()
+    {
+        return pool_.getCompletedTaskCount();
+    }
+
+    /***************
+     * PRIVATE API *
+     **************/
+    /**
+     * Creates named daemon threads, so that the pool never keeps Eclipse alive and the threads are easy to identify.
+     */
+    private static class NamedThreadFactory implements ThreadFactory
+    {
+        private final String name_;
+        private final AtomicInteger count_ = new AtomicInteger();
+
+        private NamedThreadFactory(String name)
+        {
+            name_ = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, name_ + " #" + count_.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * Runs the rejected jobs in new threads and counts them.
+     */
+    private static class RejectionHandler implements RejectedExecutionHandler
+    {
+        @Override
+        public void rejectedExecution(Runnable job, ThreadPoolExecutor executor)
+        {
+            long count = rejectedCount_.incrementAndGet();
+            logger.fine("Queue is full, running the job in a new thread (" + count + " rejection(s) so far).");
+            if (!executor.isShutdown())
+                new Thread(job, "Project Synchronizer Overflow Job").start();
+        }
+    }
+
+    /**
+     * Logs the exceptions thrown by a job, which would otherwise be swallowed by the executor.
+     */
+    private static class LoggingJob implements Runnable
+    {
+        private final Runnable job_;
+
+        private LoggingJob(Runnable job)
+        {
+            job_ = job;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                job_.run();
+            }
+            catch (RuntimeException e)
+            {
+                logger.log(Level.SEVERE, "Background job threw an exception.", e);
+            }
+        }
+    }
+}
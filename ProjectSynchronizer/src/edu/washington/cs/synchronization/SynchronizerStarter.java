@@ -1,9 +1,13 @@
 package edu.washington.cs.synchronization;
 
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
 import org.eclipse.core.filebuffers.FileBuffers;
 import org.eclipse.core.filebuffers.IFileBuffer;
 import org.eclipse.core.resources.IResourceChangeListener;
 import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.ui.IPartListener2;
@@ -16,6 +20,7 @@ import edu.washington.cs.swing.SwingUtility;
 import edu.washington.cs.synchronization.sync.SynchronizerCursorListener;
 import edu.washington.cs.synchronization.sync.SynchronizerFileBufferListener;
 import edu.washington.cs.synchronization.sync.SynchronizerResourceChangeListener;
+import edu.washington.cs.synchronization.sync.SynchronizerSaveParticipant;
 import edu.washington.cs.util.eclipse.PreferencesUtility;
 
 /**
@@ -26,6 +31,11 @@ import edu.washington.cs.util.eclipse.PreferencesUtility;
  */
 public class SynchronizerStarter implements IStartup
 {
+    private static final Logger logger = Logger.getLogger(SynchronizerStarter.class.getName());
+    static
+    {
+        logger.setLevel(Level.INFO);
+    }
     private static final String WELCOME_MESSAGE_ID = "Quick Fix Scout Alpha 5";
     /**
      * variable that indicates whether the global listener are added or not. <br>
@@ -59,6 +69,7 @@ public class SynchronizerStarter implements IStartup
             });
             initResourceListener();
             initFileBufferListener();
+            initSaveParticipant();
             showWelcomeMessageUsingJava();
             globalListenersAdded_ = true;
             
@@ -150,6 +161,20 @@ public class SynchronizerStarter implements IStartup
         ResourcesPlugin.getWorkspace().addResourceChangeListener(new SynchronizerResourceChangeListener());
     }
 
+    private static void initSaveParticipant()
+    {
+        try
+        {
+            ResourcesPlugin.getWorkspace().addSaveParticipant(ProjectSynchronizer.PLUG_IN_ID,
+                    new SynchronizerSaveParticipant());
+        }
+        catch (CoreException e)
+        {
+            logger.log(Level.WARNING, "Cannot register the save participant, shadow projects will be fully "
+                    + "synchronized at the next start.", e);
+        }
+    }
+
     private static void initFileBufferListener()
     {
         IFileBuffer [] buffers = FileBuffers.getTextFileBufferManager().getFileBuffers();
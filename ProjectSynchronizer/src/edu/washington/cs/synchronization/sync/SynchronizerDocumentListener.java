@@ -1,20 +1,25 @@
 package edu.washington.cs.synchronization.sync;
 
+import java.util.ArrayList;
+
 import org.eclipse.core.filebuffers.IFileBuffer;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.jface.text.DocumentEvent;
 import org.eclipse.jface.text.IDocumentListener;
 
 import edu.washington.cs.synchronization.ProjectSynchronizer;
+import edu.washington.cs.synchronization.SynchronizerExecutor;
 import edu.washington.cs.synchronization.sync.task.internal.DocumentChangeTask;
-import edu.washington.cs.synchronization.sync.task.internal.DocumentSaveTask;
-import edu.washington.cs.synchronization.sync.task.internal.Task;
+import edu.washington.cs.synchronization.sync.task.internal.DocumentEdit;
 import edu.washington.cs.util.eclipse.ResourceUtility;
 
 /**
  * Synchronizer document listener provides methods to keep track of the changes done to a document at buffer level so
  * that the same changes can also be applied to copy files. <br>
- * Provides synchronization at buffer level.
+ * Provides synchronization at buffer level. <br>
+ * The changes are queued (merging the adjacent ones) in the UI thread and a single consumer job (run by the
+ * {@link SynchronizerExecutor}) passes them to the task workers of the synchronizers, so a typing burst does not create
+ * a thread per keystroke.
  * 
  * @author Kivanc Muslu
  */
@@ -24,6 +29,10 @@ public class SynchronizerDocumentListener implements IDocumentListener
     private final IFile file_;
     /** Active synchronizers that are interested in changes done to this document. */
     private ProjectSynchronizer [] synchronizers_ = null;
+    /** Edits that are not passed to the synchronizers yet, in the order they are done. Protected by 'this'. */
+    private final ArrayList <DocumentEdit> pendingEdits_ = new ArrayList <DocumentEdit>();
+    /** <code>true</code> if a consumer job is draining {@link #pendingEdits_}. Protected by 'this'. */
+    private boolean consuming_ = false;
 
     /**
      * Creates a document listener that keeps track of the changes that is done to the given file buffer.
@@ -48,33 +57,66 @@ public class SynchronizerDocumentListener implements IDocumentListener
     /**
      * {@inheritDoc}
      * <p>
-     * For the synchronizers that are interested in the changes that are done to this document, creates a
-     * {@link DocumentSaveTask} and adds this task to their worklist.
+     * Queues the change for the synchronizers that are interested in the changes that are done to this document. The
+     * queued changes are added to their worklist as {@link DocumentChangeTask}s by a consumer job, which is submitted
+     * if there is none running.
      * </p>
      */
     @Override
-    public void documentChanged(final DocumentEvent event)
+    public void documentChanged(DocumentEvent event)
     {
-        Thread worker = new Thread()
+        DocumentEdit edit = new DocumentEdit(event);
+        boolean startConsumer;
+        synchronized (this)
+        {
+            if (pendingEdits_.isEmpty() || !pendingEdits_.get(pendingEdits_.size() - 1).merge(edit))
+                pendingEdits_.add(edit);
+            startConsumer = !consuming_;
+            consuming_ = true;
+        }
+        if (startConsumer)
         {
-            public void run()
+            SynchronizerExecutor.execute(new Runnable()
             {
-                /*
-                 * We have check for this every time since it seems that IDocumentListeners are notified before IPartListener2.
-                 * This means that the moment we created this object, it might be the case that no synchronizer is created to
-                 * watch this document. However, when the user makes a change (this method is called), a synchronizer that is
-                 * interested in this document might have been created.
-                 */
-                if (synchronizers_ == null)
-                    synchronizers_ = ProjectSynchronizer.getSynchronizers(file_.getProject());
-                for (ProjectSynchronizer synchronizer: synchronizers_)
+                public void run()
                 {
-                    IFile shadowFile = synchronizer.getShadowProject().getFile(file_.getProjectRelativePath());
-                    Task documentChangeTask = new DocumentChangeTask(shadowFile, event);
-                    synchronizer.getTaskWorker().addTask(documentChangeTask);
+                    consumeEdits();
                 }
+            });
+        }
+    }
+
+    /**
+     * Passes the queued edits to the synchronizers until the queue is empty.
+     */
+    private void consumeEdits()
+    {
+        while (true)
+        {
+            ArrayList <DocumentEdit> edits;
+            synchronized (this)
+            {
+                if (pendingEdits_.isEmpty())
+                {
+                    consuming_ = false;
+                    return;
+                }
+                edits = new ArrayList <DocumentEdit>(pendingEdits_);
+                pendingEdits_.clear();
+            }
+            /*
+             * We have check for this every time since it seems that IDocumentListeners are notified before IPartListener2.
+             * This means that the moment we created this object, it might be the case that no synchronizer is created to
+             * watch this document. However, when the user makes a change (this method is called), a synchronizer that is
+             * interested in this document might have been created.
+             */
+            if (synchronizers_ == null)
+                synchronizers_ = ProjectSynchronizer.getSynchronizers(file_.getProject());
+            for (ProjectSynchronizer synchronizer: synchronizers_)
+            {
+                IFile shadowFile = synchronizer.getShadowProject().getFile(file_.getProjectRelativePath());
+                synchronizer.getTaskWorker().addDocumentEdits(shadowFile, edits);
             }
-        };
-        worker.start();
+        }
     }
 }
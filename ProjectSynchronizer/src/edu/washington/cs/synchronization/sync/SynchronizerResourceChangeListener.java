@@ -11,6 +11,7 @@ import org.eclipse.core.resources.IResourceChangeListener;
 import org.eclipse.core.resources.IResourceDelta;
 
 import edu.washington.cs.synchronization.ProjectSynchronizer;
+import edu.washington.cs.synchronization.SynchronizerExecutor;
 import edu.washington.cs.synchronization.sync.task.internal.ResourceChangeTask;
 import edu.washington.cs.synchronization.sync.task.internal.TaskWorker;
 
@@ -39,19 +40,21 @@ public class SynchronizerResourceChangeListener implements IResourceChangeListen
 
     /**
      * {@inheritDoc}
+     * <p>
+     * The delta of the event is processed by the {@link SynchronizerExecutor}.
+     * </p>
      */
     @Override
     public void resourceChanged(final IResourceChangeEvent event)
     {
-        Thread worker = new Thread()
+        SynchronizerExecutor.execute(new Runnable()
         {
             public void run()
             {
                 IResourceDelta delta = event.getDelta();
                 processResourceDelta(delta, 0);
             }
-        };
-        worker.start();
+        });
     }
 
     /**
@@ -0,0 +1,53 @@
+package edu.washington.cs.synchronization.sync;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.core.resources.ISaveContext;
+import org.eclipse.core.resources.ISaveParticipant;
+
+import edu.washington.cs.synchronization.ProjectSynchronizer;
+
+/**
+ * As an implementation of {@link ISaveParticipant}, this class stores the state of the project synchronizers when the
+ * workspace is saved at shutdown. <br>
+ * The next Eclipse session uses this state to validate only the files that are modified in between, instead of doing a
+ * full synchronization.
+ * 
+ * @author Kivanc Muslu
+ */
+public class SynchronizerSaveParticipant implements ISaveParticipant
+{
+    private static final Logger logger = Logger.getLogger(SynchronizerSaveParticipant.class.getName());
+    static
+    {
+        logger.setLevel(Level.INFO);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Stores the state of every project synchronizer if this is a full save (i.e., the workspace is closing).
+     * </p>
+     */
+    @Override
+    public void saving(ISaveContext context)
+    {
+        if (context.getKind() != ISaveContext.FULL_SAVE)
+            return;
+        logger.info("Storing the state of the project synchronizers.");
+        ProjectSynchronizer.saveAllStates();
+    }
+
+    @Override
+    public void prepareToSave(ISaveContext context)
+    {}
+
+    @Override
+    public void doneSaving(ISaveContext context)
+    {}
+
+    @Override
+    public void rollback(ISaveContext context)
+    {}
+}
@@ -100,7 +100,11 @@ public class BufferChangedTask implements Task
         return buffer.toString();
     }
 
-    private IPath getProjectRelativePath()
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IPath getProjectRelativePath()
     {
         return event_.getBuffer().getUnderlyingResource().getProjectRelativePath();
     }
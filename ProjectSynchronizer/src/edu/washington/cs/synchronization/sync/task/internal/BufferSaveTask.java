@@ -91,4 +91,13 @@ public class BufferSaveTask implements SaveTask
                     + buffer_.getUnderlyingResource().getFullPath(), e);
         }
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IResource getResource()
+    {
+        return buffer_.getUnderlyingResource();
+    }
 }
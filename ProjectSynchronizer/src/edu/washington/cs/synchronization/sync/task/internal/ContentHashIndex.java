@@ -0,0 +1,244 @@
+package edu.washington.cs.synchronization.sync.task.internal;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.core.filesystem.IFileInfo;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+
+import edu.washington.cs.util.eclipse.ResourceUtility;
+
+/**
+ * Content hash index keeps a content hash (a SHA-1 digest, see {@link ResourceUtility#computeDigest(IFile)}) for each
+ * file of a project, keyed by the project relative path of the file. <br>
+ * A hash is valid as long as the size, the last modification time and the modification stamp of the file are the same
+ * as the moment it is computed. Files are only read when their hash is unknown or no longer valid, so comparing two
+ * projects becomes a comparison of hashes. <br>
+ * The {@link TaskWorker} invalidates the hashes of the files that it modifies, and the index can be stored on disc
+ * (see {@link #save(File)}) so that the hashes survive Eclipse sessions.
+ * <p>
+ * All methods are synchronized over 'this'.
+ * </p>
+ * 
+ * @author Kivanc Muslu
+ */
+public class ContentHashIndex
+{
+    /** Logger for debugging. */
+    private static final Logger logger = Logger.getLogger(ContentHashIndex.class.getName());
+    static
+    {
+        logger.setLevel(Level.INFO);
+    }
+    /** Separator between the fields of an entry on disc. */
+    private static final String SEPARATOR = "\t";
+    /** Length of a hash (i.e., a SHA-1 digest in hexadecimal). */
+    private static final int HASH_LENGTH = 40;
+
+    private final HashMap <IPath, Entry> entries_;
+    /** <code>true</code> if the index is modified since it is last loaded or saved. */
+    private boolean dirty_;
+
+    public ContentHashIndex()
+    {
+        entries_ = new HashMap <IPath, Entry>();
+        dirty_ = false;
+    }
+
+    /**************
+     * PUBLIC API *
+     *************/
+    /**
+     * Returns the content hash of the given file, reading the file only if its hash is unknown or no longer valid.
+     * 
+     * @param file The file.
+     * @param info The information of the file (which is already fetched by the caller).
+     * @return The content hash of the given file, <code>null</code> if the file cannot be read.
+     */
+    public synchronized String getHash(IFile file, IFileInfo info)
+    {
+        IPath path = file.getProjectRelativePath();
+        Entry entry = entries_.get(path);
+        long stamp = file.getModificationStamp();
+        if (entry != null && entry.isValid(info.getLength(), info.getLastModified(), stamp))
+            return entry.hash_;
+        String hash = ResourceUtility.computeDigest(file);
+        if (hash == null)
+        {
+            if (entries_.remove(path) != null)
+                dirty_ = true;
+            return null;
+        }
+        entries_.put(path, new Entry(info.getLength(), info.getLastModified(), stamp, hash));
+        dirty_ = true;
+        return hash;
+    }
+
+    /**
+     * Returns the recorded content hash of the given file without accessing the file system. <br>
+     * The recorded hash is only returned if the file is not modified since the hash is computed and it is not modified
+     * after the given synchronization time. The modifications are detected through the workspace, so the caller must
+     * refresh the file beforehand (e.g., {@link edu.washington.cs.synchronization.ProjectSynchronizer#syncProjects()}
+     * refreshes both projects before comparing them).
+     * 
+     * @param file The file.
+     * @param syncTime The time of the last synchronization that the hash is trusted for.
+     * @return The recorded content hash of the given file, <code>null</code> if it cannot be trusted.
+     */
+    public synchronized String getRecordedHash(IFile file, long syncTime)
+    {
+        Entry entry = entries_.get(file.getProjectRelativePath());
+        if (entry == null || entry.modified_ > syncTime)
+            return null;
+        if (entry.stamp_ != file.getModificationStamp() || entry.modified_ != file.getLocalTimeStamp())
+            return null;
+        return entry.hash_;
+    }
+
+    /**
+     * Forgets the hash of the resource represented by the given project relative path. If the resource is a folder, the
+     * hashes of all files under it are forgotten.
+     * 
+     * @param path The project relative path of a modified resource.
+     */
+    public synchronized void invalidate(IPath path)
+    {
+        if (entries_.remove(path) != null)
+        {
+            dirty_ = true;
+            return;
+        }
+        for (Iterator <IPath> iterator = entries_.keySet().iterator(); iterator.hasNext();)
+        {
+            if (path.isPrefixOf(iterator.next()))
+            {
+                iterator.remove();
+                dirty_ = true;
+            }
+        }
+    }
+
+    /**
+     * Forgets all hashes (e.g., the project is re-created).
+     */
+    public synchronized void clear()
+    {
+        if (!entries_.isEmpty())
+            dirty_ = true;
+        entries_.clear();
+    }
+
+    /**
+     * Replaces the hashes with the ones stored in the given file. <br>
+     * Does nothing if the file does not exist, and starts with an empty index if the file cannot be read. Entries
+     * whose hash is not a digest (e.g., stored by an older version) are skipped.
+     * 
+     * @param storage The file that the index is stored in.
+     * @see #save(File)
+     */
+    public synchronized void load(File storage)
+    {
+        entries_.clear();
+        dirty_ = false;
+        if (!storage.exists())
+            return;
+        BufferedReader reader = null;
+        try
+        {
+            reader = new BufferedReader(new FileReader(storage));
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                String [] fields = line.split(SEPARATOR, 5);
+                if (fields.length != 5 || fields[3].length() != HASH_LENGTH)
+                    continue;
+                entries_.put(new Path(fields[4]), new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+                        Long.parseLong(fields[2]), fields[3]));
+            }
+            logger.fine("Loaded " + entries_.size() + " content hashes from " + storage);
+        }
+        catch (IOException e)
+        {
+            logger.log(Level.WARNING, "Cannot load the content hashes from " + storage + ", starting from scratch.", e);
+            entries_.clear();
+        }
+        catch (NumberFormatException e)
+        {
+            logger.log(Level.WARNING, "Content hashes in " + storage + " are corrupted, starting from scratch.", e);
+            entries_.clear();
+        }
+        finally
+        {
+            ResourceUtility.close(reader, storage);
+        }
+    }
+
+    /**
+     * Stores the hashes in the given file, if they are modified since they are last loaded or saved.
+     * 
+     * @param storage The file that the index will be stored in.
+     * @see #load(File)
+     */
+    public synchronized void save(File storage)
+    {
+        if (!dirty_)
+            return;
+        BufferedWriter writer = null;
+        try
+        {
+            writer = new BufferedWriter(new FileWriter(storage));
+            for (Map.Entry <IPath, Entry> mapEntry: entries_.entrySet())
+            {
+                Entry entry = mapEntry.getValue();
+                writer.write(entry.length_ + SEPARATOR + entry.modified_ + SEPARATOR + entry.stamp_ + SEPARATOR
+                        + entry.hash_ + SEPARATOR + mapEntry.getKey().toString());
+                writer.newLine();
+            }
+            dirty_ = false;
+            logger.fine("Saved " + entries_.size() + " content hashes to " + storage);
+        }
+        catch (IOException e)
+        {
+            logger.log(Level.WARNING, "Cannot save the content hashes to " + storage + ".", e);
+        }
+        finally
+        {
+            ResourceUtility.close(writer, storage);
+        }
+    }
+
+    /***************
+     * PRIVATE API *
+     **************/
+    private static class Entry
+    {
+        private final long length_;
+        private final long modified_;
+        private final long stamp_;
+        private final String hash_;
+
+        private Entry(long length, long modified, long stamp, String hash)
+        {
+            length_ = length;
+            modified_ = modified;
+            stamp_ = stamp;
+            hash_ = hash;
+        }
+
+        private boolean isValid(long length, long modified, long stamp)
+        {
+            return length_ == length && modified_ == modified && stamp_ == stamp;
+        }
+    }
+}
@@ -1,19 +1,21 @@
 package edu.washington.cs.synchronization.sync.task.internal;
 
+import java.util.ArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.eclipse.jface.text.BadLocationException;
-import org.eclipse.jface.text.DocumentEvent;
 import org.eclipse.jface.text.IDocument;
 import org.eclipse.swt.widgets.Display;
-import org.eclipse.ui.editors.text.TextFileDocumentProvider;
-import org.eclipse.ui.texteditor.IDocumentProvider;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
 
 /**
- * A task implementation that represents a change in a document (i.e., file buffer).
+ * A task implementation that represents a change in a document (i.e., file buffer). <br>
+ * The change is composed of consecutive {@link DocumentEdit}s done to the same file. The edits that touch each other
+ * are merged while they are added (see {@link #addEdit(DocumentEdit)}), and the whole change is applied to the document
+ * with a single replace operation.
  * 
  * @author Kivanc Muslu
  */
@@ -25,28 +27,73 @@ public class DocumentChangeTask implements Task
     {
         logger.setLevel(Level.INFO);
     }
+    /** Maximum number of (non-mergeable) edits that a single task can contain. */
+    private static final int MAX_EDITS = 256;
     /** File that the change will be applied to. */
     private final IFile file_;
-    /** The event that represents the change. */
-    private final DocumentEvent event_;
+    /** Document provider that the document of the file is connected to. */
+    private final ShadowDocumentProvider provider_;
+    /** Edits that represent the change, in the order they are done. */
+    private final ArrayList <DocumentEdit> edits_;
+    /**
+     * <code>true</code> once the task is taken from the worklist, after which no more edits can be added (see
+     * {@link #seal()}). <br>
+     * This field and {@link #edits_} are protected by 'this' until the task is sealed.
+     */
+    private boolean sealed_;
+    /** The single edit that is applied to the document, <code>null</code> until the change is applied. */
+    private volatile DocumentEdit appliedChange_;
 
     /**
-     * Creates a document change task using the file as the document that will be changed and event to represent the
-     * change.
+     * Creates a document change task using the file as the document that will be changed. <br>
+     * The change is empty until edits are added with {@link #addEdit(DocumentEdit)}.
      * 
      * @param file File that will be changed (to sustain the synchronization).
-     * @param event Event that represents the change done to the file.
+     * @param provider Document provider that the document of the file will be connected to.
      */
-    public DocumentChangeTask(IFile file, DocumentEvent event)
+    DocumentChangeTask(IFile file, ShadowDocumentProvider provider)
     {
         file_ = file;
-        event_ = event;
+        provider_ = provider;
+        edits_ = new ArrayList <DocumentEdit>();
+        sealed_ = false;
+        appliedChange_ = null;
+    }
+
+    /**************
+     * PUBLIC API *
+     *************/
+    /**
+     * Adds the given edit to the end of this change, merging it with the last edit if possible.
+     * 
+     * @param edit The edit that is done right after the edits of this change.
+     * @return <code>true</code> if the edit is added, <code>false</code> if this change is full or sealed.
+     */
+    synchronized boolean addEdit(DocumentEdit edit)
+    {
+        if (sealed_)
+            return false;
+        if (!edits_.isEmpty() && edits_.get(edits_.size() - 1).merge(edit))
+            return true;
+        if (edits_.size() >= MAX_EDITS)
+            return false;
+        edits_.add(edit);
+        return true;
+    }
+
+    /**
+     * Prevents new edits from being added to this change. <br>
+     * Called when the task is taken from the worklist, so that the edits done afterwards go to a new task.
+     */
+    synchronized void seal()
+    {
+        sealed_ = true;
     }
 
     /**
      * {@inheritDoc}
      * <p>
-     * A document change task is completed when the change represented by the event is applied to the file given. <br>
+     * A document change task is completed when the change represented by the edits is applied to the file given. <br>
      * A {@link DocumentSaveTask} that would save the same file is returned upon success. Returns <code>null</code> if
      * something goes wrong.
      * </p>
@@ -59,14 +106,10 @@ public class DocumentChangeTask implements Task
     {
         try
         {
-            final IDocumentProvider provider = new TextFileDocumentProvider();
-            provider.connect(file_);
-            final IDocument document = provider.getDocument(file_);
+            final IDocument document = provider_.getDocument(file_);
             if (document != null)
             {
-                final int offset = event_.getOffset();
-                final int length = event_.getLength();
-                final String text = event_.getText();
+                final DocumentEdit change = computeChange(document.get());
                 /*
                  * This must be done with Eclipse UI Thread. Because for some reason that I don't quite know, if the file
                  * that will be replaced (the shadow file) is open in the background, then a change fire causes one of the
@@ -81,7 +124,8 @@ public class DocumentChangeTask implements Task
                     {
                         try
                         {
-                            document.replace(offset, length, text);
+                            document.replace(change.getOffset(), change.getLength(), change.getText());
+                            appliedChange_ = change;
                         }
                         catch (BadLocationException e)
                         {
@@ -89,7 +133,7 @@ public class DocumentChangeTask implements Task
                         }
                     }
                 });
-                return new DocumentSaveTask(provider, file_);
+                return new DocumentSaveTask(provider_, file_);
             }
         }
         catch (CoreException e1)
@@ -97,13 +141,74 @@ public class DocumentChangeTask implements Task
             logger.log(Level.SEVERE, "Cannot apply the document change to file = " + file_.getProjectRelativePath()
                     + " due to an exception." + e1);
         }
+        catch (IndexOutOfBoundsException e)
+        {
+            logger.log(Level.SEVERE, "Cannot apply the document change to file = " + file_.getProjectRelativePath()
+                    + " since the document is out of sync.", e);
+        }
         return null;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IPath getProjectRelativePath()
+    {
+        return file_.getProjectRelativePath();
+    }
+
+    /*********************
+     * GETTERS & SETTERS *
+     ********************/
+    IFile getFile()
+    {
+        return file_;
+    }
+
+    /**
+     * Returns the single edit that this task applied to the document, <code>null</code> if the change is not applied
+     * (yet).
+     * 
+     * @return The edit that this task applied to the document.
+     */
+    DocumentEdit getAppliedChange()
+    {
+        return appliedChange_;
+    }
+
     @Override
-    public String toString()
+    public synchronized String toString()
+    {
+        return "[DocumentChangeTask: edits = " + edits_ + ", file = " + file_.getProjectRelativePath().toString()
+                + " in " + file_.getProject().getName() + "]";
+    }
+
+    /***************
+     * PRIVATE API *
+     **************/
+    /**
+     * Computes a single edit that is equivalent to applying all edits of this change to the given content.
+     * 
+     * @param content The current content of the document.
+     * @return A single edit that is equivalent to the edits of this change.
+     */
+    private DocumentEdit computeChange(String content)
     {
-        return "[DocumentChangeTask: text = " + event_.getText() + ", offset = " + event_.getOffset() + ", length = "
-                + event_.getLength() + ", file = " + file_.getProjectRelativePath().toString() + " in " + file_.getProject().getName() + "]";
+        if (edits_.size() == 1)
+            return edits_.get(0);
+        String newContent = DocumentEdit.apply(content, edits_);
+        // The replaced region is everything between the common prefix and the common suffix.
+        int prefix = 0;
+        int maxPrefix = Math.min(content.length(), newContent.length());
+        while (prefix < maxPrefix && content.charAt(prefix) == newContent.charAt(prefix))
+            prefix++;
+        int suffix = 0;
+        int maxSuffix = maxPrefix - prefix;
+        while (suffix < maxSuffix
+                && content.charAt(content.length() - suffix - 1) == newContent.charAt(newContent.length() - suffix - 1))
+            suffix++;
+        return new DocumentEdit(prefix, content.length() - prefix - suffix, newContent.substring(prefix,
+                newContent.length() - suffix));
     }
 }
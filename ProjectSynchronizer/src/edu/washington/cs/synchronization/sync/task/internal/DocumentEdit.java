@@ -0,0 +1,119 @@
+package edu.washington.cs.synchronization.sync.task.internal;
+
+import java.util.List;
+
+import org.eclipse.jface.text.DocumentEvent;
+
+/**
+ * A document edit represents a single replace operation on a document (i.e., the information in a
+ * {@link DocumentEvent}). <br>
+ * Consecutive edits that touch or overlap each other can be merged into a single edit (see {@link #merge(DocumentEdit)}
+ * ), which makes a typing burst a single edit.
+ *
+ * @author Kivanc Muslu
+ */
+public class DocumentEdit
+{
+    /** Offset of the replaced region (in the document before this edit). */
+    private int offset_;
+    /** Length of the replaced region (in the document before this edit). */
+    private int length_;
+    /** Text that replaces the region. */
+    private String text_;
+
+    /**
+     * Creates a document edit that represents the change in the given event.
+     *
+     * @param event The event that represents the change.
+     */
+    public DocumentEdit(DocumentEvent event)
+    {
+        this(event.getOffset(), event.getLength(), event.getText());
+    }
+
+    /**
+     * Creates a document edit that replaces the given region with the given text.
+     *
+     * @param offset Offset of the replaced region.
+     * @param length Length of the replaced region.
+     * @param text Text that replaces the region, <code>null</code> is the same as the empty string.
+     */
+    public DocumentEdit(int offset, int length, String text)
+    {
+        offset_ = offset;
+        length_ = length;
+        text_ = text == null ? "" : text;
+    }
+
+    /**************
+     * PUBLIC API *
+     *************/
+    /**
+     * Merges the given edit, which is applied right after 'this', into 'this' if the region it replaces touches or
+     * overlaps the text inserted by 'this'. <br>
+     * After a successful merge, applying 'this' is equivalent to applying the old 'this' followed by the given edit.
+     *
+     * @param next The edit that is applied right after 'this'.
+     * @return <code>true</code> if the given edit is merged into 'this', <code>false</code> otherwise.
+     */
+    public boolean merge(DocumentEdit next)
+    {
+        int insertedEnd = offset_ + text_.length();
+        int nextEnd = next.offset_ + next.length_;
+        if (next.offset_ > insertedEnd || nextEnd < offset_)
+            return false;
+        // The merged region, in the document after 'this' is applied.
+        int start = Math.min(offset_, next.offset_);
+        int end = Math.max(insertedEnd, nextEnd);
+        // The parts of the merged region that the next edit does not replace are within the inserted text.
+        StringBuilder text = new StringBuilder();
+        if (next.offset_ > offset_)
+            text.append(text_, 0, next.offset_ - offset_);
+        text.append(next.text_);
+        if (nextEnd < insertedEnd)
+            text.append(text_, nextEnd - offset_, text_.length());
+        length_ = end - text_.length() + length_ - start;
+        offset_ = start;
+        text_ = text.toString();
+        return true;
+    }
+
+    /**
+     * Applies the given edits (in order) to the given content.
+     *
+     * @param content The content of a document.
+     * @param edits The edits to apply.
+     * @return The content after the edits are applied.
+     */
+    public static String apply(String content, List <DocumentEdit> edits)
+    {
+        StringBuilder result = new StringBuilder(content);
+        for (DocumentEdit edit: edits)
+            result.replace(edit.offset_, edit.offset_ + edit.length_, edit.text_);
+        return result.toString();
+    }
+
+    /*********************
+     * GETTERS & SETTERS *
+     ********************/
+    public int getOffset()
+    {
+        return offset_;
+    }
+
+    public int getLength()
+    {
+        return length_;
+    }
+
+    public String getText()
+    {
+        return text_;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "[DocumentEdit: text = " + text_ + ", offset = " + offset_ + ", length = " + length_ + "]";
+    }
+}
@@ -5,8 +5,8 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IResource;
 import org.eclipse.core.runtime.CoreException;
-import org.eclipse.ui.texteditor.IDocumentProvider;
 
 /**
  * A task implementation that represents a file should be saved (so that the underlying buffer will be in sync with the
@@ -23,19 +23,18 @@ public class DocumentSaveTask implements SaveTask
         logger.setLevel(Level.INFO);
     }
     /** Document provider that the document is connected to. */
-    private final IDocumentProvider provider_;
+    private final ShadowDocumentProvider provider_;
     /** File that will be saved. */
     private final IFile file_;
 
     /**
-     * Creates a document save task with the given file, document and document provider.
+     * Creates a document save task with the given file and document provider.
      * 
-     * @param provider Document provider that the document is connected to. This connection is created when this task is
-     *            created (i.e., in {@link DocumentChangeTask}).
-     * @param document Document that the file is connected to.
+     * @param provider Document provider that the document is connected to. This connection is created by
+     *            {@link DocumentChangeTask} and kept open for the following changes.
      * @param file File that will be saved.
      */
-    public DocumentSaveTask(IDocumentProvider provider, IFile file)
+    DocumentSaveTask(ShadowDocumentProvider provider, IFile file)
     {
         provider_ = provider;
         file_ = file;
@@ -55,9 +54,7 @@ public class DocumentSaveTask implements SaveTask
     {
         try
         {
-            if (provider_.canSaveDocument(file_))
-                provider_.saveDocument(null, file_, provider_.getDocument(file_), false);
-            provider_.disconnect(file_);
+            provider_.saveDocument(file_);
         }
         catch (CoreException e)
         {
@@ -80,6 +77,15 @@ public class DocumentSaveTask implements SaveTask
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IResource getResource()
+    {
+        return file_;
+    }
+
     public String toString()
     {
         return "[DocumentSaveTask: file = " + file_.getProjectRelativePath().toString() + " in "
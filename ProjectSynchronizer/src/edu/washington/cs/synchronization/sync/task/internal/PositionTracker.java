@@ -0,0 +1,122 @@
+package edu.washington.cs.synchronization.sync.task.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.jface.text.Position;
+
+/**
+ * Position tracker keeps a set of positions (e.g., the locations of the compilation errors) in the files of a project
+ * up to date as the document edits are applied to the files. <br>
+ * A position is shifted by the edits that are done before it, and deleted (see {@link Position#isDeleted()}) by the
+ * edits that overlap it. All positions of a file are deleted if the file is modified in any other way (e.g., it is
+ * copied from the original project), since they cannot be tracked anymore. Deleted positions are not tracked.
+ * <p>
+ * All methods are synchronized over 'this'.
+ * </p>
+ *
+ * @author Kivanc Muslu
+ */
+class PositionTracker
+{
+    /** Tracked positions of each file, keyed by the project relative path of the file. */
+    private final HashMap <IPath, ArrayList <Position>> positions_;
+
+    PositionTracker()
+    {
+        positions_ = new HashMap <IPath, ArrayList <Position>>();
+    }
+
+    /**************
+     * PUBLIC API *
+     *************/
+    /**
+     * Starts tracking the given position in the given file.
+     *
+     * @param path The project relative path of the file.
+     * @param position The position that will be updated with the edits done to the file.
+     */
+    synchronized void track(IPath path, Position position)
+    {
+        ArrayList <Position> positions = positions_.get(path);
+        if (positions == null)
+        {
+            positions = new ArrayList <Position>();
+            positions_.put(path, positions);
+        }
+        positions.add(position);
+    }
+
+    /**
+     * Returns a copy of the current state of the given position, <code>null</code> if it is deleted.
+     *
+     * @param position A tracked position.
+     * @return A copy of the given position, <code>null</code> if it is deleted.
+     */
+    synchronized Position getCurrent(Position position)
+    {
+        if (position.isDeleted())
+            return null;
+        return new Position(position.getOffset(), position.getLength());
+    }
+
+    /**
+     * Updates the positions in the given file with the given edit, which is applied to the file.
+     *
+     * @param path The project relative path of the file.
+     * @param edit The edit that is applied to the file.
+     */
+    synchronized void update(IPath path, DocumentEdit edit)
+    {
+        ArrayList <Position> positions = positions_.get(path);
+        if (positions == null)
+            return;
+        int editEnd = edit.getOffset() + edit.getLength();
+        int delta = edit.getText().length() - edit.getLength();
+        for (Iterator <Position> iterator = positions.iterator(); iterator.hasNext();)
+        {
+            Position position = iterator.next();
+            if (editEnd <= position.getOffset())
+                position.setOffset(position.getOffset() + delta);
+            else if (edit.getOffset() < position.getOffset() + position.getLength())
+            {
+                // The edit changes the text of the position.
+                position.delete();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Deletes all positions in the given file, which is modified in a way that cannot be tracked.
+     *
+     * @param path The project relative path of the file.
+     */
+    synchronized void invalidate(IPath path)
+    {
+        ArrayList <Position> positions = positions_.remove(path);
+        if (positions != null)
+            deleteAll(positions);
+    }
+
+    /**
+     * Deletes all tracked positions.
+     */
+    synchronized void invalidateAll()
+    {
+        for (ArrayList <Position> positions: positions_.values())
+            deleteAll(positions);
+        positions_.clear();
+    }
+
+    /***************
+     * PRIVATE API *
+     **************/
+    private void deleteAll(ArrayList <Position> positions)
+    {
+        for (Position position: positions)
+            position.delete();
+    }
+}
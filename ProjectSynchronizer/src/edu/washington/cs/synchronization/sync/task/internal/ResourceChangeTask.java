@@ -8,6 +8,7 @@ import org.eclipse.core.resources.IFolder;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.runtime.IPath;
 
 import edu.washington.cs.synchronization.ProjectSynchronizer;
 import edu.washington.cs.synchronization.sync.SynchronizerResourceChangeListener;
@@ -94,6 +95,15 @@ public class ResourceChangeTask implements Task
         return null;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IPath getProjectRelativePath()
+    {
+        return originalFile_.getProjectRelativePath();
+    }
+
     /**
      * {@inheritDoc}
      */
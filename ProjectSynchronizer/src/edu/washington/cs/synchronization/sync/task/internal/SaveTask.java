@@ -1,6 +1,15 @@
 package edu.washington.cs.synchronization.sync.task.internal;
 
+import org.eclipse.core.resources.IResource;
+
 public interface SaveTask
 {
     void doTask();
+
+    /**
+     * Returns the resource that is saved by this task, which is used to compute the scheduling rule of the save.
+     * 
+     * @return The resource that is saved by this task, <code>null</code> if it is unknown.
+     */
+    IResource getResource();
 }
@@ -0,0 +1,82 @@
+package edu.washington.cs.synchronization.sync.task.internal;
+
+import java.util.HashSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.ui.editors.text.TextFileDocumentProvider;
+import org.eclipse.ui.texteditor.IDocumentProvider;
+
+/**
+ * Shadow document provider keeps a single connection to the document of each shadow file that is modified by a
+ * {@link DocumentChangeTask}. <br>
+ * Consecutive changes to the same file reuse the same connection instead of connecting a new document provider for
+ * each change. The connections are released with {@link #disconnectAll()} when the task worker dies.
+ * <p>
+ * All methods are synchronized over 'this'.
+ * </p>
+ * 
+ * @author Kivanc Muslu
+ */
+class ShadowDocumentProvider
+{
+    /** Logger for debugging. */
+    private static final Logger logger = Logger.getLogger(ShadowDocumentProvider.class.getName());
+    static
+    {
+        logger.setLevel(Level.INFO);
+    }
+    /** Document provider that all documents are connected to. */
+    private final IDocumentProvider provider_;
+    /** Files whose documents are connected to {@link #provider_}. */
+    private final HashSet <IFile> connectedFiles_;
+
+    ShadowDocumentProvider()
+    {
+        provider_ = new TextFileDocumentProvider();
+        connectedFiles_ = new HashSet <IFile>();
+    }
+
+    /**
+     * Returns the document of the given file, connecting it first if it is not connected yet.
+     * 
+     * @param file The file.
+     * @return The document of the given file, <code>null</code> if there is no such document.
+     * @throws CoreException If the document cannot be connected.
+     */
+    synchronized IDocument getDocument(IFile file) throws CoreException
+    {
+        if (!connectedFiles_.contains(file))
+        {
+            provider_.connect(file);
+            connectedFiles_.add(file);
+        }
+        return provider_.getDocument(file);
+    }
+
+    /**
+     * Saves the document of the given file, if it is connected and can be saved.
+     * 
+     * @param file The file.
+     * @throws CoreException If the document cannot be saved.
+     */
+    synchronized void saveDocument(IFile file) throws CoreException
+    {
+        if (connectedFiles_.contains(file) && provider_.canSaveDocument(file))
+            provider_.saveDocument(null, file, provider_.getDocument(file), false);
+    }
+
+    /**
+     * Releases all connections.
+     */
+    synchronized void disconnectAll()
+    {
+        for (IFile file: connectedFiles_)
+            provider_.disconnect(file);
+        logger.fine("Disconnected " + connectedFiles_.size() + " shadow documents.");
+        connectedFiles_.clear();
+    }
+}
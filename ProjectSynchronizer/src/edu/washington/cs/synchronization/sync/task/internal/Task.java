@@ -1,5 +1,7 @@
 package edu.washington.cs.synchronization.sync.task.internal;
 
+import org.eclipse.core.runtime.IPath;
+
 /**
  * Abstract task implementation for worker-task pattern. <br>
  * A concrete task class should implement the {@link #doTask()} method to represent a single piece of work.
@@ -15,4 +17,11 @@ public interface Task
      * @return A new {@link Task} if completing 'this' creates a new task, <code>null</code> otherwise.
      */
     SaveTask doTask();
+
+    /**
+     * Returns the project relative path of the file that is modified by this task.
+     * 
+     * @return The project relative path of the file that is modified by this task.
+     */
+    IPath getProjectRelativePath();
 }
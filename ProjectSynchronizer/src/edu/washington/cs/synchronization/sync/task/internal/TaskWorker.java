@@ -1,17 +1,40 @@
 package edu.washington.cs.synchronization.sync.task.internal;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.MultiRule;
+import org.eclipse.jface.text.Position;
+
+import edu.washington.cs.synchronization.SynchronizerExecutor;
 import edu.washington.cs.synchronization.sync.internal.ProjectModificationListener;
 import edu.washington.cs.synchronization.sync.internal.ProjectModificationNotifier;
 import edu.washington.cs.threading.BlockableMortalThread;
+import edu.washington.cs.util.eclipse.DependencyUtility;
 
 /**
  * A blockable mortal thread implementation for handling a queue of tasks. <br>
@@ -19,6 +42,16 @@ import edu.washington.cs.threading.BlockableMortalThread;
  * After completing a cycle, it will wait until new tasks are added to its queue, in which it is awaken and start its
  * new cycle.
  * <p>
+ * The worklist is a concurrent queue, so adding a task never waits for the worker to complete its current task.
+ * Duplicate tasks are ignored, and the document edits to the same file are coalesced into the document change task of
+ * that file as long as the task is still in the worklist (see {@link #addDocumentEdits(IFile, List)}) and no other
+ * task for that file is added after it.
+ * </p>
+ * <p>
+ * Task worker also keeps the positions that are given to {@link #trackPosition(IPath, Position)} (e.g., the locations
+ * of compilation errors in the shadow files) up to date with the document edits it applies.
+ * </p>
+ * <p>
  * Task worker is also a project modifier notifier. <br>
  * It will notify its listeners whenever a change will be applied to the project by the user.
  * </p>
@@ -35,25 +68,55 @@ public class TaskWorker extends BlockableMortalThread implements ProjectModifica
         logger.setLevel(Level.INFO);
     }
     /** The list of tasks. */
-    private final LinkedList <Task> tasks_;
+    private final ConcurrentLinkedQueue <Task> tasks_;
     /** A separate set of tasks used for efficient lookup. */
-    private final HashSet <Task> tasksCopy_;
-    /** List of tasks of secondary importance. */
+    private final Set <Task> tasksCopy_;
+    /** List of tasks of secondary importance. Protected by {@link #executionLock_}. */
     private final HashSet <SaveTask> saveTasks_;
-    private final ReentrantLock saveTaskLock_;
+    /**
+     * The document change task of each file that is still in {@link #tasks_} and can be extended with new edits (i.e.,
+     * the coalescing key of a document change is its file).
+     */
+    private final ConcurrentHashMap <IFile, DocumentChangeTask> pendingDocumentChanges_;
+    /** Document provider that keeps the documents of the modified shadow files connected. */
+    private final ShadowDocumentProvider documentProvider_;
+    /** Lock object that makes sure that the tasks are done one at a time and in order. */
+    private final ReentrantLock executionLock_;
+    /** Lock object for {@link #taskCondition_}, only used to wait for and to signal new tasks. */
     private final ReentrantLock taskLock_;
     private final Condition taskCondition_;
+    /** Number of times a thread that adds a task had to wait for {@link #taskLock_}. */
+    private final AtomicLong contentionCount_;
     /** boolean variable that indicates if the typing session should be bypassed or not. */
     private volatile boolean bypassTypingSessionCheck_ = false;
     /** a list of listeners. */
-    private final ArrayList <ProjectModificationListener> listenerList_;
-    /** lock object for list of listeners. */
-    private final ReentrantLock listenerListLock_;
+    private final CopyOnWriteArrayList <ProjectModificationListener> listenerList_;
     /** last modification date (i.e., the moment when the last task is added. */
     private volatile Date lastModificationDate_ = new Date();
+    /** Project relative paths of the files that are modified since the last {@link #consumeModifiedFiles()} call. */
+    private HashSet <IPath> modifiedFiles_;
+    /**
+     * Declarations of the files (see {@link DependencyUtility#getDeclarations(IFile)}) before the worker first modified
+     * them since the last {@link #consumeDeclarations()} call. Values are <code>null</code> if the declarations cannot
+     * be computed.
+     */
+    private HashMap <IPath, Set <String>> declarations_;
+    /** Lock object for {@link #modifiedFiles_} and {@link #declarations_}. */
+    private final ReentrantLock modifiedFilesLock_;
+    /** Project that 'this' modifies, <code>null</code> if the declarations of the modified files are not recorded. */
+    private volatile IProject declarationProject_ = null;
+    /** Content hashes of the files that 'this' modifies, <code>null</code> if they are not tracked. */
+    private volatile ContentHashIndex contentHashIndex_ = null;
+    /** Positions in the files that 'this' modifies, which are updated as the tasks are done. */
+    private final PositionTracker positionTracker_;
     
-    private volatile int typingSessionLength_ = 2000;
+    /** Decides how long to wait after the last change before signaling a project modification. */
+    private final TypingSessionEstimator typingSessionEstimator_;
+    /** <code>true</code> if the last document edit hints that the user pauses (e.g., it completes a statement). */
+    private volatile boolean pauseHint_ = false;
     public static volatile boolean blockAddingTasks = false;
+    /** Default typing session length (in milliseconds), used until it is set by the user. */
+    private static final int DEFAULT_TYPING_SESSION_LENGTH = 2000;
 
     // private static final long BREAK_TIME = 500;
     /**
@@ -64,14 +127,22 @@ public class TaskWorker extends BlockableMortalThread implements ProjectModifica
     public TaskWorker(long breakTime)
     {
         super(breakTime, "Project Synchronizer Task Worker");
-        tasks_ = new LinkedList <Task>();
+        tasks_ = new ConcurrentLinkedQueue <Task>();
         saveTasks_ = new HashSet <SaveTask>();
-        tasksCopy_ = new HashSet <Task>();
-        listenerList_ = new ArrayList <ProjectModificationListener>();
-        listenerListLock_ = new ReentrantLock();
-        saveTaskLock_ = new ReentrantLock();
+        tasksCopy_ = Collections.newSetFromMap(new ConcurrentHashMap <Task, Boolean>());
+        listenerList_ = new CopyOnWriteArrayList <ProjectModificationListener>();
+        pendingDocumentChanges_ = new ConcurrentHashMap <IFile, DocumentChangeTask>();
+        documentProvider_ = new ShadowDocumentProvider();
+        executionLock_ = new ReentrantLock();
         taskLock_ = new ReentrantLock();
         taskCondition_ = taskLock_.newCondition();
+        contentionCount_ = new AtomicLong();
+        modifiedFiles_ = new HashSet <IPath>();
+        declarations_ = new HashMap <IPath, Set <String>>();
+        modifiedFilesLock_ = new ReentrantLock();
+        positionTracker_ = new PositionTracker();
+        typingSessionEstimator_ = new TypingSessionEstimator(DEFAULT_TYPING_SESSION_LENGTH);
+        signalLock_ = new ReentrantLock();
     }
 
     /**
@@ -96,49 +167,214 @@ public class TaskWorker extends BlockableMortalThread implements ProjectModifica
         doSaveTasks();
     }
     
-    public void updateTypingSessionLength(int value)
+    /**
+     * Sets the content hash index of the project that 'this' modifies. <br>
+     * The hashes of the files are invalidated as they are modified.
+     * 
+     * @param index The content hash index of the modified project, <code>null</code> to stop tracking the hashes.
+     */
+    public void setContentHashIndex(ContentHashIndex index)
     {
-        typingSessionLength_ = value;
+        contentHashIndex_ = index;
     }
     
-    private void addSaveTask(SaveTask task)
+    /**
+     * Sets the project that 'this' modifies, so that the declarations of the files are recorded before they are
+     * modified (see {@link #consumeDeclarations()}).
+     * 
+     * @param project The modified project, <code>null</code> to stop recording the declarations.
+     */
+    public void setDeclarationProject(IProject project)
     {
-        if (task == null)
-            return;
-        
-        saveTaskLock_.lock();
-        saveTasks_.add(task);
-        saveTaskLock_.unlock();
+        declarationProject_ = project;
     }
-    
-    private void doSaveTasks()
+
+    /**
+     * Updates the typing session length, which is the maximum time that 'this' waits after the last change before
+     * signaling a project modification (see {@link TypingSessionEstimator}).
+     * 
+     * @param value The typing session length in milliseconds.
+     */
+    public void updateTypingSessionLength(int value)
     {
-        taskLock_.lock();
-        saveTaskLock_.lock();
-        for (Task task: tasks_)
+        typingSessionEstimator_.setMaxDelay(value);
+    }
+
+    /**
+     * Records the cost of the last speculative analysis round, which is used to back off the typing session signal
+     * while the rounds are expensive.
+     * 
+     * @param cost The time that the round took in milliseconds.
+     */
+    public void reportRoundCost(long cost)
+    {
+        typingSessionEstimator_.recordRoundCost(cost);
+    }
+
+    /**
+     * Signals the end of the current typing session after the minimum delay (e.g., the cursor moved onto a compilation
+     * error, so the user is likely to invoke a quick fix), if the signal is still pending.
+     * <p>
+     * This method is synchronized over {@link #signalLock_}.
+     * </p>
+     */
+    public void expediteTypingSessionSignal()
+    {
+        signalLock_.lock();
+        if (pendingSignal_ != null && !pendingSignalBypass_ && pendingSignal_.cancel(false))
         {
-            SaveTask save = task.doTask();
-            if (save != null)
-                saveTasks_.add(save);
+            logger.fine("Expediting the typing session signal.");
+            pendingSignal_ = SynchronizerExecutor.schedule(signalJob_, TypingSessionEstimator.MIN_DELAY);
         }
-        tasks_.clear();
-        taskLock_.unlock();
+        signalLock_.unlock();
+    }
+
+    /**
+     * Starts tracking the given position in the file represented by the given project relative path. <br>
+     * The position is shifted by the document edits that 'this' applies before it, and deleted (see
+     * {@link Position#isDeleted()}) if the text it covers is modified or the file is modified in any other way. This way
+     * the position keeps identifying the same text across edits. <br>
+     * The position must be given when the file is in sync with the worklist (e.g., while 'this' is blocked).
+     * 
+     * @param path The project relative path of the file.
+     * @param position The position in the current content of the file.
+     */
+    public void trackPosition(IPath path, Position position)
+    {
+        positionTracker_.track(path, position);
+    }
+
+    /**
+     * Returns the current state of the given tracked position, <code>null</code> if it is deleted.
+     * 
+     * @param position A position that is given to {@link #trackPosition(IPath, Position)}.
+     * @return A copy of the current state of the given position, <code>null</code> if it is deleted.
+     */
+    public Position getTrackedPosition(Position position)
+    {
+        return positionTracker_.getCurrent(position);
+    }
+
+    /**
+     * Stops tracking (and deletes) all positions given to {@link #trackPosition(IPath, Position)}.
+     */
+    public void stopTrackingPositions()
+    {
+        positionTracker_.invalidateAll();
+    }
+
+    public TypingSessionEstimator getTypingSessionEstimator()
+    {
+        return typingSessionEstimator_;
+    }
+
+    /**
+     * Returns the number of times a thread that adds a task had to wait for the worker, which should stay close to
+     * <code>0</code>.
+     * 
+     * @return The number of contended task additions.
+     */
+    public long getContentionCount()
+    {
+        return contentionCount_.get();
+    }
+    
+    private void doSaveTasks()
+    {
+        executionLock_.lock();
+        doTasks();
         logger.fine("Saving files..");
-        for (SaveTask task: saveTasks_)
-            task.doTask();
+        saveInWorkspaceOperation();
         saveTasks_.clear();
         logger.fine("Saved files..");
-        saveTaskLock_.unlock();
+        executionLock_.unlock();
+    }
+
+    /**
+     * Does the save tasks inside a single workspace operation whose scheduling rule covers the projects of the saved
+     * files. This way the saves cause a single resource change notification (and a single auto-build trigger) instead
+     * of one for each file. <br>
+     * If the workspace operation cannot be run (e.g., the workspace is locked by the caller), the remaining saves are
+     * done one by one. <br>
+     * Must only be called while holding {@link #executionLock_}.
+     */
+    private void saveInWorkspaceOperation()
+    {
+        if (saveTasks_.isEmpty())
+            return;
+        final SaveTask [] tasks = saveTasks_.toArray(new SaveTask [saveTasks_.size()]);
+        // Number of tasks that are done in the workspace operation.
+        final int [] done = new int [] {0};
+        IWorkspaceRunnable runnable = new IWorkspaceRunnable()
+        {
+            @Override
+            public void run(IProgressMonitor monitor) throws CoreException
+            {
+                for (SaveTask task: tasks)
+                {
+                    task.doTask();
+                    done[0]++;
+                }
+            }
+        };
+        try
+        {
+            ResourcesPlugin.getWorkspace().run(runnable, computeSchedulingRule(tasks), IWorkspace.AVOID_UPDATE, null);
+        }
+        catch (CoreException e)
+        {
+            logger.log(Level.WARNING, "Cannot save the files in a single workspace operation, saving them one by one.",
+                    e);
+        }
+        for (int a = done[0]; a < tasks.length; a++)
+            tasks[a].doTask();
+    }
+
+    /**
+     * Returns a scheduling rule that covers the projects of the resources saved by the given tasks.
+     */
+    private ISchedulingRule computeSchedulingRule(SaveTask [] tasks)
+    {
+        ISchedulingRule result = null;
+        for (SaveTask task: tasks)
+        {
+            IResource resource = task.getResource();
+            if (resource == null)
+                return ResourcesPlugin.getWorkspace().getRoot();
+            result = MultiRule.combine(result, resource.getProject());
+        }
+        return result;
+    }
+
+    /**
+     * Does the tasks in the worklist until it is empty. <br>
+     * Must only be called while holding {@link #executionLock_}.
+     */
+    private void doTasks()
+    {
+        Task current;
+        while ((current = removeTopTask()) != null)
+        {
+            IPath path = current.getProjectRelativePath();
+            recordDeclarations(path);
+            SaveTask result = current.doTask();
+            DocumentEdit change = current instanceof DocumentChangeTask ? ((DocumentChangeTask) current)
+                    .getAppliedChange() : null;
+            if (change != null)
+                positionTracker_.update(path, change);
+            recordModifiedFile(path, change == null);
+            if (result != null)
+                saveTasks_.add(result);
+        }
     }
 
     /**
      * Adds a new task to the worklist. <br>
-     * The task is added iff it does not exist in one of the worklists already. <br>
-     * The task is added to {@link #tasks_} if it has {@link Task#LOWEST_PRIORITY}, or added to {@link #tasksCopy_}
-     * otherwise. <br>
-     * This method also notifies 'this' since a new task is added to the worklist.
+     * The task is added iff it does not exist in the worklist already. <br>
+     * This method also notifies 'this' since a new task is added to the worklist. The listeners are notified without
+     * holding any lock of 'this'.
      * <p>
-     * This method is synchronized over 'this'.
+     * This method does not wait for the worker.
      * </p>
      * 
      * @param task Task to be added to the worklist.
@@ -149,25 +385,114 @@ public class TaskWorker extends BlockableMortalThread implements ProjectModifica
         addTask(task, false);
     }
     
+    /**
+     * Adds the given document edits (in the order they are done) to the worklist. <br>
+     * The edits are merged into the document change task of the given file if that task is still in the worklist,
+     * otherwise a new document change task is added. This way a typing burst results in a single replace (and a single
+     * save) on the shadow file. <br>
+     * This method also notifies 'this' since a new task might be added to the worklist.
+     * <p>
+     * This method does not wait for the worker. The edits of a file should be added by a single thread at a time.
+     * </p>
+     * 
+     * @param file The (shadow) file that the edits will be applied to.
+     * @param edits The edits done to the original file.
+     */
+    public void addDocumentEdits(IFile file, List <DocumentEdit> edits)
+    {
+        lastModificationDate_ = new Date();
+        typingSessionEstimator_.recordChange(System.currentTimeMillis());
+        if (!edits.isEmpty())
+            pauseHint_ = hintsPause(edits.get(edits.size() - 1));
+        DocumentChangeTask task = pendingDocumentChanges_.get(file);
+        for (DocumentEdit edit: edits)
+        {
+            // Copy the edit since merging modifies it and the same edits are passed to every synchronizer.
+            DocumentEdit copy = new DocumentEdit(edit.getOffset(), edit.getLength(), edit.getText());
+            if (task == null || !task.addEdit(copy))
+            {
+                task = new DocumentChangeTask(file, documentProvider_);
+                task.addEdit(copy);
+                pendingDocumentChanges_.put(file, task);
+                tasksCopy_.add(task);
+                tasks_.offer(task);
+                logger.fine("Adding new task = " + task);
+            }
+        }
+        signalProjectIsAboutToBeModified();
+        notifyNewTask();
+    }
+    
+    /**
+     * Returns <code>true</code> if the given edit hints that the user pauses, which is the case when it completes a
+     * statement or a block.
+     */
+    private boolean hintsPause(DocumentEdit edit)
+    {
+        String text = edit.getText().trim();
+        return text.endsWith(";") || text.endsWith("}");
+    }
+    
     private void addTask(Task task, boolean internal)
     {
         assert task != null;
-        taskLock_.lock();
         if (!internal)
+        {
             lastModificationDate_ = new Date();
+            typingSessionEstimator_.recordChange(System.currentTimeMillis());
+            pauseHint_ = false;
+        }
+        // The later edits of the file must not be merged into a change that is done before this task.
+        if (!(task instanceof DocumentChangeTask))
+            sealPendingDocumentChange(task.getProjectRelativePath());
         boolean newTask = tasksCopy_.add(task);
         if (newTask)
         {
             logger.fine("Adding new task = " + task);
-            tasks_.add(task);
+            tasks_.offer(task);
 //            if (super.isSynched())
 //            {
                 signalProjectIsAboutToBeModified();
-                taskCondition_.signalAll();
+                notifyNewTask();
 //            }
         }
         else
             logger.fine("Ignored duplicate task: " + task);
+    }
+
+    /**
+     * Seals the pending document change task of the file represented by the given project relative path (if any) and
+     * removes it from {@link #pendingDocumentChanges_}, so that the next document edits to that file start a new task.
+     * 
+     * @param path The project relative path of the file, can be <code>null</code>.
+     */
+    private void sealPendingDocumentChange(IPath path)
+    {
+        if (path == null)
+            return;
+        for (DocumentChangeTask change: pendingDocumentChanges_.values())
+        {
+            if (path.equals(change.getProjectRelativePath()))
+            {
+                change.seal();
+                pendingDocumentChanges_.remove(change.getFile(), change);
+            }
+        }
+    }
+
+    /**
+     * Wakes up 'this' if it is waiting for a task. <br>
+     * {@link #taskLock_} is only held by the worker while it checks the worklist before waiting, so this method
+     * practically never waits. The cases it does are counted (see {@link #getContentionCount()}).
+     */
+    private void notifyNewTask()
+    {
+        if (!taskLock_.tryLock())
+        {
+            contentionCount_.incrementAndGet();
+            taskLock_.lock();
+        }
+        taskCondition_.signalAll();
         taskLock_.unlock();
     }
     
@@ -177,23 +502,143 @@ public class TaskWorker extends BlockableMortalThread implements ProjectModifica
      * {@link #saveTasks_} list. <br>
      * If both lists are empty, this method returns <code>null</code> indicating that there is no more task to process.
      * <p>
-     * This method is synchronized over 'this'.
+     * This method does not block.
      * </p>
      * 
      * @return The next task that needs to be done from the worklist, <code>null</code> if there is no such task.
      */
     public Task removeTopTask()
     {
-        Task result = null;
-        taskLock_.lock();
-        if (!tasks_.isEmpty())
-            result = tasks_.remove();
+        Task result = tasks_.poll();
 //        else if (!secondaryTasks_.isEmpty())
 //            result = secondaryTasks_.remove();
         // If we got a task, remove it from the duplicate set.
         if (result != null)
             tasksCopy_.remove(result);
-        taskLock_.unlock();
+        // A document change task cannot be extended once it is removed.
+        if (result instanceof DocumentChangeTask)
+        {
+            DocumentChangeTask change = (DocumentChangeTask) result;
+            change.seal();
+            pendingDocumentChanges_.remove(change.getFile(), change);
+        }
+        return result;
+    }
+
+    /**
+     * Records that the file represented by the given project relative path is modified, and invalidates its content
+     * hash (see {@link #setContentHashIndex(ContentHashIndex)}) and its tracked positions. <br>
+     * Tasks record the files they modify automatically, this method is for the modifications that are done to the
+     * shadow project outside the worker (e.g., during a full synchronization).
+     * <p>
+     * This method is synchronized over {@link #modifiedFilesLock_}.
+     * </p>
+     * 
+     * @param path The project relative path of the modified file.
+     */
+    public void addModifiedFile(IPath path)
+    {
+        recordModifiedFile(path, true);
+    }
+
+    /**
+     * Records the declarations of the file represented by the given project relative path, if it is not modified since
+     * the last {@link #consumeDeclarations()} call. <br>
+     * Must be called before the file is modified.
+     */
+    private void recordDeclarations(IPath path)
+    {
+        IProject project = declarationProject_;
+        if (project == null || path == null)
+            return;
+        modifiedFilesLock_.lock();
+        boolean recorded = declarations_ == null || declarations_.containsKey(path);
+        modifiedFilesLock_.unlock();
+        if (recorded)
+            return;
+        // The declarations are computed without holding the lock since it reads the compilation unit.
+        Set <String> declarations = DependencyUtility.getDeclarations(project.getFile(path));
+        modifiedFilesLock_.lock();
+        if (declarations_ != null && !declarations_.containsKey(path))
+            declarations_.put(path, declarations);
+        modifiedFilesLock_.unlock();
+    }
+
+    /**
+     * Records that the file represented by the given project relative path is modified.
+     * 
+     * @param path The project relative path of the modified file.
+     * @param untracked <code>true</code> if the modification is not reflected to the tracked positions of the file.
+     */
+    private void recordModifiedFile(IPath path, boolean untracked)
+    {
+        if (untracked && path != null)
+            positionTracker_.invalidate(path);
+        ContentHashIndex index = contentHashIndex_;
+        if (index != null && path != null)
+            index.invalidate(path);
+        modifiedFilesLock_.lock();
+        if (modifiedFiles_ != null && path != null)
+            modifiedFiles_.add(path);
+        modifiedFilesLock_.unlock();
+    }
+
+    /**
+     * Records that every file might be modified (e.g., the shadow project is re-created), so the modifications cannot
+     * be tracked until the next {@link #consumeModifiedFiles()} call.
+     * <p>
+     * This method is synchronized over {@link #modifiedFilesLock_}.
+     * </p>
+     */
+    public void markAllFilesModified()
+    {
+        positionTracker_.invalidateAll();
+        ContentHashIndex index = contentHashIndex_;
+        if (index != null)
+            index.clear();
+        modifiedFilesLock_.lock();
+        modifiedFiles_ = null;
+        declarations_ = null;
+        modifiedFilesLock_.unlock();
+    }
+
+    /**
+     * Returns the project relative paths of the files that are modified since the last call to this method and starts
+     * tracking the modifications from scratch. <br>
+     * Returns <code>null</code> if the modifications could not be tracked (see {@link #markAllFilesModified()}).
+     * <p>
+     * This method is synchronized over {@link #modifiedFilesLock_}.
+     * </p>
+     * 
+     * @return The project relative paths of the modified files, or <code>null</code> if they are unknown.
+     */
+    public Set <IPath> consumeModifiedFiles()
+    {
+        modifiedFilesLock_.lock();
+        Set <IPath> result = modifiedFiles_;
+        modifiedFiles_ = new HashSet <IPath>();
+        modifiedFilesLock_.unlock();
+        return result;
+    }
+
+    /**
+     * Returns the declarations of the files that are modified by 'this' since the last call to this method (as they
+     * were before the first modification), and starts recording them from scratch. <br>
+     * The files that are modified outside the worker (see {@link #addModifiedFile(IPath)}) have no recorded
+     * declarations. Returns <code>null</code> if the modifications could not be tracked (see
+     * {@link #markAllFilesModified()}).
+     * <p>
+     * This method is synchronized over {@link #modifiedFilesLock_}.
+     * </p>
+     * 
+     * @return The declarations of the modified files before the modifications, keyed by their project relative paths.
+     */
+    public Map <IPath, Set <String>> consumeDeclarations()
+    {
+        modifiedFilesLock_.lock();
+        Map <IPath, Set <String>> result = declarations_;
+        declarations_ = new HashMap <IPath, Set <String>>();
+        modifiedFilesLock_.unlock();
         return result;
     }
 
@@ -207,11 +652,11 @@ public class TaskWorker extends BlockableMortalThread implements ProjectModifica
      */
     public boolean isEmpty()
     {
-        return getTaskSize() == 0;
+        return tasks_.isEmpty();
     }
 
     /**
-     * This method tells the notifier daemon to bypass typing session check since a change done by the user is
+     * This method tells the typing session signal to bypass typing session check since a change done by the user is
      * guaranteed to effect the number of compilation errors in the project. <br>
      * Called indirectly by Eclipse.
      */
@@ -221,11 +666,12 @@ public class TaskWorker extends BlockableMortalThread implements ProjectModifica
     }
 
     /**
-     * Returns <code>true</code> if current daemon should bypass typing session (shouldn't wait at all) before signaling
-     * a possible project modification, <code>false</code> otherwise. <br>
+     * Returns <code>true</code> if the next typing session signal should bypass typing session (shouldn't wait at all)
+     * before signaling a possible project modification, <code>false</code> otherwise. <br>
      * Calling this method also clears the {@link #bypassTypingSessionCheck_} value.
      * 
-     * @return <code>true</code> if current daemon should bypass typing session, <code>false</code> otherwise.
+     * @return <code>true</code> if the next typing session signal should bypass typing session, <code>false</code>
+     *         otherwise.
      */
     private boolean shouldBypassTypingSessionCheck()
     {
@@ -234,21 +680,6 @@ public class TaskWorker extends BlockableMortalThread implements ProjectModifica
         return result;
     }
 
-    /**
-     * Returns the number of tasks present in the worklist.
-     * <p>
-     * This method is synchronized over 'this'.
-     * </p>
-     * 
-     * @return The number of tasks present in the worklist.
-     */
-    private int getTaskSize()
-    {
-        taskLock_.lock();
-        int result = tasks_.size(); //+ secondaryTasks_.size();
-        taskLock_.unlock();
-        return result;
-    }
 
     /****************************************
      * BlockableMortalThread IMPLEMENTATION *
@@ -281,44 +712,59 @@ public class TaskWorker extends BlockableMortalThread implements ProjectModifica
         {
             super.preDoWork();
             taskLock_.lock();
-            taskCondition_.await();
+            // Check again while holding the lock, so that the signal of a task added in between is not missed.
+            if (!isDead() && isEmpty())
+                taskCondition_.await();
             taskLock_.unlock();
         }
     }
     
-    /** reference to the previous daemon. */
-    private TaskWorkerNotifierDaemon oldDaemon_ = null;
+    /** The scheduled signal of the end of the typing session, <code>null</code> if there is none. */
+    private ScheduledFuture <?> pendingSignal_ = null;
+    /** Lock object for {@link #pendingSignal_} and {@link #pendingSignalBypass_}. */
+    private final ReentrantLock signalLock_;
+    /** <code>true</code> if {@link #pendingSignal_} bypasses the typing session check. */
+    private boolean pendingSignalBypass_ = false;
+    /** The job that signals a project modification at the end of a typing session. */
+    private final Runnable signalJob_ = new Runnable()
+    {
+        public void run()
+        {
+            signalProjectModification();
+        }
+    };
 
     /**
      * {@inheritDoc}
      * <p>
      * A cycle of work for a task worker is defined as:
      * <ol>
-     * <li>If there is an old notifier daemon, invalidate it.</li>
+     * <li>If there is a pending typing session signal, cancel it.</li>
      * <li>Do all the tasks in the worklist until it is empty.</li>
-     * <li>Create a new notifier daemon, which will mimic typing session (i.e., signal a project modification if there
-     * is no other task comes).</li>
+     * <li>Schedule a new typing session signal, which will signal a project modification if no other task comes in the
+     * typing session (see {@link SynchronizerExecutor#schedule(Runnable, long)}). The length of the typing session is
+     * decided by the {@link TypingSessionEstimator}.</li>
      * </ol>
      * </p>
-     * 
-     * @see TaskWorkerNotifierDaemon
      */
     @Override
     protected void doWork() throws InterruptedException
     {
         if (isDead())
             return;
-        if (oldDaemon_ != null)
-            oldDaemon_.skipIt();
-        Task current;
-        while ((current = removeTopTask()) != null)
-        {
-            SaveTask result = current.doTask();
-            addSaveTask(result);
-        }
-        TaskWorkerNotifierDaemon daemon = new TaskWorkerNotifierDaemon(typingSessionLength_);
-        daemon.start();
-        oldDaemon_ = daemon;
+        // A signal that bypasses the typing session check is never skipped.
+        signalLock_.lock();
+        if (pendingSignal_ != null && !pendingSignalBypass_)
+            pendingSignal_.cancel(false);
+        signalLock_.unlock();
+        executionLock_.lock();
+        doTasks();
+        executionLock_.unlock();
+        signalLock_.lock();
+        pendingSignalBypass_ = shouldBypassTypingSessionCheck();
+        long delay = pendingSignalBypass_ ? 0 : typingSessionEstimator_.computeDelay(pauseHint_);
+        pendingSignal_ = SynchronizerExecutor.schedule(signalJob_, delay);
+        signalLock_.unlock();
     }
 
     /**
@@ -331,6 +777,10 @@ public class TaskWorker extends BlockableMortalThread implements ProjectModifica
     public void killAndJoin()
     {
         kill();
+        signalLock_.lock();
+        if (pendingSignal_ != null)
+            pendingSignal_.cancel(false);
+        signalLock_.unlock();
         logger.finer("Killed the worker.");
         unblock();
         logger.finer("Unblocked worker.");
@@ -347,6 +797,7 @@ public class TaskWorker extends BlockableMortalThread implements ProjectModifica
             e.printStackTrace();
         }
         logger.finer("Joined the worker.");
+        documentProvider_.disconnectAll();
     }
 
     /**********************************************
@@ -355,127 +806,47 @@ public class TaskWorker extends BlockableMortalThread implements ProjectModifica
     /**
      * {@inheritDoc}
      * <p>
-     * This method is synchronized over {@link #listenerListLock_}.
+     * The list of listeners is copied on write, so the listeners are notified without holding a lock.
      * </p>
      */
     @Override
     public void addProjectChangeListener(ProjectModificationListener listener)
     {
-        listenerListLock_.lock();
         listenerList_.add(listener);
-        listenerListLock_.unlock();
     }
 
     /**
      * {@inheritDoc}
      * <p>
-     * This method is synchronized over {@link #listenerListLock_}.
+     * The listeners are notified without holding a lock.
      * </p>
      */
     @Override
     public void signalProjectModification()
     {
-        listenerListLock_.lock();
         for (ProjectModificationListener listener: listenerList_)
             listener.projectModified();
-        listenerListLock_.unlock();
     }
 
     /**
      * {@inheritDoc}
      * <p>
-     * This method is synchronized over {@link #listenerListLock_}.
+     * The listeners are notified without holding a lock.
      * </p>
      */
     @Override
     public void signalProjectIsAboutToBeModified()
     {
-        listenerListLock_.lock();
         for (ProjectModificationListener listener: listenerList_)
             listener.projectIsAboutToBeModified();
-        listenerListLock_.unlock();
-    }
-
-    /**
-     * This is a daemon thread implementation that is used by {@link TaskWorker}. <br>
-     * Since task worker cannot wait until the current typing session ends, we need another thread running in parallel
-     * that will check this property. <br>
-     * The whole purpose of this implementation is to signal different signals about project modification.
-     * 
-     * @author Kivanc Muslu
-     */
-    private class TaskWorkerNotifierDaemon extends Thread
-    {
-        /** variable that represents whether the project modification should be signaled or not. */
-        private volatile boolean shouldNotify_;
-        private final int waitTime_;
-
-        /**
-         * Creates a task worker daemon.
-         */
-        public TaskWorkerNotifierDaemon(int waitTime)
-        {
-            shouldNotify_ = true;
-            waitTime_ = waitTime;
-        }
-
-        /**
-         * Tells the daemon to skip project notification.
-         */
-        private void skipIt()
-        {
-            shouldNotify_ = false;
-        }
-
-        /**
-         * Returns <code>true</code> if 'this' should signal a project modification, <code>false</code> otherwise. <br>
-         * 
-         * @return <code>true</code> if 'this' should signal a project modification, <code>false</code> otherwise.
-         */
-        private boolean shouldNotify()
-        {
-            return shouldNotify_;
-        }
-
-        /**
-         * {@inheritDoc}
-         * 
-         * @see #runInternal()
-         */
-        @Override
-        public void run()
-        {
-            try
-            {
-                runInternal();
-            }
-            catch (Exception e)
-            {
-                logger.log(Level.SEVERE, "Calculator notifier thread threw an exception.", e);
-            }
-        }
-
-        /**
-         * Represents the actual work done by the daemon. <br>
-         * It first sleeps for the amount of typing session length, checks the preconditions to signal a modification,
-         * and signals the project modification if the preconditions are met.
-         * 
-         * @throws InterruptedException If 'this' is interrupted during its sleep.
-         */
-        private void runInternal() throws InterruptedException
-        {
-            boolean bypassCheck = shouldBypassTypingSessionCheck();
-            if (!bypassCheck)
-                Thread.sleep(waitTime_/* Control.getControl().getTypingSessionLength() */);
-            if (bypassCheck || shouldNotify())
-                signalProjectModification();
-        }
     }
 
     public void clear()
     {
-        taskLock_.lock();
+        executionLock_.lock();
         tasks_.clear();
-        taskLock_.unlock();
+        tasksCopy_.clear();
+        pendingDocumentChanges_.clear();
+        executionLock_.unlock();
     }
 }
@@ -0,0 +1,172 @@
+package edu.washington.cs.synchronization.sync.task.internal;
+
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Typing session estimator decides how long the {@link TaskWorker} waits after the last change before it signals that
+ * the typing session is over. <br>
+ * Instead of waiting a fixed amount of time, the estimator learns the distribution of the gaps between the consecutive
+ * changes of the user. If no change comes within the 90th percentile of the gaps, the user has most likely paused. The
+ * median is used instead when the last change hints a pause (e.g., it completes a statement). The delay is extended by
+ * a fraction of the cost of the last speculative analysis round, so that expensive rounds are not started (and
+ * invalidated) too eagerly. <br>
+ * The delay is always between {@link #MIN_DELAY} and the typing session length that is set by the user, which is used
+ * as is until enough gaps are observed.
+ * <p>
+ * All methods are synchronized over 'this'.
+ * </p>
+ * 
+ * @author Kivanc Muslu
+ */
+public class TypingSessionEstimator
+{
+    /** Logger for debugging. */
+    private static final Logger logger = Logger.getLogger(TypingSessionEstimator.class.getName());
+    static
+    {
+        logger.setLevel(Level.INFO);
+    }
+    /** Minimum delay (in milliseconds) before the end of a typing session is signaled. */
+    public static final long MIN_DELAY = 150;
+    /** Number of most recent gaps that the estimator remembers. */
+    private static final int SAMPLE_SIZE = 256;
+    /** Number of gaps that must be observed before the delay is adapted. */
+    private static final int MIN_SAMPLES = 16;
+    /** Gaps that are longer than this (in milliseconds) are pauses between typing sessions, so they are not recorded. */
+    private static final long MAX_GAP = 5000;
+    /** Fraction of the cost of the last speculative analysis round that is added to the delay. */
+    private static final double ROUND_COST_WEIGHT = 0.5;
+
+    /** Circular buffer of the most recent gaps (in milliseconds). */
+    private final long [] gaps_;
+    private int gapCount_;
+    private int nextGap_;
+    /** The time of the last change, <code>-1</code> if there is none. */
+    private long lastChange_;
+    /** The cost of the last speculative analysis round (in milliseconds). */
+    private long roundCost_;
+    /** The typing session length that is set by the user (in milliseconds). */
+    private long maxDelay_;
+    /** The delay that is computed last. */
+    private long effectiveDelay_;
+
+    TypingSessionEstimator(long maxDelay)
+    {
+        gaps_ = new long [SAMPLE_SIZE];
+        gapCount_ = 0;
+        nextGap_ = 0;
+        lastChange_ = -1;
+        roundCost_ = 0;
+        maxDelay_ = maxDelay;
+        effectiveDelay_ = maxDelay;
+    }
+
+    /**************
+     * PUBLIC API *
+     *************/
+    /**
+     * Records that the user made a change at the given time.
+     * 
+     * @param time The time of the change in milliseconds.
+     */
+    synchronized void recordChange(long time)
+    {
+        if (lastChange_ != -1)
+        {
+            long gap = time - lastChange_;
+            if (gap >= 0 && gap <= MAX_GAP)
+            {
+                gaps_[nextGap_] = gap;
+                nextGap_ = (nextGap_ + 1) % SAMPLE_SIZE;
+                gapCount_ = Math.min(gapCount_ + 1, SAMPLE_SIZE);
+            }
+        }
+        lastChange_ = time;
+    }
+
+    /**
+     * Records the cost of the last speculative analysis round.
+     * 
+     * @param cost The time that the round took in milliseconds.
+     */
+    synchronized void recordRoundCost(long cost)
+    {
+        roundCost_ = Math.max(0, cost);
+    }
+
+    /**
+     * Computes the delay before the end of the current typing session is signaled.
+     * 
+     * @param pauseHint <code>true</code> if the last change hints that the user pauses.
+     * @return The delay in milliseconds.
+     */
+    synchronized long computeDelay(boolean pauseHint)
+    {
+        long delay = maxDelay_;
+        if (gapCount_ >= MIN_SAMPLES)
+            delay = computePercentile(pauseHint ? 50 : 90) + (long) (ROUND_COST_WEIGHT * roundCost_);
+        effectiveDelay_ = Math.max(MIN_DELAY, Math.min(delay, maxDelay_));
+        logger.finer("Typing session delay = " + effectiveDelay_ + " ms (pause hint = " + pauseHint + ").");
+        return effectiveDelay_;
+    }
+
+    /**
+     * Returns the given percentile of the recent gaps between the changes, <code>-1</code> if not enough gaps are
+     * observed yet.
+     * 
+     * @param percentile The percentile (between 1 and 100).
+     * @return The given percentile of the recent gaps in milliseconds.
+     */
+    public synchronized long getPercentile(int percentile)
+    {
+        if (gapCount_ < MIN_SAMPLES)
+            return -1;
+        return computePercentile(percentile);
+    }
+
+    /*********************
+     * GETTERS & SETTERS *
+     ********************/
+    /**
+     * @return The delay (in milliseconds) that is used for the last typing session.
+     */
+    public synchronized long getEffectiveDelay()
+    {
+        return effectiveDelay_;
+    }
+
+    /**
+     * @return The cost (in milliseconds) of the last speculative analysis round.
+     */
+    public synchronized long getRoundCost()
+    {
+        return roundCost_;
+    }
+
+    /**
+     * @return The number of gaps that the statistics are computed from.
+     */
+    public synchronized int getSampleCount()
+    {
+        return gapCount_;
+    }
+
+    synchronized void setMaxDelay(long maxDelay)
+    {
+        maxDelay_ = maxDelay;
+        effectiveDelay_ = Math.min(effectiveDelay_, maxDelay);
+    }
+
+    /***************
+     * PRIVATE API *
+     **************/
+    private long computePercentile(int percentile)
+    {
+        long [] gaps = Arrays.copyOf(gaps_, gapCount_);
+        Arrays.sort(gaps);
+        int index = (int) Math.ceil(percentile / 100.0 * gaps.length) - 1;
+        return gaps[Math.max(0, Math.min(index, gaps.length - 1))];
+    }
+}
@@ -1,5 +1,8 @@
 package edu.washington.cs.quickfix.speculation;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -32,6 +35,20 @@ public class Speculator implements CursorChangedListener
         return instance_;
     }
 
+    /** Maximum number of projects that are speculated at the same time. */
+    private static final int MAX_RUNNERS = 4;
+    /**
+     * Runners of the speculated projects (indexed by project name) in access order, so the first runner is the least
+     * recently used one. <br>
+     * Only the current runner does speculative analysis, the rest are paused and keep their results so that switching
+     * back to their projects is instant. When there are more than {@link #MAX_RUNNERS} runners, the least recently
+     * used one is stopped. <br>
+     * This field is protected by 'this'.
+     */
+    private final LinkedHashMap <String, Runner> runners_ = new LinkedHashMap <String, Runner>(MAX_RUNNERS + 1, 0.75f,
+            true);
+    /** The runner of the project that the user is working on, which might still be starting. */
+    private Runner foregroundRunner_ = null;
     private Runner currentRunner_ = null;
 
     // singleton.
@@ -57,9 +74,16 @@ public class Speculator implements CursorChangedListener
 
     public void stopSpeculation()
     {
-        Runner currentRunner = getCurrentRunner();
-        if (currentRunner != null)
-            currentRunner.stopRunning();
+        ArrayList <Runner> runners;
+        synchronized (this)
+        {
+            runners = new ArrayList <Runner>(runners_.values());
+            runners_.clear();
+            foregroundRunner_ = null;
+            setCurrentRunner(null);
+        }
+        for (Runner runner: runners)
+            runner.stopRunning();
     }
 
     public synchronized ProjectSynchronizer getCurrentSynchronizer()
@@ -79,37 +103,110 @@ public class Speculator implements CursorChangedListener
         IProject project = initialFile.getProject();
         if (SpeculationPreferencePage.getInstance().isActivated() && !ProjectSynchronizer.isShadowProject(project))
         {
-            Thread runner = new Runner(project, initialFile);
-            runner.start();
+            Runner runner;
+            Runner evicted = null;
+            boolean created = false;
+            synchronized (this)
+            {
+                runner = runners_.get(project.getName());
+                if (runner == null)
+                {
+                    runner = new Runner(project, initialFile);
+                    runners_.put(project.getName(), runner);
+                    evicted = evictLeastRecentlyUsed();
+                    created = true;
+                }
+                else
+                    logger.info("Resuming the speculator for project: " + project.getName());
+                foregroundRunner_ = runner;
+                runner.currentFile_ = initialFile;
+                Runner current = getCurrentRunner();
+                if (current != null && current != runner)
+                {
+                    current.pause();
+                    setCurrentRunner(null);
+                }
+                if (runner.ready_)
+                    activate(runner);
+            }
+            if (evicted != null)
+                evicted.stopRunning();
+            if (created)
+                runner.start();
         }
     }
 
+    /**
+     * Makes the given runner the current runner and resumes it. <br>
+     * Must only be called while holding the lock of 'this'.
+     */
+    private void activate(Runner runner)
+    {
+        Runner current = getCurrentRunner();
+        if (current != null && current != runner)
+            current.pause();
+        runner.resume();
+        setCurrentRunner(runner);
+    }
+
+    /**
+     * Removes the least recently used runner if there are more than {@link #MAX_RUNNERS} runners. <br>
+     * Must only be called while holding the lock of 'this'. The caller is responsible for stopping the returned runner
+     * (outside the lock).
+     * 
+     * @return The removed runner, <code>null</code> if no runner is removed.
+     */
+    private Runner evictLeastRecentlyUsed()
+    {
+        if (runners_.size() <= MAX_RUNNERS)
+            return null;
+        Iterator <Runner> iterator = runners_.values().iterator();
+        Runner eldest = iterator.next();
+        iterator.remove();
+        if (eldest == getCurrentRunner())
+            setCurrentRunner(null);
+        logger.info("Evicting the speculator for project: " + eldest.project_.getName());
+        return eldest;
+    }
+
     public class Runner extends Thread
     {
         private final IProject project_;
         private ProjectSynchronizer synchronizer_;
-        private final IFile initialFile_;
+        /** The file that is selected in the editor the last time this runner became the foreground runner. */
+        private IFile currentFile_;
         private SpeculationCalculator calculator_;
+        /** <code>true</code> once the synchronizer and the calculator are created. Protected by the speculator. */
+        private boolean ready_ = false;
+        /** <code>true</code> once this runner is stopped. Protected by the speculator. */
+        private boolean stopped_ = false;
 
         public Runner(IProject project, IFile file)
         {
             logger.info("Creating a speculator for project: " + project.getName());
             project_ = project;
-            initialFile_ = file;
+            currentFile_ = file;
         }
 
         public void run()
         {
-            Runner current = getCurrentRunner();
-            if (current != null)
-                current.stopRunning();
-            else
-                logger.info("There is no current runner.");
             logger.info("Creating synchronizer for project = " + project_.getName());
             createSynchronizer();
             logger.info("Creating calculator for project = " + project_.getName());
             createCalculator();
-            setCurrentRunner(this);
+            boolean stopped;
+            synchronized (Speculator.this)
+            {
+                ready_ = true;
+                stopped = stopped_;
+                if (!stopped && foregroundRunner_ == this)
+                    activate(this);
+                else
+                    logger.info("Speculator for project = " + project_.getName() + " is started in the background.");
+            }
+            if (stopped)
+                // Evicted or stopped while it was starting.
+                stopCalculatorAndSynchronizer();
         }
 
         private void createSynchronizer()
@@ -121,18 +218,51 @@ public class Speculator implements CursorChangedListener
         private void createCalculator()
         {
             SpeculationCalculator calculator = new SpeculationCalculator(synchronizer_);
+            // The calculator starts working once this runner becomes the current runner.
+            calculator.pause();
             calculator.start();
-            calculator.setCurrentFile(initialFile_);
             calculator_ = calculator;
         }
 
+        /**
+         * Pauses the calculator of this runner. The synchronizer keeps the shadow project in sync in the background.
+         * <br>
+         * Must only be called while holding the lock of the speculator.
+         */
+        private void pause()
+        {
+            if (ready_)
+                calculator_.pause();
+        }
+
+        /**
+         * Resumes the calculator of this runner. <br>
+         * Must only be called while holding the lock of the speculator.
+         */
+        private void resume()
+        {
+            calculator_.setCurrentFile(currentFile_);
+            calculator_.resume();
+        }
+
         public void stopRunning()
+        {
+            synchronized (Speculator.this)
+            {
+                stopped_ = true;
+                if (!ready_)
+                    // The runner will stop itself once it is ready.
+                    return;
+            }
+            stopCalculatorAndSynchronizer();
+        }
+
+        private void stopCalculatorAndSynchronizer()
         {
             calculator_.killAndJoin();
             logger.info("Stopped calculator for project = " + project_.getName());
             synchronizer_.stop();
             logger.info("Stopped synchronizer for project = " + project_.getName());
-            setCurrentRunner(null);
         }
     }
 
@@ -161,11 +291,27 @@ public class Speculator implements CursorChangedListener
 
     public void updateTypingSessionTime(int value)
     {
-        SpeculationCalculator calculator = getCurrentCalculator();
-        if (calculator != null)
+        for (SpeculationCalculator calculator: getCalculators())
             calculator.updateTypingSessionTime(value);
     }
 
+    public void updateShadowPoolSize(int value)
+    {
+        for (SpeculationCalculator calculator: getCalculators())
+            calculator.updateShadowPoolSize(value);
+    }
+
+    private synchronized ArrayList <SpeculationCalculator> getCalculators()
+    {
+        ArrayList <SpeculationCalculator> result = new ArrayList <SpeculationCalculator>();
+        for (Runner runner: runners_.values())
+        {
+            if (runner.ready_)
+                result.add(runner.calculator_);
+        }
+        return result;
+    }
+
     public void quickFixInvoked()
     {
         SpeculationCalculator calculator = getCurrentCalculator();
@@ -0,0 +1,296 @@
+package edu.washington.cs.quickfix.speculation.calc;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.jdt.ui.text.java.IProblemLocation;
+
+import edu.washington.cs.quickfix.speculation.model.SpeculationUtility;
+import edu.washington.cs.util.eclipse.model.Squiggly;
+
+/**
+ * Compilation error scheduler decides the order in which the compilation errors are processed during a speculative
+ * analysis round. <br>
+ * The compilation errors are kept in a priority queue. The priority of a compilation error depends on:
+ * <ol>
+ * <li>whether a quick fix popup is waiting for it (see {@link #prioritize(IProblemLocation[])} and
+ * {@link #deprioritize(IProblemLocation[])}),</li>
+ * <li>whether the cursor is on it,</li>
+ * <li>whether it is in the file that is open in the editor (closer to the cursor is processed earlier).</li>
+ * </ol>
+ * The priorities change when the user moves the cursor or switches to another file. Instead of re-keying the queue on
+ * every cursor event, the scheduler marks the queue as stale and rebuilds it on the next access. <br>
+ * The first two priority classes are urgent: if such a compilation error is waiting in the queue, the compilation
+ * error that is being processed is preempted (see {@link #shouldPreempt(Squiggly)}). <br>
+ * <br>
+ * All methods are synchronized over 'this'.
+ *
+ * @author Kivanc Muslu
+ */
+class CompilationErrorScheduler
+{
+    /** Logger for debugging. */
+    private static final Logger logger = Logger.getLogger(CompilationErrorScheduler.class.getName());
+    static
+    {
+        logger.setLevel(Level.INFO);
+    }
+    /** Priority of the compilation errors that a quick fix popup is waiting for. */
+    private static final int POPUP_PRIORITY = 0;
+    /** Priority of the compilation errors that are under the cursor. */
+    private static final int CURSOR_PRIORITY = 1;
+    /** Priority of the compilation errors that are in the file open in the editor. */
+    private static final int EDITOR_PRIORITY = 2;
+    /** Priority of the rest of the compilation errors. */
+    private static final int DEFAULT_PRIORITY = 3;
+
+    private PriorityQueue <Squiggly> queue_;
+    /** <code>true</code> if the priorities have changed since the queue is built. */
+    private boolean stale_;
+    private String currentFilePath_;
+    private int cursorOffset_;
+    /** Locations of the compilation errors that a quick fix popup is waiting for. */
+    private IProblemLocation [] urgentLocations_;
+
+    CompilationErrorScheduler()
+    {
+        queue_ = new PriorityQueue <Squiggly>(11, new PriorityComparator());
+        stale_ = false;
+        currentFilePath_ = null;
+        cursorOffset_ = 0;
+        urgentLocations_ = new IProblemLocation [0];
+    }
+
+    /**************
+     * PUBLIC API *
+     *************/
+    /**
+     * Replaces the scheduled compilation errors with the given ones.
+     *
+     * @param compilationErrors The compilation errors that will be processed in this round.
+     */
+    synchronized void reset(Collection <Squiggly> compilationErrors)
+    {
+        queue_.clear();
+        queue_.addAll(compilationErrors);
+        stale_ = false;
+    }
+
+    /**
+     * Schedules the given compilation error (again), e.g., after it is preempted.
+     *
+     * @param compilationError The compilation error.
+     */
+    synchronized void add(Squiggly compilationError)
+    {
+        queue_.add(compilationError);
+    }
+
+    /**
+     * Removes and returns the compilation error with the highest priority, <code>null</code> if there is none.
+     *
+     * @return The compilation error with the highest priority, <code>null</code> if there is none.
+     */
+    synchronized Squiggly poll()
+    {
+        rebuildIfStale();
+        return queue_.poll();
+    }
+
+    synchronized boolean isEmpty()
+    {
+        return queue_.isEmpty();
+    }
+
+    /**
+     * Returns <code>true</code> if the processing of the given compilation error should be stopped in favor of a more
+     * urgent compilation error that is waiting in the queue, <code>false</code> otherwise.
+     *
+     * @param current The compilation error that is being processed.
+     * @return <code>true</code> if the given compilation error should be preempted, <code>false</code> otherwise.
+     */
+    synchronized boolean shouldPreempt(Squiggly current)
+    {
+        rebuildIfStale();
+        Squiggly head = queue_.peek();
+        if (head == null)
+            return false;
+        int headPriority = computePriority(head);
+        return headPriority <= CURSOR_PRIORITY && headPriority < computePriority(current);
+    }
+
+    /**
+     * Returns <code>true</code> if an urgent compilation error (i.e., one that a quick fix popup is waiting for or one
+     * that is under the cursor) is waiting in the queue, <code>false</code> otherwise.
+     *
+     * @return <code>true</code> if an urgent compilation error is waiting in the queue.
+     */
+    synchronized boolean hasUrgentWork()
+    {
+        rebuildIfStale();
+        Squiggly head = queue_.peek();
+        return head != null && computePriority(head) <= CURSOR_PRIORITY;
+    }
+
+    /**
+     * Returns the compilation errors that are waiting in the queue, in the order they would be polled. <br>
+     * The queue is not modified.
+     *
+     * @return The compilation errors that are waiting in the queue.
+     */
+    synchronized ArrayList <Squiggly> getScheduled()
+    {
+        rebuildIfStale();
+        ArrayList <Squiggly> compilationErrors = new ArrayList <Squiggly>(queue_);
+        Collections.sort(compilationErrors, queue_.comparator());
+        return compilationErrors;
+    }
+
+    /**
+     * Makes the compilation errors at the given locations the most urgent ones. <br>
+     * The previously prioritized locations are forgotten.
+     *
+     * @param locations The locations of the compilation errors that a quick fix popup is waiting for.
+     */
+    synchronized void prioritize(IProblemLocation [] locations)
+    {
+        urgentLocations_ = locations == null ? new IProblemLocation [0] : locations;
+        stale_ = true;
+    }
+
+    /**
+     * Forgets the given prioritized locations, if they are still the most recently prioritized ones (e.g., when the
+     * quick fix popup that is waiting for them is closed).
+     *
+     * @param locations The locations that were passed to {@link #prioritize(IProblemLocation[])}.
+     */
+    synchronized void deprioritize(IProblemLocation [] locations)
+    {
+        if (urgentLocations_ == locations)
+        {
+            urgentLocations_ = new IProblemLocation [0];
+            stale_ = true;
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if a quick fix popup is waiting for the given compilation error, <code>false</code>
+     * otherwise.
+     *
+     * @param compilationError The compilation error.
+     * @return <code>true</code> if a quick fix popup is waiting for the given compilation error.
+     */
+    synchronized boolean isWaitedFor(Squiggly compilationError)
+    {
+        return computePriority(compilationError) == POPUP_PRIORITY;
+    }
+
+    /**
+     * Returns <code>true</code> if the cursor is on the given compilation error, <code>false</code> otherwise.
+     *
+     * @param compilationError The compilation error.
+     * @return <code>true</code> if the cursor is on the given compilation error.
+     */
+    synchronized boolean isUnderCursor(Squiggly compilationError)
+    {
+        if (!isInCurrentFile(compilationError))
+            return false;
+        IProblemLocation location = compilationError.getLocation();
+        int offset = location.getOffset();
+        return offset <= cursorOffset_ && cursorOffset_ <= offset + location.getLength();
+    }
+
+    /*********************
+     * GETTERS & SETTERS *
+     ********************/
+    synchronized void setCurrentFile(IFile file)
+    {
+        String path = file == null ? null : file.getProjectRelativePath().toString();
+        if (path == null ? currentFilePath_ != null : !path.equals(currentFilePath_))
+        {
+            currentFilePath_ = path;
+            stale_ = true;
+        }
+    }
+
+    synchronized void setCursorOffset(int offset)
+    {
+        if (cursorOffset_ != offset)
+        {
+            cursorOffset_ = offset;
+            stale_ = true;
+        }
+    }
+
+    /***************
+     * PRIVATE API *
+     **************/
+    private void rebuildIfStale()
+    {
+        if (!stale_)
+            return;
+        ArrayList <Squiggly> compilationErrors = new ArrayList <Squiggly>(queue_);
+        queue_.clear();
+        queue_.addAll(compilationErrors);
+        stale_ = false;
+        logger.finer("Re-keyed " + compilationErrors.size() + " compilation errors.");
+    }
+
+    private int computePriority(Squiggly compilationError)
+    {
+        IProblemLocation location = compilationError.getLocation();
+        for (IProblemLocation urgentLocation: urgentLocations_)
+        {
+            if (SpeculationUtility.sameProblemLocationContent(location, urgentLocation))
+                return POPUP_PRIORITY;
+        }
+        if (!isInCurrentFile(compilationError))
+            return DEFAULT_PRIORITY;
+        int offset = location.getOffset();
+        if (offset <= cursorOffset_ && cursorOffset_ <= offset + location.getLength())
+            return CURSOR_PRIORITY;
+        return EDITOR_PRIORITY;
+    }
+
+    private boolean isInCurrentFile(Squiggly compilationError)
+    {
+        return currentFilePath_ != null
+                && currentFilePath_.equals(compilationError.getResource().getProjectRelativePath().toString());
+    }
+
+    /**
+     * Orders the compilation errors by priority, and the compilation errors in the current file by their distance to
+     * the cursor. <br>
+     * Must only be used while holding the lock of the scheduler.
+     */
+    private class PriorityComparator implements Comparator <Squiggly>
+    {
+        @Override
+        public int compare(Squiggly error1, Squiggly error2)
+        {
+            int priority1 = computePriority(error1);
+            int priority2 = computePriority(error2);
+            if (priority1 != priority2)
+                return priority1 - priority2;
+            if (priority1 == EDITOR_PRIORITY)
+            {
+                int diff1 = Math.abs(cursorOffset_ - error1.getLocation().getOffset());
+                int diff2 = Math.abs(cursorOffset_ - error2.getLocation().getOffset());
+                if (diff1 != diff2)
+                    return diff1 - diff2;
+            }
+            // Keep the order deterministic for the rest.
+            int comparison = error1.getResource().getProjectRelativePath().toString()
+                    .compareTo(error2.getResource().getProjectRelativePath().toString());
+            if (comparison != 0)
+                return comparison;
+            return error1.getLocation().getOffset() - error2.getLocation().getOffset();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package edu.washington.cs.quickfix.speculation.calc;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.jdt.ui.text.java.IJavaCompletionProposal;
+
+import edu.washington.cs.quickfix.speculation.Speculator;
+import edu.washington.cs.util.eclipse.PreferencesUtility;
+import edu.washington.cs.util.eclipse.model.Squiggly;
+
+/**
+ * Proposal cost model learns how long it takes to evaluate a proposal. <br>
+ * The costs are tracked per proposal type, which is the class of the proposal together with the problem id of the
+ * compilation error it is offered for. For each type, the model keeps a moving average of the evaluation time and how
+ * many times in a row the evaluation exceeded {@link #TIME_BUDGET}. <br>
+ * The calculator uses the model to evaluate the cheap proposals first and to defer the proposals that repeatedly exceed
+ * the budget to the end of the round. The learned costs are stored in the instance preferences of the plug-in, so they
+ * survive Eclipse sessions. <br>
+ * <br>
+ * All methods are synchronized over 'this'.
+ *
+ * @author Kivanc Muslu
+ */
+class ProposalCostModel
+{
+    /** Logger for debugging. */
+    private static final Logger logger = Logger.getLogger(ProposalCostModel.class.getName());
+    static
+    {
+        logger.setLevel(Level.INFO);
+    }
+    /** Time budget (in milliseconds) for evaluating a single proposal. */
+    static final long TIME_BUDGET = 1000;
+    /** Number of consecutive over budget evaluations after which a proposal type is deferred. */
+    private static final int MAX_OVER_BUDGET = 2;
+    /** Weight of the most recent evaluation time in the moving average. */
+    private static final double RECENT_WEIGHT = 0.3;
+    private static final String PREFERENCES_ID = Speculator.PLUG_IN_ID + ".proposal.costs";
+    private static final String COST_SUFFIX = " cost";
+    private static final String OVER_BUDGET_SUFFIX = " over budget";
+
+    private final PreferencesUtility preferences_;
+    private final Map <String, Cost> costs_;
+
+    ProposalCostModel()
+    {
+        preferences_ = new PreferencesUtility(PREFERENCES_ID);
+        costs_ = new HashMap <String, Cost>();
+    }
+
+    /**************
+     * PUBLIC API *
+     *************/
+    /**
+     * Returns the expected time (in milliseconds) for evaluating the given proposal, <code>0</code> if the cost of its
+     * type is not known yet (so that it is learned as early as possible).
+     *
+     * @param compilationError The compilation error that the proposal is offered for.
+     * @param proposal The proposal.
+     * @return The expected evaluation time of the given proposal.
+     */
+    synchronized long getExpectedCost(Squiggly compilationError, IJavaCompletionProposal proposal)
+    {
+        Cost cost = getCost(computeKey(compilationError, proposal));
+        return cost.average_ < 0 ? 0 : (long) cost.average_;
+    }
+
+    /**
+     * Returns <code>true</code> if the proposals of the same type as the given proposal have repeatedly exceeded the
+     * time budget, <code>false</code> otherwise.
+     *
+     * @param compilationError The compilation error that the proposal is offered for.
+     * @param proposal The proposal.
+     * @return <code>true</code> if the given proposal should be deferred to the end of the round.
+     */
+    synchronized boolean isOverBudget(Squiggly compilationError, IJavaCompletionProposal proposal)
+    {
+        return getCost(computeKey(compilationError, proposal)).overBudget_ >= MAX_OVER_BUDGET;
+    }
+
+    /**
+     * Records the time spent for evaluating the given proposal.
+     *
+     * @param compilationError The compilation error that the proposal is offered for.
+     * @param proposal The proposal.
+     * @param time The evaluation time in milliseconds.
+     */
+    synchronized void record(Squiggly compilationError, IJavaCompletionProposal proposal, long time)
+    {
+        String key = computeKey(compilationError, proposal);
+        Cost cost = getCost(key);
+        cost.average_ = cost.average_ < 0 ? time : RECENT_WEIGHT * time + (1 - RECENT_WEIGHT) * cost.average_;
+        if (time > TIME_BUDGET)
+        {
+            cost.overBudget_++;
+            logger.info("Proposal type = " + key + " exceeded the time budget (" + time + " ms), "
+                    + cost.overBudget_ + " time(s) in a row.");
+        }
+        else
+            cost.overBudget_ = 0;
+        cost.dirty_ = true;
+    }
+
+    /**
+     * Stores the costs that are learned since the last save in the plug-in preferences.
+     */
+    synchronized void save()
+    {
+        boolean modified = false;
+        for (Map.Entry <String, Cost> entry: costs_.entrySet())
+        {
+            Cost cost = entry.getValue();
+            if (!cost.dirty_)
+                continue;
+            preferences_.put(entry.getKey() + COST_SUFFIX, (int) cost.average_);
+            preferences_.put(entry.getKey() + OVER_BUDGET_SUFFIX, cost.overBudget_);
+            cost.dirty_ = false;
+            modified = true;
+        }
+        if (modified)
+            preferences_.save();
+    }
+
+    /***************
+     * PRIVATE API *
+     **************/
+    private String computeKey(Squiggly compilationError, IJavaCompletionProposal proposal)
+    {
+        return proposal.getClass().getName() + ":" + compilationError.getLocation().getProblemId();
+    }
+
+    private Cost getCost(String key)
+    {
+        Cost cost = costs_.get(key);
+        if (cost == null)
+        {
+            // Load the cost learned in the previous sessions, if any.
+            cost = new Cost();
+            cost.average_ = preferences_.get(key + COST_SUFFIX, -1);
+            cost.overBudget_ = preferences_.get(key + OVER_BUDGET_SUFFIX, 0);
+            costs_.put(key, cost);
+        }
+        return cost;
+    }
+
+    private static class Cost
+    {
+        /** Moving average of the evaluation time, negative if unknown. */
+        private double average_;
+        /** Number of consecutive evaluations that exceeded the time budget. */
+        private int overBudget_;
+        /** <code>true</code> if the cost is modified since it is last saved. */
+        private boolean dirty_;
+    }
+}
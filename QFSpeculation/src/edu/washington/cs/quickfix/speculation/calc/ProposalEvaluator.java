@@ -0,0 +1,969 @@
+package edu.washington.cs.quickfix.speculation.calc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IProblemRequestor;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.WorkingCopyOwner;
+import org.eclipse.jdt.core.compiler.IProblem;
+import org.eclipse.jdt.internal.ui.text.correction.proposals.LinkedNamesAssistProposal;
+import org.eclipse.jdt.ui.text.java.IJavaCompletionProposal;
+import org.eclipse.jdt.ui.text.java.correction.ChangeCorrectionProposal;
+import org.eclipse.ltk.core.refactoring.Change;
+import org.eclipse.ltk.core.refactoring.CompositeChange;
+import org.eclipse.ltk.core.refactoring.TextFileChange;
+
+import edu.washington.cs.quickfix.speculation.exception.InvalidatedException;
+import edu.washington.cs.quickfix.speculation.model.Pair;
+import edu.washington.cs.quickfix.speculation.model.SpeculationUtility;
+import edu.washington.cs.synchronization.ProjectSynchronizer;
+import edu.washington.cs.util.eclipse.BuilderUtility;
+import edu.washington.cs.util.eclipse.DependencyUtility;
+import edu.washington.cs.util.eclipse.QuickFixUtility;
+import edu.washington.cs.util.eclipse.ResourceUtility;
+import edu.washington.cs.util.eclipse.model.Squiggly;
+
+/**
+ * A proposal evaluator computes the compilation errors that remain after a proposal is applied to a single shadow
+ * project. <br>
+ * Each evaluator owns exactly one shadow project from the shadow pool of a {@link ProjectSynchronizer}, so evaluators
+ * that work on different shadows can evaluate proposals concurrently. <br>
+ * The primary evaluator works on the shadow project that is kept in sync by the task worker. The other evaluators work
+ * on replicas, for which the proposals are re-computed locally (since a proposal's change is bound to the project it
+ * is computed on), and the remaining compilation errors are mapped back to the primary shadow (see
+ * {@link #mapToPrimary(Squiggly[])}). <br>
+ * Proposals whose change only modifies the contents of the compilation unit that contains the compilation error, where
+ * no other file depends on that compilation unit, are evaluated in memory: the change is applied to a working copy that
+ * is reconciled, and the reported problems replace the compilation errors of that compilation unit. Nothing is saved
+ * and no build is triggered. All other proposals (including the ones whose effects can cross files) are applied to the
+ * shadow project, which is built, and reverted afterwards. <br>
+ * Reverting a change does not build the shadow project: the next proposal builds it anyway. Instead, the contents of
+ * the touched files are compared with the checksums taken before the change. The build is done lazily, when the
+ * compilation errors of the shadow project are requested (or at the end of the round, see {@link #finishRound()}).
+ * <br>
+ * Proposals whose changes affect disjoint sets of files can also be evaluated together with a single build (see
+ * {@link #evaluateGroup(List)}). <br>
+ * While a change is applied, the files that declare the elements referenced by the touched compilation units are
+ * recorded (see {@link #getLastReferencedFiles()}), since the result of the proposal also depends on them.
+ *
+ * @author Kivanc Muslu
+ */
+@SuppressWarnings("restriction")
+class ProposalEvaluator
+{
+    /** Logger for debugging. */
+    private static final Logger logger = Logger.getLogger(ProposalEvaluator.class.getName());
+    static
+    {
+        logger.setLevel(Level.SEVERE);
+    }
+    /** If <code>false</code>, every proposal is evaluated by applying it to the shadow project and building. */
+    private static final boolean IN_MEMORY_EVALUATION = true;
+    /** The calculator that uses this evaluator, used for checking the validity of the current analysis. */
+    private final SpeculationCalculator calculator_;
+    /** The synchronizer that owns the shadow project of this evaluator. */
+    private final ProjectSynchronizer synchronizer_;
+    /** The shadow project that the proposals are evaluated on. */
+    private final IProject shadowProject_;
+    /** <code>true</code> if {@link #shadowProject_} is the shadow that is kept in sync by the task worker. */
+    private final boolean primary_;
+    /** Compilation errors of {@link #shadowProject_} at the beginning of the round. */
+    private Squiggly [] compilationErrors_;
+    /** Compilation errors of the primary shadow at the beginning of the round, keyed by their project relative paths. */
+    private final Map <IPath, List <Squiggly>> primaryCompilationErrors_;
+    /** Files touched by the change of the last evaluated proposal, <code>null</code> if unknown. */
+    private IFile [] lastTouchedFiles_;
+    /**
+     * Project relative paths of the files that declare the elements referenced by the touched files while the change of
+     * the last evaluated proposal is applied, <code>null</code> if unknown.
+     */
+    private Set <IPath> lastReferencedFiles_;
+    /** Mapping from primary compilation errors to the proposals (by display string) computed on the replica. */
+    private final Map <Squiggly, Map <String, IJavaCompletionProposal>> localProposals_;
+    /** <code>true</code> if the shadow project is modified (by an undo) since it was last built. */
+    private boolean buildPending_;
+    /** <code>false</code> if the last evaluated proposal could not be reverted cleanly. */
+    private boolean lastRestored_;
+    /**
+     * Whether other files depend on a compilation unit (keyed by its project relative path), computed at most once per
+     * round since the shadow project is the same between the proposals.
+     */
+    private final Map <IPath, Boolean> hasDependents_;
+
+    ProposalEvaluator(SpeculationCalculator calculator, ProjectSynchronizer synchronizer, IProject shadowProject,
+            boolean primary)
+    {
+        calculator_ = calculator;
+        synchronizer_ = synchronizer;
+        shadowProject_ = shadowProject;
+        primary_ = primary;
+        compilationErrors_ = new Squiggly [0];
+        primaryCompilationErrors_ = new HashMap <IPath, List <Squiggly>>();
+        localProposals_ = new HashMap <Squiggly, Map <String, IJavaCompletionProposal>>();
+        buildPending_ = false;
+        lastRestored_ = true;
+        hasDependents_ = new HashMap <IPath, Boolean>();
+    }
+
+    /**
+     * Prepares this evaluator for a new round of speculative analysis. <br>
+     * For replicas, the shadow project is built and its compilation errors are cached so that the primary compilation
+     * errors can be resolved to their local versions.
+     * 
+     * @param primaryCompilationErrors The compilation errors of the primary shadow at the beginning of the round.
+     */
+    void prepare(Squiggly [] primaryCompilationErrors)
+    {
+        localProposals_.clear();
+        hasDependents_.clear();
+        primaryCompilationErrors_.clear();
+        if (primaryCompilationErrors != null)
+        {
+            for (Squiggly compilationError: primaryCompilationErrors)
+            {
+                IPath path = compilationError.getResource().getProjectRelativePath();
+                List <Squiggly> compilationErrors = primaryCompilationErrors_.get(path);
+                if (compilationErrors == null)
+                {
+                    compilationErrors = new ArrayList <Squiggly>();
+                    primaryCompilationErrors_.put(path, compilationErrors);
+                }
+                compilationErrors.add(compilationError);
+            }
+        }
+        if (primary_)
+            compilationErrors_ = primaryCompilationErrors == null ? new Squiggly [0] : primaryCompilationErrors;
+        else
+        {
+            build();
+            compilationErrors_ = getCompilationErrors();
+        }
+    }
+
+    /**
+     * Returns the proposal that corresponds to the given primary proposal in {@link #shadowProject_}. <br>
+     * For the primary evaluator this is the given proposal itself. For replicas, the proposals are computed on the local
+     * version of the compilation error and matched by display string. Returns <code>null</code> if there is no such
+     * proposal.
+     *
+     * @param primaryCompilationError The compilation error in the primary shadow that the proposal is offered for.
+     * @param primaryProposal The proposal that is offered in the primary shadow.
+     * @return The proposal that corresponds to the given primary proposal in {@link #shadowProject_}.
+     * @throws Exception If the proposals cannot be computed for the local compilation error.
+     */
+    IJavaCompletionProposal resolveProposal(Squiggly primaryCompilationError, IJavaCompletionProposal primaryProposal)
+            throws Exception
+    {
+        if (primary_)
+            return primaryProposal;
+        Map <String, IJavaCompletionProposal> proposals = localProposals_.get(primaryCompilationError);
+        if (proposals == null)
+        {
+            proposals = new HashMap <String, IJavaCompletionProposal>();
+            Squiggly localCompilationError = resolveCompilationError(primaryCompilationError);
+            if (localCompilationError != null)
+            {
+                IJavaCompletionProposal [] localProposals = QuickFixUtility.computeQuickFix(localCompilationError);
+                if (localProposals != null)
+                {
+                    for (IJavaCompletionProposal localProposal: localProposals)
+                        proposals.put(localProposal.getDisplayString(), localProposal);
+                }
+            }
+            localProposals_.put(primaryCompilationError, proposals);
+        }
+        return proposals.get(primaryProposal.getDisplayString());
+    }
+
+    /**
+     * Maps the given compilation errors of {@link #shadowProject_} to the primary shadow, so that they can be published
+     * and cached together with the results of the primary evaluator. <br>
+     * The compilation errors that also exist in the primary shadow at the beginning of the round are mapped to the
+     * primary ones, the rest are copied onto the same files of the primary shadow. The compilation errors of the primary
+     * evaluator and the constant results (e.g., {@link Squiggly#NOT_COMPUTED}) are returned as they are.
+     * 
+     * @param compilationErrors The remaining compilation errors computed by this evaluator.
+     * @return The corresponding compilation errors in the primary shadow.
+     */
+    Squiggly [] mapToPrimary(Squiggly [] compilationErrors)
+    {
+        if (primary_ || compilationErrors == null || compilationErrors.length == 0)
+            return compilationErrors;
+        IProject primaryProject = synchronizer_.getShadowProject();
+        Squiggly [] result = new Squiggly [compilationErrors.length];
+        for (int a = 0; a < compilationErrors.length; a++)
+        {
+            Squiggly compilationError = compilationErrors[a];
+            IPath path = compilationError.getResource().getProjectRelativePath();
+            Squiggly primaryCompilationError = findPrimaryCompilationError(path, compilationError);
+            if (primaryCompilationError == null)
+                primaryCompilationError = new Squiggly(compilationError, primaryProject.getFile(path));
+            result[a] = primaryCompilationError;
+        }
+        return result;
+    }
+
+    private Squiggly findPrimaryCompilationError(IPath path, Squiggly compilationError)
+    {
+        List <Squiggly> primaryCompilationErrors = primaryCompilationErrors_.get(path);
+        if (primaryCompilationErrors == null || compilationError.getLocation() == null)
+            return null;
+        for (Squiggly primaryCompilationError: primaryCompilationErrors)
+        {
+            if (primaryCompilationError.getLocation() != null
+                    && SpeculationUtility.sameProblemLocationContent(primaryCompilationError.getLocation(),
+                            compilationError.getLocation()))
+                return primaryCompilationError;
+        }
+        return null;
+    }
+
+    private Squiggly resolveCompilationError(Squiggly primaryCompilationError)
+    {
+        IPath primaryPath = primaryCompilationError.getResource().getProjectRelativePath();
+        for (Squiggly compilationError: compilationErrors_)
+        {
+            if (primaryPath.equals(compilationError.getResource().getProjectRelativePath())
+                    && SpeculationUtility.sameProblemLocationContent(primaryCompilationError.getLocation(),
+                            compilationError.getLocation()))
+                return compilationError;
+        }
+        return null;
+    }
+
+    /**
+     * Applies the given proposal to {@link #shadowProject_}, computes the remaining compilation errors and reverts the
+     * change.
+     *
+     * @param compilationError The (primary) compilation error that the proposal is offered for.
+     * @param shadowProposal The proposal to be evaluated. Must be resolved for this evaluator.
+     * @return The remaining compilation errors after the proposal is applied to the project.
+     * @throws InvalidatedException If the current speculative analysis is invalidated.
+     */
+    Squiggly [] evaluate(Squiggly compilationError, IJavaCompletionProposal shadowProposal) throws InvalidatedException
+    {
+        calculator_.checkValidity();
+        lastTouchedFiles_ = null;
+        lastReferencedFiles_ = null;
+        lastRestored_ = true;
+        if (SpeculationUtility.isFlaggedProposal(shadowProposal))
+            return Squiggly.NOT_COMPUTED;
+        if (SpeculationUtility.isInteractiveProposal(shadowProposal))
+            return Squiggly.NOT_COMPUTED;
+
+        Squiggly [] errors = Squiggly.UNKNOWN;
+        if (shadowProposal instanceof ChangeCorrectionProposal)
+        {
+            ChangeCorrectionProposal shadowChangeCorrection = (ChangeCorrectionProposal) shadowProposal;
+            logger.fine("For change correction = " + shadowChangeCorrection.getDisplayString()
+                    + ", shadowProposal.class() = " + shadowProposal.getClass());
+            Change shadowChange = null;
+            try
+            {
+                shadowChange = shadowChangeCorrection.getChange();
+                ICompilationUnit modifiedUnit = getInMemoryEvaluationTarget(shadowChange, compilationError);
+                if (modifiedUnit != null)
+                {
+                    try
+                    {
+                        Squiggly [] result = evaluateInMemory((TextFileChange) shadowChange, modifiedUnit);
+                        lastTouchedFiles_ = new IFile [] {((TextFileChange) shadowChange).getFile()};
+                        return result;
+                    }
+                    catch (CoreException e)
+                    {
+                        logger.log(Level.WARNING, "Cannot evaluate proposal in memory: "
+                                + shadowProposal.getDisplayString() + ", applying it to the shadow project instead.", e);
+                    }
+                }
+                IFile [] touchedFiles = collectTouchedFiles(shadowChange);
+                unlinkFiles(touchedFiles);
+                long [] checksums = computeChecksums(touchedFiles);
+                Pair <Change, Squiggly []> result = applyChange(shadowChange);
+                Change undo = result.getValue1();
+                errors = result.getValue2();
+                Set <IPath> referencedFiles = findReferencedFiles(touchedFiles);
+                boolean success = applyUndo(undo, touchedFiles, checksums);
+                if (success)
+                {
+                    lastTouchedFiles_ = touchedFiles;
+                    lastReferencedFiles_ = referencedFiles;
+                }
+                else
+                {
+                    logger.warning("Exception raised while trying to apply undo... Re-syncing the projects...");
+                    logger.warning("change.getClass() = " + shadowChange.getClass());
+                    resync();
+                }
+            }
+            catch (Exception e)
+            {
+                logger.log(
+                        Level.SEVERE,
+                        "Cannot get change for proposal due to internal exception: "
+                                + shadowProposal.getDisplayString(), e);
+                logger.severe("Re-syncing projects...");
+                resync();
+            }
+        }
+        else if (shadowProposal instanceof LinkedNamesAssistProposal)
+        {
+            // This is Rename field ...
+            logger.info("Proposal: " + shadowProposal.getDisplayString()
+                    + " is not a ChangeCorrectionProposal. Proposal.class = " + shadowProposal.getClass());
+        }
+        else
+            logger.warning("Proposal: " + shadowProposal.getDisplayString()
+                    + " is not a ChangeCorrectionProposal. Proposal.class = " + shadowProposal.getClass());
+        return errors;
+    }
+
+    /**
+     * Returns the group member for the given proposal, or <code>null</code> if the proposal cannot be evaluated in a
+     * group. <br>
+     * A proposal can be evaluated in a group if its change only modifies the contents of existing files, it cannot be
+     * evaluated in memory (which is cheaper) and the files that depend on the modified files can be computed.
+     * 
+     * @param compilationError The (primary) compilation error that the proposal is offered for.
+     * @param shadowProposal The proposal. Must be resolved for this evaluator.
+     * @return The group member for the given proposal, or <code>null</code>.
+     */
+    GroupMember createGroupMember(Squiggly compilationError, IJavaCompletionProposal shadowProposal)
+    {
+        if (SpeculationUtility.isFlaggedProposal(shadowProposal)
+                || SpeculationUtility.isInteractiveProposal(shadowProposal)
+                || !(shadowProposal instanceof ChangeCorrectionProposal))
+            return null;
+        Change change;
+        try
+        {
+            change = ((ChangeCorrectionProposal) shadowProposal).getChange();
+        }
+        catch (CoreException e)
+        {
+            logger.log(Level.FINE, "Cannot get change for proposal = " + shadowProposal.getDisplayString(), e);
+            return null;
+        }
+        if (change == null || getInMemoryEvaluationTarget(change, compilationError) != null)
+            return null;
+        IFile [] touchedFiles = collectTouchedFiles(change);
+        if (touchedFiles == null)
+            return null;
+        ArrayList <IPath> touchedPaths = new ArrayList <IPath>();
+        for (IFile file: touchedFiles)
+            touchedPaths.add(file.getProjectRelativePath());
+        Set <IPath> affectedFiles = DependencyUtility.findDependentFiles(shadowProject_, touchedPaths);
+        if (affectedFiles == null)
+            return null;
+        return new GroupMember(shadowProposal, change, touchedFiles, affectedFiles);
+    }
+
+    /**
+     * Applies the changes of the given group members together, builds the shadow project once and reverts the changes.
+     * <br>
+     * The compilation errors are attributed to the members by file: since the affected files of the members are
+     * disjoint, the compilation errors in the affected files of a member can only be caused by that member. The
+     * remaining compilation errors of a member are the compilation errors in its affected files after the build and the
+     * compilation errors in the other files at the beginning of the round. <br>
+     * If the compilation errors in the files that no member affects change, the attribution is ambiguous and
+     * <code>null</code> is returned, so that the members are evaluated in isolation. The affected files are computed
+     * before the changes are applied, so a change can still add a reference to a file that another member touches. The
+     * compilation errors of such a member might be caused by the other member, so its result is <code>null</code> and it
+     * is evaluated in isolation.
+     * 
+     * @param members The group members, whose affected files are pairwise disjoint.
+     * @return The remaining compilation errors for each member (in the same order, <code>null</code> for the members
+     *         that need to be evaluated in isolation), or <code>null</code> if the group cannot be evaluated.
+     * @throws InvalidatedException If the current speculative analysis is invalidated.
+     */
+    Squiggly [][] evaluateGroup(List <GroupMember> members) throws InvalidatedException
+    {
+        calculator_.checkValidity();
+        lastTouchedFiles_ = null;
+        lastReferencedFiles_ = null;
+        lastRestored_ = true;
+        ArrayList <IFile> touchedFiles = new ArrayList <IFile>();
+        for (GroupMember member: members)
+            touchedFiles.addAll(Arrays.asList(member.touchedFiles_));
+        IFile [] allTouchedFiles = touchedFiles.toArray(new IFile [touchedFiles.size()]);
+        unlinkFiles(allTouchedFiles);
+        long [] checksums = computeChecksums(allTouchedFiles);
+        ArrayList <Change> undos = new ArrayList <Change>();
+        Squiggly [] errors = null;
+        try
+        {
+            for (GroupMember member: members)
+            {
+                Change undo = SpeculationUtility.performChangeAndSave(member.change_);
+                if (undo == null)
+                    break;
+                undos.add(undo);
+            }
+            if (undos.size() == members.size())
+            {
+                build();
+                errors = getCompilationErrors();
+                for (GroupMember member: members)
+                    member.referencedFiles_ = findReferencedFiles(member.touchedFiles_);
+            }
+        }
+        catch (CoreException e)
+        {
+            logger.log(Level.WARNING, "Cannot perform the changes of a proposal group.", e);
+        }
+        // Revert in reverse order.
+        try
+        {
+            for (int a = undos.size() - 1; a >= 0; a--)
+                SpeculationUtility.performChangeAndSave(undos.get(a));
+            buildPending_ = true;
+            lastRestored_ = checksums != null && Arrays.equals(checksums, computeChecksums(allTouchedFiles));
+        }
+        catch (CoreException e)
+        {
+            logger.log(Level.SEVERE, "Cannot perform the undos of a proposal group!", e);
+            lastRestored_ = false;
+        }
+        if (errors == null)
+            return null;
+        return attributeErrors(members, errors);
+    }
+
+    private Squiggly [][] attributeErrors(List <GroupMember> members, Squiggly [] groupErrors)
+    {
+        Set <IPath> affectedFiles = new HashSet <IPath>();
+        for (GroupMember member: members)
+            affectedFiles.addAll(member.affectedFiles_);
+        // The number of compilation errors in each unaffected file must stay the same.
+        Map <IPath, Integer> unaffectedErrors = new HashMap <IPath, Integer>();
+        for (Squiggly error: compilationErrors_)
+            countUnaffectedError(error, affectedFiles, unaffectedErrors, 1);
+        for (Squiggly error: groupErrors)
+            countUnaffectedError(error, affectedFiles, unaffectedErrors, -1);
+        for (Integer count: unaffectedErrors.values())
+        {
+            if (count != 0)
+            {
+                logger.info("Cannot attribute the compilation errors of a proposal group, evaluating in isolation.");
+                return null;
+            }
+        }
+        Squiggly [][] result = new Squiggly [members.size()][];
+        for (int a = 0; a < members.size(); a++)
+        {
+            if (referencesOtherMembers(members, a))
+            {
+                logger.info("Proposal = " + members.get(a).proposal_.getDisplayString()
+                        + " references the files of another member of its group, evaluating it in isolation.");
+                continue;
+            }
+            Set <IPath> memberFiles = members.get(a).affectedFiles_;
+            ArrayList <Squiggly> errors = new ArrayList <Squiggly>();
+            for (Squiggly error: compilationErrors_)
+            {
+                if (!memberFiles.contains(error.getResource().getProjectRelativePath()))
+                    errors.add(error);
+            }
+            for (Squiggly error: groupErrors)
+            {
+                if (memberFiles.contains(error.getResource().getProjectRelativePath()))
+                    errors.add(error);
+            }
+            result[a] = errors.toArray(new Squiggly [errors.size()]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns <code>true</code> if the files touched by the member at the given index referenced a file touched by
+     * another member while the group was applied, or if its references are unknown.
+     */
+    private boolean referencesOtherMembers(List <GroupMember> members, int index)
+    {
+        Set <IPath> referencedFiles = members.get(index).referencedFiles_;
+        if (referencedFiles == null)
+            return true;
+        for (int a = 0; a < members.size(); a++)
+        {
+            if (a == index)
+                continue;
+            for (IFile file: members.get(a).touchedFiles_)
+            {
+                if (referencedFiles.contains(file.getProjectRelativePath()))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private void countUnaffectedError(Squiggly error, Set <IPath> affectedFiles, Map <IPath, Integer> counts,
+            int delta)
+    {
+        IPath path = error.getResource().getProjectRelativePath();
+        if (affectedFiles.contains(path))
+            return;
+        Integer count = counts.get(path);
+        counts.put(path, (count == null ? 0 : count) + delta);
+    }
+
+    /**
+     * Returns the compilation unit that the given change modifies if the change can be evaluated in memory, 
+     * <code>null</code> otherwise. <br>
+     * A change can be evaluated in memory if it is a single text change on the compilation unit that contains the
+     * compilation error, and no other file depends on that compilation unit. Only then the compilation errors of the
+     * other files cannot change. Changes that create, delete or move resources, changes that touch more than one file,
+     * changes on another compilation unit (e.g., adding a member to another type), changes on a compilation unit that
+     * others depend on (e.g., changing a signature that the callers use) and changes on the class-path (or any other
+     * non-Java file) need a full build.
+     * 
+     * @param change The change offered by a proposal.
+     * @param compilationError The compilation error that the proposal is offered for.
+     * @return The compilation unit that the given change modifies, or <code>null</code> if a full build is needed.
+     */
+    private ICompilationUnit getInMemoryEvaluationTarget(Change change, Squiggly compilationError)
+    {
+        if (!IN_MEMORY_EVALUATION || !(change instanceof TextFileChange) || compilationError == null
+                || compilationError.getResource() == null)
+            return null;
+        IFile file = ((TextFileChange) change).getFile();
+        if (file == null || !ResourceUtility.isJavaLike(file) || !ResourceUtility.isOnClassPath(file))
+            return null;
+        IPath path = file.getProjectRelativePath();
+        if (!path.equals(compilationError.getResource().getProjectRelativePath()) || hasDependents(path))
+            return null;
+        return JavaCore.createCompilationUnitFrom(file);
+    }
+
+    /**
+     * Returns <code>true</code> if another file of {@link #shadowProject_} depends on the file represented by the given
+     * path (or if the dependents cannot be computed), <code>false</code> otherwise.
+     */
+    private boolean hasDependents(IPath path)
+    {
+        Boolean result = hasDependents_.get(path);
+        if (result == null)
+        {
+            Set <IPath> dependents = DependencyUtility.findDependentFiles(shadowProject_, Arrays.asList(path));
+            result = dependents == null || dependents.size() > 1 || !dependents.contains(path);
+            hasDependents_.put(path, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the files that the given change modifies, or <code>null</code> if the change might have effects other than
+     * modifying the contents of existing files (e.g., creating or moving resources).
+     * 
+     * @param change The change offered by a proposal.
+     * @return The files that the given change modifies, or <code>null</code> if they cannot be determined.
+     */
+    private IFile [] collectTouchedFiles(Change change)
+    {
+        ArrayList <IFile> result = new ArrayList <IFile>();
+        if (!collectTouchedFiles(change, result))
+            return null;
+        return result.toArray(new IFile [result.size()]);
+    }
+
+    private boolean collectTouchedFiles(Change change, ArrayList <IFile> result)
+    {
+        if (change instanceof CompositeChange)
+        {
+            for (Change child: ((CompositeChange) change).getChildren())
+            {
+                if (!collectTouchedFiles(child, result))
+                    return false;
+            }
+            return true;
+        }
+        if (change instanceof TextFileChange && ((TextFileChange) change).getFile() != null)
+        {
+            IFile file = ((TextFileChange) change).getFile();
+            if (!result.contains(file))
+                result.add(file);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Evaluates the given change without modifying the shadow project. <br>
+     * The change is applied to a working copy of the given compilation unit, the working copy is reconciled and the
+     * reported errors are combined with the compilation errors of the other compilation units, which cannot be affected
+     * by the change since they do not depend on the given compilation unit.
+     * 
+     * @param change A change that only modifies the given compilation unit.
+     * @param unit The compilation unit that is modified by the change.
+     * @return The remaining compilation errors after the change is applied to the project.
+     * @throws CoreException If the preview of the change cannot be computed or the working copy cannot be reconciled.
+     */
+    private Squiggly [] evaluateInMemory(TextFileChange change, ICompilationUnit unit) throws CoreException
+    {
+        String contents = change.getPreviewContent(new NullProgressMonitor());
+        ReconcileProblemCollector collector = new ReconcileProblemCollector();
+        ReconcileWorkingCopyOwner owner = new ReconcileWorkingCopyOwner(collector);
+        ICompilationUnit workingCopy = unit.getWorkingCopy(owner, null);
+        try
+        {
+            workingCopy.getBuffer().setContents(contents);
+            workingCopy.reconcile(ICompilationUnit.NO_AST, true, owner, null);
+            lastReferencedFiles_ = DependencyUtility.findReferencedFiles(workingCopy);
+        }
+        finally
+        {
+            workingCopy.discardWorkingCopy();
+        }
+        IPath unitPath = unit.getResource().getProjectRelativePath();
+        ArrayList <Squiggly> result = new ArrayList <Squiggly>();
+        for (Squiggly compilationError: compilationErrors_)
+        {
+            if (!unitPath.equals(compilationError.getResource().getProjectRelativePath()))
+                result.add(compilationError);
+        }
+        // The offsets of the problems refer to the working copy, so the squigglies are computed on its content.
+        for (IProblem problem: collector.getErrors())
+            result.add(new Squiggly(problem, unit, contents));
+        logger.fine("Number of compilation errors (in memory) = " + result.size());
+        return result.toArray(new Squiggly [result.size()]);
+    }
+
+    private Pair <Change, Squiggly []> applyChange(Change shadowChange)
+    {
+        if (shadowChange == null)
+            return null;
+        Change undo = null;
+        Squiggly [] errors = Squiggly.UNKNOWN;
+        logger.finer("change.getClass() = " + shadowChange.getClass());
+        logger.finer("change.getModifiedElement() = " + shadowChange.getModifiedElement());
+        logger.finest("change.isEnabled() = " + shadowChange.isEnabled());
+        try
+        {
+            /*
+             * Problem: If I build the project before actually saving it, the markers are not generated correctly... The
+             * changed files buffer should be saved! Weird but true...
+             */
+            logger.fine("Performing change...");
+            undo = SpeculationUtility.performChangeAndSave(shadowChange);
+            logger.fine("Performed change...");
+            build();
+            errors = getCompilationErrors();
+            logger.fine("Number of compilation errors = " + errors.length);
+        }
+        catch (CoreException e)
+        {
+            logger.log(Level.SEVERE, "Cannot perform change!", e);
+        }
+        return new Pair <Change, Squiggly []>(undo, errors);
+    }
+
+    /**
+     * Reverts a change using the given undo. <br>
+     * If the checksums of the touched files are known, the shadow project is not built, the contents of the touched
+     * files are compared with the given checksums instead. Otherwise, the shadow project is built and the number of its
+     * compilation errors is compared with the number at the beginning of the round. <br>
+     * The result of the comparison can be queried with {@link #isRestored()}.
+     * 
+     * @param undo The undo of the change.
+     * @param touchedFiles The files that the change modified, <code>null</code> if unknown.
+     * @param checksums The checksums of the touched files before the change, <code>null</code> if unknown.
+     * @return <code>false</code> if the undo cannot be performed, <code>true</code> otherwise.
+     */
+    private boolean applyUndo(Change undo, IFile [] touchedFiles, long [] checksums)
+    {
+        boolean result = true;
+        try
+        {
+            logger.fine("Performing undo...");
+            SpeculationUtility.performChangeAndSave(undo);
+            if (checksums != null)
+            {
+                // The next proposal builds the project anyway.
+                buildPending_ = true;
+                lastRestored_ = Arrays.equals(checksums, computeChecksums(touchedFiles));
+            }
+            else
+            {
+                build();
+                lastRestored_ = getCompilationErrors().length == compilationErrors_.length;
+            }
+        }
+        catch (CoreException e)
+        {
+            // This should not happen if I check the compilation errors correctly and the projects
+            // are in sync.
+            logger.log(Level.SEVERE, "Cannot perform undo!", e);
+            result = false;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the files that declare the elements referenced by the given files (i.e., the files that the given files
+     * depend on), or <code>null</code> if the given files are unknown or the references cannot be computed. <br>
+     * Must be called while the change that touched the given files is applied.
+     */
+    private Set <IPath> findReferencedFiles(IFile [] files)
+    {
+        if (files == null)
+            return null;
+        Set <IPath> result = new HashSet <IPath>();
+        for (IFile file: files)
+        {
+            if (!ResourceUtility.isJavaLike(file) || !ResourceUtility.isOnClassPath(file))
+                continue;
+            ICompilationUnit unit = JavaCore.createCompilationUnitFrom(file);
+            Set <IPath> referencedFiles = unit == null ? null : DependencyUtility.findReferencedFiles(unit);
+            if (referencedFiles == null)
+                return null;
+            result.addAll(referencedFiles);
+        }
+        return result;
+    }
+
+    /**
+     * Replaces the given files that are shared with the original project (i.e., linked to the original files) with
+     * copies, so that applying a change to the shadow project does not modify the original project.
+     */
+    private void unlinkFiles(IFile [] files)
+    {
+        if (files == null)
+            return;
+        for (IFile file: files)
+            ResourceUtility.unlinkFile(file);
+    }
+
+    /**
+     * Returns the checksums of the given files, or <code>null</code> if the files are unknown or one of them cannot be
+     * read.
+     */
+    private long [] computeChecksums(IFile [] files)
+    {
+        if (files == null)
+            return null;
+        long [] result = new long [files.length];
+        for (int a = 0; a < files.length; a++)
+        {
+            result[a] = ResourceUtility.computeChecksum(files[a]);
+            if (result[a] == -1)
+                return null;
+        }
+        return result;
+    }
+
+    /**
+     * Builds the shadow project if the last undo skipped its build, so that the markers of the shadow project are up
+     * to date at the end of the round.
+     */
+    void finishRound()
+    {
+        if (buildPending_)
+            build();
+    }
+
+    /**
+     * Puts {@link #shadowProject_} back in sync. The primary shadow is synced with the original project, replicas are
+     * synced with the primary shadow.
+     */
+    void resync()
+    {
+        if (primary_)
+        {
+            synchronizer_.syncProjects();
+            buildPending_ = true;
+        }
+        else
+        {
+            synchronizer_.syncReplica(shadowProject_);
+            build();
+        }
+    }
+
+    void build()
+    {
+        BuilderUtility.build(shadowProject_);
+        buildPending_ = false;
+    }
+
+    Squiggly [] getCompilationErrors()
+    {
+        if (buildPending_)
+            build();
+        return BuilderUtility.calculateCompilationErrors(shadowProject_);
+    }
+
+    /**
+     * Collects the errors that are reported while reconciling a working copy.
+     */
+    private static class ReconcileProblemCollector implements IProblemRequestor
+    {
+        private final ArrayList <IProblem> errors_ = new ArrayList <IProblem>();
+
+        @Override
+        public void acceptProblem(IProblem problem)
+        {
+            if (problem.isError())
+                errors_.add(problem);
+        }
+
+        @Override
+        public void beginReporting()
+        {
+            errors_.clear();
+        }
+
+        @Override
+        public void endReporting()
+        {}
+
+        @Override
+        public boolean isActive()
+        {
+            return true;
+        }
+
+        private IProblem [] getErrors()
+        {
+            return errors_.toArray(new IProblem [errors_.size()]);
+        }
+    }
+
+    /**
+     * Working copy owner that reports the reconcile problems of its working copies to a single collector.
+     */
+    private static class ReconcileWorkingCopyOwner extends WorkingCopyOwner
+    {
+        private final IProblemRequestor requestor_;
+
+        private ReconcileWorkingCopyOwner(IProblemRequestor requestor)
+        {
+            requestor_ = requestor;
+        }
+
+        @Override
+        public IProblemRequestor getProblemRequestor(ICompilationUnit workingCopy)
+        {
+            return requestor_;
+        }
+    }
+
+    /**
+     * A proposal that can be evaluated in a group, together with its change and the files that the change affects.
+     */
+    static class GroupMember
+    {
+        private final IJavaCompletionProposal proposal_;
+        private final Change change_;
+        private final IFile [] touchedFiles_;
+        /** Project relative paths of the touched files and the files that depend on them. */
+        private final Set <IPath> affectedFiles_;
+        /**
+         * Project relative paths of the files that the touched files depend on, recorded while the group is applied.
+         * <code>null</code> if unknown.
+         */
+        private Set <IPath> referencedFiles_;
+
+        private GroupMember(IJavaCompletionProposal proposal, Change change, IFile [] touchedFiles,
+                Set <IPath> affectedFiles)
+        {
+            proposal_ = proposal;
+            change_ = change;
+            touchedFiles_ = touchedFiles;
+            affectedFiles_ = affectedFiles;
+            referencedFiles_ = null;
+        }
+
+        IJavaCompletionProposal getProposal()
+        {
+            return proposal_;
+        }
+
+        IFile [] getTouchedFiles()
+        {
+            return touchedFiles_;
+        }
+
+        Set <IPath> getReferencedFiles()
+        {
+            return referencedFiles_;
+        }
+
+        /**
+         * Returns <code>true</code> if this member and the given files have no affected file in common.
+         */
+        boolean isDisjoint(Set <IPath> files)
+        {
+            for (IPath path: affectedFiles_)
+            {
+                if (files.contains(path))
+                    return false;
+            }
+            return true;
+        }
+
+        Set <IPath> getAffectedFiles()
+        {
+            return affectedFiles_;
+        }
+    }
+
+    /*********************
+     * GETTERS & SETTERS *
+     ********************/
+    /**
+     * Returns the files touched by the change of the last evaluated proposal. <br>
+     * Returns <code>null</code> if the files cannot be determined or the last evaluation did not complete normally.
+     * 
+     * @return The files touched by the change of the last evaluated proposal.
+     */
+    IFile [] getLastTouchedFiles()
+    {
+        return lastTouchedFiles_;
+    }
+
+    /**
+     * Returns the project relative paths of the files that declare the elements referenced by the files touched by the
+     * last evaluated proposal, while its change was applied. <br>
+     * Returns <code>null</code> if the files cannot be determined or the last evaluation did not complete normally.
+     * 
+     * @return The files that the files touched by the last evaluated proposal depend on.
+     */
+    Set <IPath> getLastReferencedFiles()
+    {
+        return lastReferencedFiles_;
+    }
+
+    /**
+     * Returns <code>false</code> if the last evaluated proposal could not be reverted cleanly (i.e., the shadow project
+     * needs to be re-synced), <code>true</code> otherwise.
+     * 
+     * @return <code>true</code> if the last evaluated proposal is reverted cleanly.
+     */
+    boolean isRestored()
+    {
+        return lastRestored_;
+    }
+
+    IProject getShadowProject()
+    {
+        return shadowProject_;
+    }
+
+    boolean isPrimary()
+    {
+        return primary_;
+    }
+}
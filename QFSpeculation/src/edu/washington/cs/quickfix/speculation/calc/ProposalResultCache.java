@@ -0,0 +1,430 @@
+package edu.washington.cs.quickfix.speculation.calc;
+
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.ui.text.java.IJavaCompletionProposal;
+
+import edu.washington.cs.util.eclipse.ResourceUtility;
+import edu.washington.cs.util.eclipse.model.Squiggly;
+
+/**
+ * Proposal result cache stores the outcome of evaluated proposals across speculative analysis rounds. <br>
+ * An entry is keyed by a hash of the proposal's display string, the error code and cached context of the compilation
+ * error that the proposal is offered for, and the contents of the compilation unit that contains the compilation
+ * error. <br>
+ * The result of a proposal depends on the files that the proposal's change touched, the files that declare the elements
+ * referenced by the touched files after the change (e.g., the type that an added import points to) and the files whose
+ * compilation errors are changed by the proposal (e.g., the callers of a method whose signature is changed). Each entry
+ * remembers the contents of these dependent files, and it is only returned if none of them has changed since the
+ * evaluation.
+ * Since a file can also be affected by a change in a file that it depends on, clients should report the modified files
+ * and their dependents using {@link #invalidate(Set)}. <br>
+ * Only the compilation errors in the dependent files are stored. On a hit, they are combined with the current
+ * compilation errors of the other files, so an edit in an unrelated file does not invalidate the entry. <br>
+ * The cache is bounded, the least recently used entries are evicted first. <br>
+ * <br>
+ * All public methods are synchronized over 'this'. Content hashes are memoized per round, so {@link #startRound()}
+ * must be called whenever the shadow project might have changed.
+ *
+ * @author Kivanc Muslu
+ */
+class ProposalResultCache
+{
+    /** Logger for debugging. */
+    private static final Logger logger = Logger.getLogger(ProposalResultCache.class.getName());
+    static
+    {
+        logger.setLevel(Level.INFO);
+    }
+    /** Default maximum number of entries that are kept in the cache. */
+    static final int DEFAULT_MAX_SIZE = 2048;
+    /** Separator used while hashing tuples. */
+    private static final char SEPARATOR = '\0';
+
+    /** The project that the file contents are read from. */
+    private final IProject shadowProject_;
+    private final int maxSize_;
+    /** LRU mapping from keys to entries (access-ordered). */
+    private final LinkedHashMap <String, Entry> entries_;
+    /** Content hashes of the files computed in the current round (project relative path to hash). */
+    private final Map <IPath, String> contentHashes_;
+    private long hits_;
+    private long misses_;
+
+    ProposalResultCache(IProject shadowProject)
+    {
+        this(shadowProject, DEFAULT_MAX_SIZE);
+    }
+
+    ProposalResultCache(IProject shadowProject, int maxSize)
+    {
+        shadowProject_ = shadowProject;
+        maxSize_ = maxSize;
+        entries_ = new LinkedHashMap <String, Entry>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry <String, Entry> eldest)
+            {
+                return size() > maxSize_;
+            }
+        };
+        contentHashes_ = new HashMap <IPath, String>();
+        hits_ = 0;
+        misses_ = 0;
+    }
+
+    /**************
+     * PUBLIC API *
+     *************/
+    /**
+     * Forgets the memoized content hashes. Must be called at the beginning of each round.
+     */
+    synchronized void startRound()
+    {
+        contentHashes_.clear();
+    }
+
+    /**
+     * Returns the cached remaining compilation errors for the given proposal, or <code>null</code> if there is no valid
+     * entry for it.
+     *
+     * @param compilationError The compilation error that the proposal is offered for.
+     * @param proposal The proposal.
+     * @param currentCompilationErrors The current compilation errors of the shadow project.
+     * @return The cached remaining compilation errors for the given proposal, or <code>null</code>.
+     */
+    synchronized Squiggly [] lookup(Squiggly compilationError, IJavaCompletionProposal proposal,
+            Squiggly [] currentCompilationErrors)
+    {
+        String key = computeKey(compilationError, proposal);
+        Entry entry = key == null ? null : entries_.get(key);
+        if (entry == null || !entry.isValid())
+        {
+            if (entry != null)
+                entries_.remove(key);
+            misses_++;
+            return null;
+        }
+        hits_++;
+        return entry.resolve(currentCompilationErrors);
+    }
+
+    /**
+     * Returns <code>true</code> if there is a valid entry for each of the given proposals, <code>false</code>
+     * otherwise. <br>
+     * Unlike {@link #lookup(Squiggly, IJavaCompletionProposal, Squiggly[])}, this method does not update the hit and
+     * miss statistics.
+     *
+     * @param compilationError The compilation error that the proposals are offered for.
+     * @param proposals The proposals.
+     * @return <code>true</code> if there is a valid entry for each of the given proposals, <code>false</code>
+     *         otherwise.
+     */
+    synchronized boolean containsAll(Squiggly compilationError, IJavaCompletionProposal [] proposals)
+    {
+        for (IJavaCompletionProposal proposal: proposals)
+        {
+            String key = computeKey(compilationError, proposal);
+            Entry entry = key == null ? null : entries_.get(key);
+            if (entry == null || !entry.isValid())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stores the remaining compilation errors for the given proposal. <br>
+     * The result is only stored if the files that the proposal's change touched and the files that they depend on are
+     * known and the result is available.
+     *
+     * @param compilationError The compilation error that the proposal is offered for.
+     * @param proposal The proposal.
+     * @param touchedFiles The files that the proposal's change touched, <code>null</code> if unknown.
+     * @param referencedFiles Project relative paths of the files that declare the elements referenced by the touched
+     *            files while the change is applied, <code>null</code> if unknown.
+     * @param errorsBefore The compilation errors before the proposal is applied.
+     * @param errorsAfter The remaining compilation errors after the proposal is applied.
+     */
+    synchronized void store(Squiggly compilationError, IJavaCompletionProposal proposal, IFile [] touchedFiles,
+            Set <IPath> referencedFiles, Squiggly [] errorsBefore, Squiggly [] errorsAfter)
+    {
+        if (touchedFiles == null || referencedFiles == null || errorsBefore == null || errorsAfter == null || errorsAfter == Squiggly.UNKNOWN
+                || errorsAfter == Squiggly.NOT_COMPUTED)
+            return;
+        String key = computeKey(compilationError, proposal);
+        if (key == null)
+            return;
+        Set <IPath> dependentPaths = findChangedErrorFiles(errorsBefore, errorsAfter);
+        dependentPaths.add(compilationError.getResource().getProjectRelativePath());
+        for (IFile touchedFile: touchedFiles)
+            dependentPaths.add(touchedFile.getProjectRelativePath());
+        dependentPaths.addAll(referencedFiles);
+        Map <IPath, String> dependentHashes = new HashMap <IPath, String>();
+        for (IPath path: dependentPaths)
+        {
+            String hash = getContentHash(path);
+            if (hash == null)
+                return;
+            dependentHashes.put(path, hash);
+        }
+        ArrayList <Squiggly> dependentErrors = new ArrayList <Squiggly>();
+        for (Squiggly errorAfter: errorsAfter)
+        {
+            if (dependentHashes.containsKey(errorAfter.getResource().getProjectRelativePath()))
+                dependentErrors.add(errorAfter);
+        }
+        entries_.put(key, new Entry(dependentHashes, dependentErrors.toArray(new Squiggly [dependentErrors.size()])));
+    }
+
+    /**
+     * Removes the entries that depend on any of the given files. <br>
+     * If the given set is <code>null</code> (i.e., the modified files are unknown), all entries are removed.
+     *
+     * @param affectedFiles Project relative paths of the modified files and their dependents, or <code>null</code>.
+     * @return The number of removed entries.
+     */
+    synchronized int invalidate(Set <IPath> affectedFiles)
+    {
+        contentHashes_.clear();
+        int result = 0;
+        if (affectedFiles == null)
+        {
+            result = entries_.size();
+            entries_.clear();
+            return result;
+        }
+        if (affectedFiles.isEmpty())
+            return result;
+        Iterator <Entry> iterator = entries_.values().iterator();
+        while (iterator.hasNext())
+        {
+            if (iterator.next().dependsOn(affectedFiles))
+            {
+                iterator.remove();
+                result++;
+            }
+        }
+        return result;
+    }
+
+    synchronized void clear()
+    {
+        entries_.clear();
+        contentHashes_.clear();
+    }
+
+    /*********************
+     * GETTERS & SETTERS *
+     ********************/
+    synchronized long getHits()
+    {
+        return hits_;
+    }
+
+    synchronized long getMisses()
+    {
+        return misses_;
+    }
+
+    synchronized int size()
+    {
+        return entries_.size();
+    }
+
+    public synchronized String toString()
+    {
+        return "[ProposalResultCache: size = " + entries_.size() + "/" + maxSize_ + ", hits = " + hits_
+                + ", misses = " + misses_ + "]";
+    }
+
+    /***************
+     * PRIVATE API *
+     **************/
+    private String computeKey(Squiggly compilationError, IJavaCompletionProposal proposal)
+    {
+        try
+        {
+            IPath path = compilationError.getResource().getProjectRelativePath();
+            String contentHash = getContentHash(path);
+            if (contentHash == null)
+                return null;
+            StringBuilder tuple = new StringBuilder();
+            tuple.append(proposal.getDisplayString()).append(SEPARATOR);
+            tuple.append(compilationError.getErrorCode()).append(SEPARATOR);
+            tuple.append(compilationError.getCachedContext()).append(SEPARATOR);
+            tuple.append(path.toString()).append(SEPARATOR);
+            tuple.append(contentHash);
+            return hash(tuple.toString());
+        }
+        catch (Exception e)
+        {
+            logger.log(Level.FINE, "Cannot compute the cache key for proposal: " + proposal.getDisplayString(), e);
+            return null;
+        }
+    }
+
+    private String getContentHash(IPath path)
+    {
+        if (contentHashes_.containsKey(path))
+            return contentHashes_.get(path);
+        String hash = null;
+        try
+        {
+            String contents = readContents(shadowProject_.getFile(path));
+            if (contents != null)
+                hash = hash(contents);
+        }
+        catch (Exception e)
+        {
+            logger.log(Level.FINE, "Cannot hash the contents of file: " + path, e);
+        }
+        contentHashes_.put(path, hash);
+        return hash;
+    }
+
+    /**
+     * Returns the paths of the files whose compilation errors are different before and after the proposal is applied.
+     */
+    private static Set <IPath> findChangedErrorFiles(Squiggly [] errorsBefore, Squiggly [] errorsAfter)
+    {
+        Map <IPath, List <String>> signaturesBefore = computeErrorSignatures(errorsBefore);
+        Map <IPath, List <String>> signaturesAfter = computeErrorSignatures(errorsAfter);
+        Set <IPath> result = new HashSet <IPath>();
+        for (IPath path: signaturesBefore.keySet())
+        {
+            if (!signaturesBefore.get(path).equals(signaturesAfter.get(path)))
+                result.add(path);
+        }
+        for (IPath path: signaturesAfter.keySet())
+        {
+            if (!signaturesBefore.containsKey(path))
+                result.add(path);
+        }
+        return result;
+    }
+
+    private static Map <IPath, List <String>> computeErrorSignatures(Squiggly [] compilationErrors)
+    {
+        Map <IPath, List <String>> result = new HashMap <IPath, List <String>>();
+        for (Squiggly compilationError: compilationErrors)
+        {
+            IPath path = compilationError.getResource().getProjectRelativePath();
+            List <String> signatures = result.get(path);
+            if (signatures == null)
+            {
+                signatures = new ArrayList <String>();
+                result.put(path, signatures);
+            }
+            signatures.add(compilationError.getErrorCode() + ":" + compilationError.getLocation().getOffset() + ":"
+                    + compilationError.getLocation().getLength());
+        }
+        for (List <String> signatures: result.values())
+            Collections.sort(signatures);
+        return result;
+    }
+
+    private static String readContents(IFile file) throws Exception
+    {
+        if (!file.exists())
+            return null;
+        if (ResourceUtility.isJavaLike(file))
+        {
+            ICompilationUnit unit = JavaCore.createCompilationUnitFrom(file);
+            if (unit != null)
+                return unit.getBuffer().getContents();
+        }
+        InputStream stream = file.getContents();
+        StringBuilder result = new StringBuilder();
+        byte [] buffer = new byte [4096];
+        int read;
+        while ((read = stream.read(buffer)) != -1)
+            result.append(new String(buffer, 0, read, "ISO-8859-1"));
+        stream.close();
+        return result.toString();
+    }
+
+    private static String hash(String text) throws NoSuchAlgorithmException, UnsupportedEncodingException
+    {
+        MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        byte [] bytes = digest.digest(text.getBytes("UTF-8"));
+        StringBuilder result = new StringBuilder();
+        for (byte b: bytes)
+            result.append(String.format("%02x", b));
+        return result.toString();
+    }
+
+    /**
+     * A cached evaluation result.
+     */
+    private class Entry
+    {
+        /** Hashes of the files that the result depends on, at the moment of evaluation. */
+        private final Map <IPath, String> dependentHashes_;
+        /** The remaining compilation errors in the dependent files. */
+        private final Squiggly [] dependentErrors_;
+
+        private Entry(Map <IPath, String> dependentHashes, Squiggly [] dependentErrors)
+        {
+            dependentHashes_ = dependentHashes;
+            dependentErrors_ = dependentErrors;
+        }
+
+        private boolean isValid()
+        {
+            for (IPath path: dependentHashes_.keySet())
+            {
+                String currentHash = getContentHash(path);
+                if (currentHash == null || !currentHash.equals(dependentHashes_.get(path)))
+                    return false;
+            }
+            return true;
+        }
+
+        private boolean dependsOn(Set <IPath> paths)
+        {
+            for (IPath path: dependentHashes_.keySet())
+            {
+                if (paths.contains(path))
+                    return true;
+            }
+            return false;
+        }
+
+        private Squiggly [] resolve(Squiggly [] currentCompilationErrors)
+        {
+            ArrayList <Squiggly> result = new ArrayList <Squiggly>();
+            if (currentCompilationErrors != null)
+            {
+                for (Squiggly compilationError: currentCompilationErrors)
+                {
+                    if (!dependentHashes_.containsKey(compilationError.getResource().getProjectRelativePath()))
+                        result.add(compilationError);
+                }
+            }
+            for (Squiggly dependentError: dependentErrors_)
+                result.add(dependentError);
+            return result.toArray(new Squiggly [result.size()]);
+        }
+    }
+}
@@ -6,20 +6,23 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IProject;
-import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
 import org.eclipse.jdt.core.JavaModelException;
-import org.eclipse.jdt.internal.ui.text.correction.proposals.LinkedNamesAssistProposal;
 import org.eclipse.jdt.ui.text.java.IJavaCompletionProposal;
-import org.eclipse.jdt.ui.text.java.correction.ChangeCorrectionProposal;
+import org.eclipse.jdt.ui.text.java.IProblemLocation;
 import org.eclipse.jface.text.BadLocationException;
-import org.eclipse.ltk.core.refactoring.Change;
+import org.eclipse.jface.text.Position;
 
 import com.kivancmuslu.www.timer.Timer;
 
@@ -31,8 +34,8 @@ import edu.washington.cs.quickfix.speculation.calc.model.SpeculativeAnalysisNoti
 import edu.washington.cs.quickfix.speculation.exception.InvalidatedException;
 import edu.washington.cs.quickfix.speculation.gui.SpeculationPreferencePage;
 import edu.washington.cs.quickfix.speculation.hack.QuickFixDialogCoordinator;
-import edu.washington.cs.quickfix.speculation.model.Pair;
 import edu.washington.cs.quickfix.speculation.model.SpeculationUtility;
+import edu.washington.cs.quickfix.speculation.model.SquigglyFingerprint;
 import edu.washington.cs.synchronization.ProjectSynchronizer;
 import edu.washington.cs.synchronization.sync.internal.ProjectModificationListener;
 import edu.washington.cs.synchronization.sync.task.internal.TaskWorker;
@@ -48,24 +51,52 @@ public class SpeculationCalculator extends MortalThread implements ProjectModifi
 {
     private Squiggly [] shadowCompilationErrors_;
     private Map<Squiggly, Squiggly> shadowCompilationErrorResolutionMap_;
+    /**
+     * Positions of the shadow compilation errors, which are kept up to date by the task worker as the edits are applied
+     * to the shadow files (see {@link TaskWorker#trackPosition(IPath, Position)}). <br>
+     * Only accessed by the calculator thread (this).
+     */
+    private final HashMap <Squiggly, Position> trackedPositions_;
     private Map <Squiggly, IJavaCompletionProposal []> shadowProposalsMap_;
+    /**
+     * Proposals of the previous round, reused for the compilation errors whose results survived the invalidation. <br>
+     * Only accessed by the calculator thread (this).
+     */
+    private Map <Squiggly, IJavaCompletionProposal []> previousShadowProposalsMap_;
     /**
      * Mapping that stores the current calculation information. <br>
      * This field is protected by {@link #speculativeProposalsLock_}.
      */
     // Speculative proposals map is from shadow compilation errors to original augmented completion proposals.
     private Map <Squiggly, AugmentedCompletionProposal []> speculativeProposalsMap_;
+    /**
+     * Partial results of the compilation errors that a quick fix popup is waiting for, updated as each proposal is
+     * evaluated. A compilation error is removed from this map once it is added to {@link #speculativeProposalsMap_}.
+     * <br>
+     * This field is protected by 'this'.
+     */
+    private Map <Squiggly, AugmentedCompletionProposal []> partialProposalsMap_;
     private IProject shadowProject_;
 //    private IJavaCompletionProposalConverter proposalConverter_;
     private static final Logger logger = Logger.getLogger(SpeculationCalculator.class.getName());
-    private Map <String, Squiggly []> cachedProposals_;
+    /** Results of evaluated proposals, kept across rounds as long as the files they depend on do not change. */
+    private final ProposalResultCache resultCache_;
     /**
-     * Current file that is open in the Eclipse editor. Used for prioritizing the speculative analysis (i.e., deciding
-     * which markers to compute first). <br>
+     * Decides which compilation errors to process first, using the file that is open in the Eclipse editor and the
+     * cursor position.
      */
-    private volatile IFile currentFile_;
-    private volatile int currentCursorOffset_;
+    private final CompilationErrorScheduler scheduler_;
+    /** Learned evaluation costs of the proposal types, used to evaluate the cheap proposals first. */
+    private final ProposalCostModel costModel_;
     private volatile ActivationRecord activationRecord_;
+    /** Internal object used for the pause condition. */
+    private final Object pauseCondition_ = new Object();
+    /**
+     * <code>true</code> if the project of 'this' is not the active project in the editor. A paused calculator keeps
+     * its results but does not start a new speculative analysis round until it is resumed. <br>
+     * This field is protected by {@link #pauseCondition_}.
+     */
+    private boolean paused_ = false;
     private ArrayList <SpeculativeAnalysisListener> speculativeAnalysisListeners_;
     private ArrayList <SpeculativeAnalysisListener> speculativeAnalysisListenersToRemove_;
     private ReentrantLock speculativeAnalysisListenersLock_;
@@ -87,10 +118,24 @@ public class SpeculationCalculator extends MortalThread implements ProjectModifi
     private static final boolean DEVELOPMENT_TEST = false;
     public final static boolean TEST_TRANSFORMATION = DEVELOPMENT_TEST;
     public final static boolean TEST_SYNCHRONIZATION = true;
+    /**
+     * If <code>true</code>, proposals of different compilation errors whose changes affect disjoint sets of files are
+     * evaluated together with a single build.
+     */
+    private static final boolean GROUP_EVALUATION = true;
+    /** Maximum number of proposals that are evaluated together in a group. */
+    private static final int MAX_GROUP_SIZE = 8;
     private Date localSpeculationCompletionTime_ = null;
     private Date analysisCompletionTime_ = null;
     private ReentrantLock timingLock_;
     private volatile int typingSessionLength_ = -1;
+    /** Number of shadow projects that are used for evaluating proposals concurrently. */
+    private volatile int shadowPoolSize_ = 1;
+    /**
+     * Evaluators for the shadow pool, the first evaluator always works on {@link #shadowProject_}. <br>
+     * Only accessed by the calculator thread (this) after construction.
+     */
+    private ProposalEvaluator [] evaluators_;
 
     public SpeculationCalculator(ProjectSynchronizer synchronizer)
     {
@@ -100,8 +145,12 @@ public class SpeculationCalculator extends MortalThread implements ProjectModifi
         shadowProject_ = synchronizer_.getShadowProject();
 //        proposalConverter_ = new IJavaCompletionProposalConverter(synchronizer_.getProject());
         shadowProposalsMap_ = new HashMap <Squiggly, IJavaCompletionProposal []>();
+        previousShadowProposalsMap_ = new HashMap <Squiggly, IJavaCompletionProposal []>();
         speculativeProposalsMap_ = new HashMap <Squiggly, AugmentedCompletionProposal []>();
-        cachedProposals_ = new HashMap <String, Squiggly []>();
+        partialProposalsMap_ = new HashMap <Squiggly, AugmentedCompletionProposal []>();
+        resultCache_ = new ProposalResultCache(shadowProject_);
+        scheduler_ = new CompilationErrorScheduler();
+        costModel_ = new ProposalCostModel();
         bestProposals_ = new ArrayList <AugmentedCompletionProposal>();
         speculativeAnalysisListeners_ = new ArrayList <SpeculativeAnalysisListener>();
         speculativeAnalysisListenersToRemove_ = new ArrayList <SpeculativeAnalysisListener>();
@@ -112,9 +161,23 @@ public class SpeculationCalculator extends MortalThread implements ProjectModifi
         timingLock_ = new ReentrantLock();
         
         shadowCompilationErrorResolutionMap_ = new HashMap <Squiggly, Squiggly>();
+        trackedPositions_ = new HashMap <Squiggly, Position>();
         
         if (typingSessionLength_ == -1)
             updateTypingSessionTime(SpeculationPreferencePage.getInstance().getTypingSessionLength());
+        evaluators_ = new ProposalEvaluator [] {new ProposalEvaluator(this, synchronizer_, shadowProject_, true)};
+        updateShadowPoolSize(SpeculationPreferencePage.getInstance().getShadowPoolSize());
+    }
+
+    /**
+     * Updates the number of shadow projects that are used for evaluating proposals. <br>
+     * The new value takes effect at the beginning of the next speculative analysis round.
+     * 
+     * @param value The new shadow pool size.
+     */
+    public void updateShadowPoolSize(int value)
+    {
+        shadowPoolSize_ = Math.max(1, value);
     }
     
     public void updateTypingSessionTime(int value)
@@ -181,7 +244,7 @@ public class SpeculationCalculator extends MortalThread implements ProjectModifi
 //        }
 //    }
 
-    private boolean updateShadowCompilationErrors(Squiggly [] shadowCompilationErrors)
+    private boolean updateShadowCompilationErrors(Squiggly [] shadowCompilationErrors, boolean resultsValid)
     {
         Squiggly [] currentCompilationErrors;
         synchronized(this)
@@ -197,68 +260,219 @@ public class SpeculationCalculator extends MortalThread implements ProjectModifi
             result = false;
         else if (currentCompilationErrors.length != shadowCompilationErrors.length)
             result = false;
+        // Some of the results depend on the modified files, so they need to be calculated again.
+        else if (!resultsValid)
+            result = false;
         else
         {
-            HashMap <Squiggly, Squiggly> ceResolutionMap = new HashMap <Squiggly, Squiggly>();
             // The number of compilation errors are the same. Let's check the content.
-            ArrayList<Squiggly> oldCEs = new ArrayList<Squiggly>(Arrays.asList(currentCompilationErrors));
-            ArrayList<Squiggly> newCEs = new ArrayList<Squiggly>(Arrays.asList(shadowCompilationErrors));
-            outer: while (oldCEs.size() > 0)
+            HashMap <Squiggly, Squiggly> ceResolutionMap = matchCompilationErrors(currentCompilationErrors,
+                    shadowCompilationErrors);
+            if (ceResolutionMap == null)
+                result = false;
+            else
             {
-                Squiggly oldCE = oldCEs.get(0);
-                ArrayList <Squiggly> matches = new ArrayList <Squiggly>();
-                for (Squiggly newCE: newCEs)
+                synchronized(this)
                 {
-                    try
-                    {
-                        if (SpeculationUtility.sameSquigglyContent(oldCE, newCE))
-                            matches.add(newCE);
-                    }
-                    catch (JavaModelException e)
-                    {
-                        // We don't care the exceptions...
-                        result = false;
-                        break outer;
-                    }
-                    catch (BadLocationException e)
+                    shadowCompilationErrorResolutionMap_ = ceResolutionMap;
+                }
+            }
+        }
+        if (!result)
+        {
+            synchronized(this)
+            {
+                shadowCompilationErrors_ = shadowCompilationErrors;
+                previousShadowProposalsMap_ = new HashMap <Squiggly, IJavaCompletionProposal []>(shadowProposalsMap_);
+            }
+            trackShadowCompilationErrors(shadowCompilationErrors);
+            clearGlobalState();
+        }
+        return result;
+    }
+
+    /**
+     * Starts tracking the positions of the given compilation errors (instead of the previous ones) through the task
+     * worker, so that they can be matched with the compilation errors of the next rounds even if they are shifted by
+     * the edits. <br>
+     * Must be called while the task worker is blocked, so that the positions are in sync with the shadow files.
+     */
+    private void trackShadowCompilationErrors(Squiggly [] shadowCompilationErrors)
+    {
+        TaskWorker worker = getTaskWorker();
+        worker.stopTrackingPositions();
+        trackedPositions_.clear();
+        if (shadowCompilationErrors == null)
+            return;
+        for (Squiggly shadowCompilationError: shadowCompilationErrors)
+        {
+            IProblemLocation location = shadowCompilationError.getLocation();
+            if (location == null || shadowCompilationError.getResource() == null)
+                continue;
+            Position position = new Position(location.getOffset(), location.getLength());
+            worker.trackPosition(shadowCompilationError.getResource().getProjectRelativePath(), position);
+            trackedPositions_.put(shadowCompilationError, position);
+        }
+    }
+
+    /**
+     * Matches each old compilation error with a new compilation error that has the same content. <br>
+     * An old compilation error whose tracked position is still valid is first matched with the new compilation error
+     * that is at the same (possibly shifted) position and represents the same problem, without comparing contexts. <br>
+     * Otherwise, the new compilation errors are indexed by their {@link SquigglyFingerprint}s. If exactly one new
+     * compilation error has the same fingerprint as an old compilation error, it is confirmed with
+     * {@link SpeculationUtility#sameSquigglyContent(Squiggly, Squiggly)} and taken as its match. Otherwise (i.e., for
+     * fingerprint collisions and misses), the old compilation error is compared with all remaining new compilation
+     * errors and must have exactly one match, as before. This keeps the matching near-linear in the number of
+     * compilation errors.
+     * 
+     * @param oldCEs The compilation errors of the previous round.
+     * @param newCEs The compilation errors of the current round (must have the same size as the old ones).
+     * @return A map from the old compilation errors to the matching new ones, <code>null</code> if some old compilation
+     *         error does not have a (unique) match.
+     */
+    private HashMap <Squiggly, Squiggly> matchCompilationErrors(Squiggly [] oldCEs, Squiggly [] newCEs)
+    {
+        HashMap <Squiggly, Squiggly> result = new HashMap <Squiggly, Squiggly>();
+        try
+        {
+            // Squigglies do not override equals(), so the remaining compilation errors are kept by identity.
+            LinkedHashSet <Squiggly> remainingCEs = new LinkedHashSet <Squiggly>(Arrays.asList(newCEs));
+            HashMap <SquigglyFingerprint, ArrayList <Squiggly>> index = new HashMap <SquigglyFingerprint, ArrayList <Squiggly>>();
+            HashMap <Squiggly, SquigglyFingerprint> fingerprints = new HashMap <Squiggly, SquigglyFingerprint>();
+            HashMap <String, ArrayList <Squiggly>> locationIndex = new HashMap <String, ArrayList <Squiggly>>();
+            for (Squiggly newCE: newCEs)
+            {
+                String locationKey = computeLocationKey(newCE);
+                if (locationKey != null)
+                {
+                    ArrayList <Squiggly> candidates = locationIndex.get(locationKey);
+                    if (candidates == null)
                     {
-                        // We don't care the exceptions...
-                        result = false;
-                        break outer;
+                        candidates = new ArrayList <Squiggly>(1);
+                        locationIndex.put(locationKey, candidates);
                     }
+                    candidates.add(newCE);
                 }
-                if (matches.size() == 1)
+                SquigglyFingerprint fingerprint = new SquigglyFingerprint(newCE, newCE.getContext());
+                fingerprints.put(newCE, fingerprint);
+                ArrayList <Squiggly> bucket = index.get(fingerprint);
+                if (bucket == null)
                 {
-                    // We have found a corresponding pair that matches the current compilation error. 
-                    // Remove them both and continue.
-                    oldCEs.remove(oldCE);
-                    Squiggly match = matches.get(0);
-                    newCEs.remove(match);
-                    ceResolutionMap.put(oldCE, match);
+                    bucket = new ArrayList <Squiggly>(1);
+                    index.put(fingerprint, bucket);
                 }
+                bucket.add(newCE);
+            }
+            int trackedMatches = 0;
+            int fallbacks = 0;
+            for (Squiggly oldCE: oldCEs)
+            {
+                Squiggly match = findTrackedMatch(oldCE, locationIndex);
+                if (match != null)
+                    trackedMatches++;
                 else
                 {
-                    System.out.println("Cannot find a match for compilation error = " + oldCE);
-                    // We couldn't find a pair for the current compilation error. Something has changed.
-                    result = false;
-                    break;
+                    ArrayList <Squiggly> bucket = index.get(new SquigglyFingerprint(oldCE, oldCE.getCachedContext()));
+                    if (bucket != null && bucket.size() == 1
+                            && SpeculationUtility.sameSquigglyContent(oldCE, bucket.get(0)))
+                        match = bucket.get(0);
+                    else
+                    {
+                        fallbacks++;
+                        match = findUniqueMatch(oldCE, remainingCEs);
+                    }
                 }
-            }
-            if (result)
-            {
-                synchronized(this)
+                if (match == null)
                 {
-                    shadowCompilationErrorResolutionMap_ = ceResolutionMap;
+                    logger.info("Cannot find a match for compilation error = " + oldCE);
+                    return null;
                 }
+                // We have found a corresponding pair that matches the current compilation error.
+                // Remove the match so that it cannot match another compilation error.
+                remainingCEs.remove(match);
+                index.get(fingerprints.get(match)).remove(match);
+                String locationKey = computeLocationKey(match);
+                if (locationKey != null)
+                    locationIndex.get(locationKey).remove(match);
+                result.put(oldCE, match);
             }
+            logger.fine("Matched " + result.size() + " compilation errors, " + trackedMatches
+                    + " of them by their tracked positions and " + fallbacks + " of them with full comparison.");
+            return result;
         }
-        if (!result)
+        catch (JavaModelException e)
         {
-            synchronized(this)
+            // We don't care the exceptions...
+            return null;
+        }
+        catch (BadLocationException e)
+        {
+            // We don't care the exceptions...
+            return null;
+        }
+    }
+
+    /**
+     * Returns the new compilation error that is at the current tracked position of the given old compilation error and
+     * represents the same problem, <code>null</code> if the position is not tracked (anymore) or there is no unique such
+     * compilation error.
+     */
+    private Squiggly findTrackedMatch(Squiggly oldCE, HashMap <String, ArrayList <Squiggly>> locationIndex)
+    {
+        Position tracked = trackedPositions_.get(oldCE);
+        IProblemLocation location = oldCE.getLocation();
+        if (tracked == null || location == null)
+            return null;
+        Position current = getTaskWorker().getTrackedPosition(tracked);
+        if (current == null)
+            return null;
+        ArrayList <Squiggly> candidates = locationIndex.get(computeLocationKey(oldCE, location.getProblemId(),
+                current.getOffset(), current.getLength()));
+        if (candidates == null || candidates.size() != 1)
+            return null;
+        Squiggly candidate = candidates.get(0);
+        if (SpeculationUtility.sameProblemLocationContent(location, current.getOffset(), current.getLength(),
+                candidate.getLocation()))
+            return candidate;
+        return null;
+    }
+
+    /**
+     * Returns a key that identifies the file, problem id and region of the given compilation error, <code>null</code>
+     * if its location is unknown.
+     */
+    private String computeLocationKey(Squiggly compilationError)
+    {
+        IProblemLocation location = compilationError.getLocation();
+        if (location == null)
+            return null;
+        return computeLocationKey(compilationError, location.getProblemId(), location.getOffset(), location.getLength());
+    }
+
+    private String computeLocationKey(Squiggly compilationError, int problemId, int offset, int length)
+    {
+        String file = compilationError.getResource() == null ? "" : compilationError.getResource()
+                .getProjectRelativePath().toString();
+        return file + ":" + problemId + ":" + offset + ":" + length;
+    }
+
+    /**
+     * Returns the only compilation error in the given compilation errors that has the same content as the given one,
+     * <code>null</code> if there is none or more than one.
+     */
+    private Squiggly findUniqueMatch(Squiggly oldCE, Set <Squiggly> newCEs) throws JavaModelException,
+            BadLocationException
+    {
+        Squiggly result = null;
+        for (Squiggly newCE: newCEs)
+        {
+            if (SpeculationUtility.sameSquigglyContent(oldCE, newCE))
             {
-                shadowCompilationErrors_ = shadowCompilationErrors;
+                if (result != null)
+                    return null;
+                result = newCE;
             }
-            clearGlobalState();
         }
         return result;
     }
@@ -281,10 +495,20 @@ public class SpeculationCalculator extends MortalThread implements ProjectModifi
     protected void preDoWork() throws InterruptedException
     {
         activationRecord_.waitUntilActivated();
+        waitUntilResumed();
         if (isDead())
             return;
     }
 
+    private void waitUntilResumed() throws InterruptedException
+    {
+        synchronized (pauseCondition_)
+        {
+            while (paused_ && !isDead())
+                pauseCondition_.wait();
+        }
+    }
+
     private void compareWithCurrentBest(AugmentedCompletionProposal proposal)
     {
         if (bestProposals_.isEmpty())
@@ -331,6 +555,7 @@ public class SpeculationCalculator extends MortalThread implements ProjectModifi
         if (isDead())
             return;
         Timer.startSession();
+        long roundStart = System.currentTimeMillis();
         TaskWorker currentWorker = synchronizeWithTaskWorker();
         // We make sure to deactivate auto-building so that from this point on it will not collide with our calculations.
         boolean prevAutoBuilding = deactivateAutoBuilding();
@@ -342,7 +567,11 @@ public class SpeculationCalculator extends MortalThread implements ProjectModifi
                 // Since we haven't done any calculation yet, wee can assume everything is okay even if it wasn't.
                 testSynchronization();
             Squiggly [] shadowCompilationErrors = computeShadowCompilationErrors();
-            shallSkip = updateShadowCompilationErrors(shadowCompilationErrors);
+            // Only the results that depend on the modified files are invalidated, the rest survive to this round.
+            // Even if no result is invalidated, the round is only skipped if no file is modified: the results that are
+            // not cached (e.g., the ones whose dependencies are unknown) might depend on the modified files.
+            boolean unmodified = invalidateResults();
+            shallSkip = updateShadowCompilationErrors(shadowCompilationErrors, unmodified);
             // Reset the activation record so that the current round will be valid and speculator will be deactivated
             // before the next round.
             activationRecord_.reset();
@@ -371,6 +600,7 @@ public class SpeculationCalculator extends MortalThread implements ProjectModifi
             else
                 logger.info("Not activating auto-building since it was deactivated at the beginning of the analysis.");
             // Unblock the task worker so that any changes done to the other project can be applied to the shadow.
+            currentWorker.reportRoundCost(System.currentTimeMillis() - roundStart);
             currentWorker.unblock();
             // signal that the thread completed the analysis and the results can be grabbed.
             // TODO Do we really need this? Doesn't signal analysis round completed after each compilation error kind of do it?
@@ -447,13 +677,30 @@ public class SpeculationCalculator extends MortalThread implements ProjectModifi
         return shadowCompilationErrors;
     }
 
+    /**
+     * Invalidates the results that depend on the files modified since the previous round (or on the files that depend
+     * on them). If the modified files are unknown, all results are invalidated. <br>
+     * The task worker must be blocked during this method so that the shadow project does not change.
+     * 
+     * @return <code>true</code> if it is known that no file is modified since the previous round, <code>false</code>
+     *         otherwise.
+     */
+    private boolean invalidateResults()
+    {
+        Set <IPath> affectedFiles = synchronizer_.consumeAffectedFiles();
+        int invalidated = resultCache_.invalidate(affectedFiles);
+        logger.info("Invalidated " + invalidated + " result(s) since "
+                + (affectedFiles == null ? "the modified files are unknown." : affectedFiles.size()
+                        + " file(s) are affected by the modifications."));
+        return affectedFiles != null && affectedFiles.isEmpty();
+    }
+
     private void clearGlobalState()
     {
         clearSpeculativeProposalsMap();
         clearProposalsMap();
         clearTimings();
         bestProposals_ = new ArrayList <AugmentedCompletionProposal>();
-        cachedProposals_.clear();
         QuickFixDialogCoordinator.getCoordinator().clearBestProposals();
         QuickFixDialogCoordinator.getCoordinator().clear();
     }
@@ -474,7 +721,43 @@ public class SpeculationCalculator extends MortalThread implements ProjectModifi
         // The place of signal is very important. Basically, it has to be done after all accessible state is cleared
         // to defaults.
         signalSpeculativeAnalysisStart();
+        prepareShadowPool();
+        resultCache_.startRound();
         processCompilationErrors();
+        logger.info("Result cache after the speculative analysis: " + resultCache_);
+    }
+
+    /**
+     * Resizes and synchronizes the shadow pool, and creates an evaluator for each shadow project in the pool. <br>
+     * The task worker must be blocked during this method so that the primary shadow does not change.
+     */
+    private void prepareShadowPool()
+    {
+        synchronizer_.setShadowPoolSize(shadowPoolSize_);
+        synchronizer_.syncShadowPool();
+        IProject [] shadowPool = synchronizer_.getShadowPool();
+        Squiggly [] shadowCompilationErrors = getShadowCompilationErrors();
+        ProposalEvaluator [] evaluators = new ProposalEvaluator [shadowPool.length];
+        for (int a = 0; a < shadowPool.length; a++)
+        {
+            evaluators[a] = new ProposalEvaluator(this, synchronizer_, shadowPool[a], a == 0);
+            evaluators[a].prepare(shadowCompilationErrors);
+        }
+        evaluators_ = evaluators;
+        logger.info("Speculative analysis will use " + evaluators.length + " shadow project(s).");
+    }
+
+    /**
+     * Throws an {@link InvalidatedException} if the current speculative analysis is invalidated or the calculator is
+     * killed. <br>
+     * Used by the evaluators between proposals.
+     * 
+     * @throws InvalidatedException If the current speculative analysis is invalidated.
+     */
+    void checkValidity() throws InvalidatedException
+    {
+        if (activationRecord_.isInvalid() || isDead())
+            throw new InvalidatedException();
     }
 
     private void processCompilationErrors() throws InvalidatedException
@@ -482,29 +765,79 @@ public class SpeculationCalculator extends MortalThread implements ProjectModifi
         try
         {
             int counter = 0;
-            // Clear the global cached quick fixes.
-            ArrayList <Squiggly> compilationErrors = getShadowCompilationErrorsAsList();
-            while (!compilationErrors.isEmpty())
+            scheduler_.reset(getShadowCompilationErrorsAsList());
+            // Batches that are created (and partially evaluated) by the group evaluation.
+            Map <Squiggly, ProposalBatch> groupedBatches = new HashMap <Squiggly, ProposalBatch>();
+            boolean grouped = false;
+            // Batches of the compilation errors that are preempted by a more urgent compilation error.
+            Map <Squiggly, ProposalBatch> suspendedBatches = new HashMap <Squiggly, ProposalBatch>();
+            // Batches that have proposals deferred to the end of the round for exceeding their time budget.
+            ArrayList <ProposalBatch> deferredBatches = new ArrayList <ProposalBatch>();
+            while (true)
             {
-                CompilationErrorComparator cec = new CompilationErrorComparator();
-                Collections.sort(compilationErrors, cec);
-                Squiggly shadowCompilationError = compilationErrors.get(0);
-                IJavaCompletionProposal [] shadowProposals = computeShadowProposals(shadowCompilationError);
-                addToShadowProposalsMap(shadowCompilationError, shadowProposals);
-                if (shadowProposals != null)
+                // The groups are evaluated once per round, after the urgent compilation errors are processed.
+                if (!grouped && !scheduler_.hasUrgentWork())
+                {
+                    grouped = true;
+                    groupedBatches = evaluateProposalGroups(suspendedBatches.keySet());
+                }
+                Squiggly shadowCompilationError = scheduler_.poll();
+                if (shadowCompilationError == null)
+                    break;
+                ProposalBatch batch = suspendedBatches.remove(shadowCompilationError);
+                if (batch == null)
                 {
-                    AugmentedCompletionProposal [] shadowCalculatedProposal = processCompilationError(shadowCompilationError);
-                    counter += shadowProposals.length;
-                    addToSpeculationProposalsMap(shadowCompilationError, shadowCalculatedProposal);
-                    // Signal the quick fix grabbers so that they might attempt to look for the
-                    // results..
-                    signalSpeculativeAnalysisRoundComplete();
+                    batch = groupedBatches.remove(shadowCompilationError);
+                    if (batch == null)
+                        batch = prepareProposalBatch(shadowCompilationError);
+                    if (batch == null)
+                        continue;
+                    // Stream the results that are retrieved from the cache (or evaluated in a group) right away.
+                    if (!batch.pendingProposals_.isEmpty())
+                        publishPartialResults(batch, -1);
                 }
                 else
-                    logger.warning("For compilation error = " + shadowCompilationError.toString()
-                            + ", there are no proposals!");
-                compilationErrors.remove(shadowCompilationError);
+                    logger.info("Resuming compilation error = " + shadowCompilationError.toString());
+                if (!evaluateProposals(batch))
+                {
+                    logger.info("Compilation error = " + shadowCompilationError.toString()
+                            + " is preempted by a more urgent compilation error.");
+                    suspendedBatches.put(shadowCompilationError, batch);
+                    scheduler_.add(shadowCompilationError);
+                    continue;
+                }
+                if (!batch.deferredProposals_.isEmpty())
+                {
+                    // The batch is completed after its deferred proposals are evaluated, until then the quick fix
+                    // grabbers only see its partial results.
+                    deferredBatches.add(batch);
+                    publishPartialResults(batch, -1);
+                    continue;
+                }
+                AugmentedCompletionProposal [] shadowCalculatedProposal = completeProposalBatch(batch);
+                counter += batch.shadowProposals_.length;
+                addToSpeculationProposalsMap(shadowCompilationError, shadowCalculatedProposal);
+                // Signal the quick fix grabbers so that they might attempt to look for the
+                // results..
+                signalSpeculativeAnalysisRoundComplete();
+            }
+            for (ProposalBatch batch: deferredBatches)
+            {
+                logger.info("Evaluating " + batch.deferredProposals_.size()
+                        + " deferred proposal(s) for compilation error = " + batch.shadowCompilationError_);
+                batch.pendingProposals_.addAll(batch.deferredProposals_);
+                batch.deferredProposals_.clear();
+                // Nothing is left in the scheduler at this point, so the batch should not be preempted. If it is, the
+                // remaining proposals are completed as not computed.
+                if (!evaluateProposals(batch))
+                    logger.warning("Deferred proposals of compilation error = " + batch.shadowCompilationError_
+                            + " are preempted, " + batch.pendingProposals_.size() + " proposal(s) are not computed.");
+                counter += batch.shadowProposals_.length;
+                addToSpeculationProposalsMap(batch.shadowCompilationError_, completeProposalBatch(batch));
+                signalSpeculativeAnalysisRoundComplete();
             }
+            for (ProposalEvaluator evaluator: evaluators_)
+                evaluator.finishRound();
             logger.severe("Speculative analysis completed: Available proposals (" + counter
                     + ") and their results calculated in advance...");
         }
@@ -522,69 +855,528 @@ public class SpeculationCalculator extends MortalThread implements ProjectModifi
              */
             // doSpeculativeAnalysis();
         }
+        finally
+        {
+            costModel_.save();
+        }
+    }
+
+    /**
+     * Computes the proposals of the given compilation error and creates its proposal batch. <br>
+     * Returns <code>null</code> if there are no proposals for the given compilation error.
+     * 
+     * @param shadowCompilationError The compilation error.
+     * @return The proposal batch for the given compilation error, or <code>null</code>.
+     * @throws Exception If the quick fixes cannot be computed.
+     */
+    private ProposalBatch prepareProposalBatch(Squiggly shadowCompilationError) throws Exception
+    {
+        IJavaCompletionProposal [] shadowProposals = getShadowProposals(shadowCompilationError);
+        addToShadowProposalsMap(shadowCompilationError, shadowProposals);
+        if (shadowProposals == null)
+        {
+            logger.warning("For compilation error = " + shadowCompilationError.toString()
+                    + ", there are no proposals!");
+            return null;
+        }
+        return createProposalBatch(shadowCompilationError);
     }
 
-    private AugmentedCompletionProposal [] processCompilationError(Squiggly shadowCompilationError)
-            throws InvalidatedException
+    /**
+     * Evaluates the proposals of different compilation errors whose changes affect disjoint sets of files in groups,
+     * with a single build per group (see {@link ProposalEvaluator#evaluateGroup(java.util.List)}). <br>
+     * The groups are formed and evaluated one at a time: the compilation errors are visited in the order of the
+     * scheduler, and the proposals (and the changes and dependencies of their group members) of a compilation error are
+     * only computed when the current group needs more members. The group evaluation is stopped between proposals and
+     * between groups as soon as an urgent compilation error (see {@link CompilationErrorScheduler#hasUrgentWork()}) is
+     * waiting, so that its results are not delayed. The proposals that are not evaluated in a group (i.e., they cannot
+     * be grouped, their results in the group cannot be attributed or the group evaluation is stopped) stay pending and
+     * are evaluated in isolation by the regular evaluation.
+     * 
+     * @param excluded The compilation errors whose batches are already created (e.g., suspended batches).
+     * @return The batches that are created for the compilation errors.
+     * @throws Exception If the quick fixes cannot be computed.
+     */
+    private Map <Squiggly, ProposalBatch> evaluateProposalGroups(Set <Squiggly> excluded) throws Exception
     {
-        if (activationRecord_.isInvalid() || isDead())
-            throw new InvalidatedException();
-        try
+        Map <Squiggly, ProposalBatch> batches = new HashMap <Squiggly, ProposalBatch>();
+        if (!GROUP_EVALUATION)
+            return batches;
+        ProposalEvaluator evaluator = evaluators_[0];
+        ArrayList <Squiggly> scheduled = scheduler_.getScheduled();
+        int nextError = 0;
+        // Proposals that are not added to a group yet, in the order of the scheduler.
+        ArrayList <GroupCandidate> candidates = new ArrayList <GroupCandidate>();
+        boolean preempted = false;
+        int evaluated = 0;
+        while (!preempted)
         {
-            int errorsBefore = getNumberOfErrors();
-            logger.info("For compilation error: " + shadowCompilationError.toString() + " type = " + shadowCompilationError.getErrorCode());
-            // This access to proposalsMap_ is safe since the only thread that can modify it is the calculator (this).
-            IJavaCompletionProposal [] shadowProposals = shadowProposalsMap_.get(shadowCompilationError);
-            logger.info("Number of proposals = " + shadowProposals.length);
-            AugmentedCompletionProposal [] result = new AugmentedCompletionProposal [shadowProposals.length];
-            int counter = 0;
-            for (int a = 0; a < shadowProposals.length; a++)
+            ProposalGroup group = new ProposalGroup();
+            int position = 0;
+            while (group.members_.size() < MAX_GROUP_SIZE)
             {
-                IJavaCompletionProposal shadowProposal = shadowProposals[a];
-//                System.out.println(shadowProposal.getDisplayString() + ": " + shadowProposal.getRelevance());
-                // Note: Transformation does nothing if the original proposal is not null and development test is not
-                // active.
-                String displayString = shadowProposal.getDisplayString();
-                // Do a quick lookup from the cache map, and if it exists there, return from there
-                // without calculating it again.
-                Squiggly [] errorsAfter;
-                if (cachedProposals_.containsKey(displayString))
+                if (scheduler_.hasUrgentWork())
                 {
-                    errorsAfter = cachedProposals_.get(displayString);
-                    logger.fine("Proposal (" + displayString + ") was already calculated in this pass, returning "
-                            + errorsAfter.length + " from cache map.");
+                    preempted = true;
+                    break;
                 }
-                else
+                if (position == candidates.size())
                 {
-                    errorsAfter = processProposal(shadowProposal);
-                    cachedProposals_.put(displayString, errorsAfter);
-                    // TODO Why do I need this?
-                    if (errorsAfter == Squiggly.UNKNOWN)
-                        errorsAfter = getShadowCEs();
-                    int errorsAfterUndo = getShadowCEs().length;
-                    if (errorsAfterUndo != errorsBefore)
+                    // Every candidate is visited, the proposals of the next compilation error are computed.
+                    if (nextError == scheduled.size())
+                        break;
+                    Squiggly shadowCompilationError = scheduled.get(nextError++);
+                    if (excluded.contains(shadowCompilationError))
+                        continue;
+                    ProposalBatch batch = prepareProposalBatch(shadowCompilationError);
+                    if (batch == null)
+                        continue;
+                    batches.put(shadowCompilationError, batch);
+                    for (Integer index: batch.pendingProposals_)
+                        candidates.add(new GroupCandidate(batch, index));
+                    continue;
+                }
+                GroupCandidate candidate = candidates.get(position);
+                if (candidate.member_ == null)
+                {
+                    candidate.member_ = evaluator.createGroupMember(candidate.batch_.shadowCompilationError_,
+                            candidate.batch_.shadowProposals_[candidate.index_]);
+                    if (candidate.member_ == null)
                     {
-                        logger.warning("For proposal = " + displayString + ", class = " + shadowProposal.getClass()
-                                + ", applying change and undo broke the synchronization of the projects. "
-                                + "Before change = " + errorsBefore + ", after change = " + errorsAfter.length
-                                + ". Re-synching projects...");
-                        syncProjects();
+                        candidates.remove(position);
+                        continue;
                     }
                 }
-                if (errorsAfter == Squiggly.UNKNOWN)
-                    errorsAfter = getShadowCEs();
-                AugmentedCompletionProposal augmentedProposal = new AugmentedCompletionProposal(shadowProposal,
-                        shadowCompilationError, errorsAfter, errorsBefore);
-                compareWithCurrentBest(augmentedProposal);
-                result[counter] = augmentedProposal;
-                counter++;
-                logger.fine("");
+                if (group.accepts(candidate.batch_, candidate.member_))
+                {
+                    group.add(candidate.batch_, candidate.index_, candidate.member_);
+                    candidates.remove(position);
+                }
+                else
+                    position++;
+            }
+            if (preempted || group.members_.isEmpty())
+                break;
+            // A proposal that cannot be grouped with any other is evaluated in isolation.
+            if (group.members_.size() < 2)
+                continue;
+            Squiggly [][] results = evaluator.evaluateGroup(group.members_);
+            if (!evaluator.isRestored())
+            {
+                logger.warning("Applying and reverting a proposal group broke the synchronization of the projects. "
+                        + "Re-synching projects...");
+                evaluator.resync();
+            }
+            if (results == null)
+                continue;
+            for (int a = 0; a < results.length; a++)
+            {
+                // The member needs to be evaluated in isolation.
+                if (results[a] == null)
+                    continue;
+                ProposalBatch batch = group.batches_.get(a);
+                Integer index = group.indices_.get(a);
+                ProposalEvaluator.GroupMember member = group.members_.get(a);
+                batch.setResult(index, results[a], member.getTouchedFiles(), member.getReferencedFiles());
+                batch.pendingProposals_.remove(index);
+                evaluated++;
             }
-            return result;
+        }
+        logger.info("Evaluated " + evaluated + " proposal(s) in groups.");
+        if (preempted)
+            logger.info("Group evaluation is preempted by an urgent compilation error.");
+        return batches;
+    }
+
+    /**
+     * Creates the proposal batch for the given compilation error. The results of the proposals that are found in the
+     * result cache are filled in, the rest are marked as pending. <br>
+     * Pending proposals are ordered by their expected cost (cheap ones first). Proposals whose type repeatedly exceeded
+     * the time budget are marked as {@link Squiggly#TIMED_OUT} and deferred to the end of the round.
+     * 
+     * @param shadowCompilationError The compilation error.
+     * @return The proposal batch for the given compilation error.
+     * @throws InvalidatedException If the current speculative analysis is invalidated.
+     */
+    private ProposalBatch createProposalBatch(Squiggly shadowCompilationError) throws InvalidatedException
+    {
+        checkValidity();
+        int errorsBefore = getNumberOfErrors();
+        logger.info("For compilation error: " + shadowCompilationError.toString() + " type = " + shadowCompilationError.getErrorCode());
+        // This access to proposalsMap_ is safe since the only thread that can modify it is the calculator (this).
+        IJavaCompletionProposal [] shadowProposals = shadowProposalsMap_.get(shadowCompilationError);
+        logger.info("Number of proposals = " + shadowProposals.length);
+        ProposalBatch batch = new ProposalBatch(shadowCompilationError, shadowProposals, errorsBefore);
+        Squiggly [] shadowCompilationErrors = getShadowCompilationErrors();
+        ArrayList <Integer> pendingProposals = new ArrayList <Integer>();
+        for (int a = 0; a < shadowProposals.length; a++)
+        {
+            // Do a quick lookup from the result cache, and if it exists there, return from there
+            // without calculating it again.
+            Squiggly [] cachedErrors = resultCache_.lookup(shadowCompilationError, shadowProposals[a],
+                    shadowCompilationErrors);
+            if (cachedErrors != null)
+            {
+                batch.errorsAfter_[a] = cachedErrors;
+                logger.fine("Proposal (" + shadowProposals[a].getDisplayString() + ") was already calculated, returning "
+                        + cachedErrors.length + " from result cache.");
+            }
+            else if (costModel_.isOverBudget(shadowCompilationError, shadowProposals[a]))
+            {
+                batch.errorsAfter_[a] = Squiggly.TIMED_OUT;
+                batch.deferredProposals_.add(a);
+            }
+            else
+                pendingProposals.add(a);
+        }
+        final long [] expectedCosts = new long [shadowProposals.length];
+        for (Integer index: pendingProposals)
+            expectedCosts[index] = costModel_.getExpectedCost(shadowCompilationError, shadowProposals[index]);
+        Collections.sort(pendingProposals, new Comparator <Integer>()
+        {
+            @Override
+            public int compare(Integer index1, Integer index2)
+            {
+                long difference = expectedCosts[index1] - expectedCosts[index2];
+                return difference < 0 ? -1 : (difference > 0 ? 1 : index1 - index2);
+            }
+        });
+        batch.pendingProposals_.addAll(pendingProposals);
+        return batch;
+    }
+
+    /**
+     * Stores the results of the evaluated proposals in the result cache and creates the augmented proposals of the given
+     * (completely evaluated) batch.
+     * 
+     * @param batch The proposal batch.
+     * @return The augmented proposals of the given batch.
+     */
+    private AugmentedCompletionProposal [] completeProposalBatch(ProposalBatch batch)
+    {
+        Squiggly shadowCompilationError = batch.shadowCompilationError_;
+        IJavaCompletionProposal [] shadowProposals = batch.shadowProposals_;
+        Squiggly [] shadowCompilationErrors = getShadowCompilationErrors();
+        AugmentedCompletionProposal [] result = new AugmentedCompletionProposal [shadowProposals.length];
+        batch.lock_.lock();
+        // An evaluation thread might have died unexpectedly without computing its current proposal.
+        for (int a = 0; a < shadowProposals.length; a++)
+        {
+            if (batch.errorsAfter_[a] == null)
+                batch.errorsAfter_[a] = Squiggly.NOT_COMPUTED;
+        }
+        Squiggly [][] errorsAfter = batch.errorsAfter_.clone();
+        IFile [][] touchedFiles = batch.touchedFiles_.clone();
+        ArrayList <Set <IPath>> referencedFiles = new ArrayList <Set <IPath>>(batch.referencedFiles_);
+        boolean [] evaluated = batch.evaluated_.clone();
+        batch.lock_.unlock();
+        for (int a = 0; a < shadowProposals.length; a++)
+        {
+            IJavaCompletionProposal shadowProposal = shadowProposals[a];
+            if (evaluated[a])
+            {
+                resultCache_.store(shadowCompilationError, shadowProposal, touchedFiles[a],
+                        referencedFiles.get(a), shadowCompilationErrors, errorsAfter[a]);
+            }
+            AugmentedCompletionProposal augmentedProposal = new AugmentedCompletionProposal(shadowProposal,
+                    shadowCompilationError, errorsAfter[a], batch.errorsBefore_);
+            compareWithCurrentBest(augmentedProposal);
+            result[a] = augmentedProposal;
+            logger.fine("");
+        }
+        return result;
+    }
+
+    /**
+     * Evaluates the pending proposals of the given batch using the shadow pool. <br>
+     * The calculator thread works on the primary shadow, and one {@link EvaluationThread} is spawned for each replica
+     * (as long as there is enough work for it). All evaluators consume the same queue of pending proposals. Proposals
+     * that cannot be resolved on a replica are evaluated on the primary shadow at the end. <br>
+     * The evaluators stop between proposals if the scheduler decides that the compilation error should be preempted, in
+     * which case the remaining proposals stay in the batch and can be evaluated later by calling this method again.
+     * 
+     * @param batch The proposals of a compilation error.
+     * @return <code>true</code> if all proposals of the batch are evaluated, <code>false</code> if it is preempted.
+     * @throws InvalidatedException If the current speculative analysis is invalidated.
+     */
+    private boolean evaluateProposals(ProposalBatch batch) throws InvalidatedException
+    {
+        ProposalEvaluator [] evaluators = evaluators_;
+        ArrayList <EvaluationThread> threads = new ArrayList <EvaluationThread>();
+        for (int a = 1; a < evaluators.length && a < batch.pendingProposals_.size(); a++)
+        {
+            EvaluationThread thread = new EvaluationThread(evaluators[a], batch);
+            threads.add(thread);
+            thread.start();
+        }
+        InvalidatedException invalidated = null;
+        try
+        {
+            evaluatePendingProposals(evaluators[0], batch, batch.pendingProposals_);
         }
         catch (InvalidatedException e)
         {
-            throw e;
+            invalidated = e;
+        }
+        for (EvaluationThread thread: threads)
+        {
+            try
+            {
+                thread.join();
+            }
+            catch (InterruptedException e)
+            {
+                e.printStackTrace();
+            }
+            if (thread.getInvalidatedException() != null)
+                invalidated = thread.getInvalidatedException();
+        }
+        if (invalidated != null)
+            throw invalidated;
+        // Proposals that cannot be resolved on the replicas are evaluated on the primary shadow.
+        evaluatePendingProposals(evaluators[0], batch, batch.unresolvedProposals_);
+        return batch.pendingProposals_.isEmpty() && batch.unresolvedProposals_.isEmpty();
+    }
+
+    private void evaluatePendingProposals(ProposalEvaluator evaluator, ProposalBatch batch,
+            ConcurrentLinkedQueue <Integer> pendingProposals) throws InvalidatedException
+    {
+        Integer index;
+        // Preemption is only checked between proposals, when the shadow project is in a clean state.
+        while (!scheduler_.shouldPreempt(batch.shadowCompilationError_) && (index = pendingProposals.poll()) != null)
+        {
+            IJavaCompletionProposal shadowProposal = batch.shadowProposals_[index];
+            String displayString = shadowProposal.getDisplayString();
+            // Timer is not thread-safe, and this method runs on several evaluation threads.
+            long start = System.currentTimeMillis();
+            IJavaCompletionProposal localProposal = null;
+            try
+            {
+                localProposal = evaluator.resolveProposal(batch.shadowCompilationError_, shadowProposal);
+            }
+            catch (Exception e)
+            {
+                logger.log(Level.WARNING, "Cannot resolve proposal = " + displayString + " on shadow = "
+                        + evaluator.getShadowProject().getName(), e);
+            }
+            if (localProposal == null)
+            {
+                batch.unresolvedProposals_.add(index);
+                continue;
+            }
+            Squiggly [] errors = evaluator.evaluate(batch.shadowCompilationError_, localProposal);
+            // TODO Why do I need this?
+            if (errors == Squiggly.UNKNOWN)
+                errors = evaluator.getCompilationErrors();
+            // The compilation errors of a replica belong to its own resources.
+            errors = evaluator.mapToPrimary(errors);
+            costModel_.record(batch.shadowCompilationError_, shadowProposal, System.currentTimeMillis() - start);
+            batch.setResult(index, errors, evaluator.getLastTouchedFiles(), evaluator.getLastReferencedFiles());
+            if (!evaluator.isRestored())
+            {
+                logger.warning("For proposal = " + displayString + ", class = " + shadowProposal.getClass()
+                        + ", applying change and undo broke the synchronization of the projects. "
+                        + "Re-synching projects...");
+                evaluator.resync();
+            }
+            publishPartialResults(batch, index);
+        }
+    }
+
+    /**
+     * Publishes the results of the proposals that are evaluated so far for the given batch, if a quick fix popup is
+     * waiting for its compilation error. The proposals that are not evaluated yet are marked as
+     * {@link Squiggly#NOT_COMPUTED}. <br>
+     * If a single proposal has just been evaluated, only that proposal is signaled to the listeners (see
+     * {@link #signalProposalEvaluated(AugmentedCompletionProposal)}), so that the quick fix popup can update its row
+     * instead of rebuilding the whole table. <br>
+     * Can be called by the evaluation threads concurrently.
+     * 
+     * @param batch The proposal batch.
+     * @param index The index of the proposal that has just been evaluated, <code>-1</code> if the results are
+     *            published for the whole batch.
+     */
+    private void publishPartialResults(ProposalBatch batch, int index)
+    {
+        Squiggly shadowCompilationError = batch.shadowCompilationError_;
+        if (!scheduler_.isWaitedFor(shadowCompilationError))
+            return;
+        IJavaCompletionProposal [] shadowProposals = batch.shadowProposals_;
+        Squiggly [][] errorsAfter = batch.copyErrorsAfter();
+        AugmentedCompletionProposal [] partialProposals = new AugmentedCompletionProposal [shadowProposals.length];
+        for (int a = 0; a < shadowProposals.length; a++)
+        {
+            partialProposals[a] = new AugmentedCompletionProposal(shadowProposals[a], shadowCompilationError,
+                    errorsAfter[a] == null ? Squiggly.NOT_COMPUTED : errorsAfter[a], batch.errorsBefore_);
+        }
+        synchronized(this)
+        {
+            partialProposalsMap_.put(shadowCompilationError, partialProposals);
+        }
+        if (index == -1)
+            signalSpeculativeAnalysisRoundComplete();
+        else
+            signalProposalEvaluated(partialProposals[index]);
+    }
+
+    /**
+     * A proposal batch holds the evaluation state of the proposals that are offered for one compilation error. <br>
+     * Each proposal is identified by its index, and each index is written by exactly one evaluator. The results are
+     * written by the group evaluation and the evaluation threads while the partial results are published, so
+     * {@link #errorsAfter_}, {@link #touchedFiles_}, {@link #referencedFiles_} and {@link #evaluated_} are protected by
+     * {@link #lock_} once the batch is created.
+     */
+    private static class ProposalBatch
+    {
+        private final Squiggly shadowCompilationError_;
+        private final IJavaCompletionProposal [] shadowProposals_;
+        private final int errorsBefore_;
+        /** Indices of the proposals that need to be evaluated. */
+        private final ConcurrentLinkedQueue <Integer> pendingProposals_;
+        /** Indices of the proposals that cannot be resolved on a replica. */
+        private final ConcurrentLinkedQueue <Integer> unresolvedProposals_;
+        /** Remaining compilation errors for each proposal. */
+        private final Squiggly [][] errorsAfter_;
+        /** Files touched by each proposal, <code>null</code> if unknown. */
+        private final IFile [][] touchedFiles_;
+        /** Files that the touched files of each proposal depend on, <code>null</code> if unknown. */
+        private final ArrayList <Set <IPath>> referencedFiles_;
+        /** <code>true</code> for the proposals that are evaluated in this batch (i.e., not retrieved from the cache). */
+        private final boolean [] evaluated_;
+        /**
+         * Indices of the proposals that are deferred to the end of the round since they exceed their time budget. <br>
+         * Only accessed by the calculator thread.
+         */
+        private final ArrayList <Integer> deferredProposals_;
+        private final ReentrantLock lock_;
+
+        private ProposalBatch(Squiggly shadowCompilationError, IJavaCompletionProposal [] shadowProposals,
+                int errorsBefore)
+        {
+            shadowCompilationError_ = shadowCompilationError;
+            shadowProposals_ = shadowProposals;
+            errorsBefore_ = errorsBefore;
+            pendingProposals_ = new ConcurrentLinkedQueue <Integer>();
+            unresolvedProposals_ = new ConcurrentLinkedQueue <Integer>();
+            errorsAfter_ = new Squiggly [shadowProposals.length][];
+            touchedFiles_ = new IFile [shadowProposals.length][];
+            referencedFiles_ = new ArrayList <Set <IPath>>();
+            for (int a = 0; a < shadowProposals.length; a++)
+                referencedFiles_.add(null);
+            evaluated_ = new boolean [shadowProposals.length];
+            deferredProposals_ = new ArrayList <Integer>();
+            lock_ = new ReentrantLock();
+        }
+
+        /**
+         * Records the result of the evaluated proposal at the given index. <br>
+         * This method is protected by {@link #lock_}.
+         */
+        private void setResult(int index, Squiggly [] errorsAfter, IFile [] touchedFiles, Set <IPath> referencedFiles)
+        {
+            lock_.lock();
+            errorsAfter_[index] = errorsAfter;
+            touchedFiles_[index] = touchedFiles;
+            referencedFiles_.set(index, referencedFiles);
+            evaluated_[index] = true;
+            lock_.unlock();
+        }
+
+        /**
+         * Returns a copy of the remaining compilation errors of the proposals that are evaluated so far. <br>
+         * This method is protected by {@link #lock_}.
+         */
+        private Squiggly [][] copyErrorsAfter()
+        {
+            lock_.lock();
+            Squiggly [][] result = errorsAfter_.clone();
+            lock_.unlock();
+            return result;
+        }
+    }
+
+    /**
+     * A group of proposals that are evaluated together. At most one proposal of each compilation error is added to a
+     * group, and the affected files of the proposals in a group are pairwise disjoint.
+     */
+    private static class ProposalGroup
+    {
+        private final ArrayList <ProposalBatch> batches_ = new ArrayList <ProposalBatch>();
+        private final ArrayList <Integer> indices_ = new ArrayList <Integer>();
+        private final ArrayList <ProposalEvaluator.GroupMember> members_ = new ArrayList <ProposalEvaluator.GroupMember>();
+        /** Union of the affected files of the members. */
+        private final Set <IPath> affectedFiles_ = new HashSet <IPath>();
+
+        private boolean accepts(ProposalBatch batch, ProposalEvaluator.GroupMember member)
+        {
+            return members_.size() < MAX_GROUP_SIZE && !batches_.contains(batch) && member.isDisjoint(affectedFiles_);
+        }
+
+        private void add(ProposalBatch batch, Integer index, ProposalEvaluator.GroupMember member)
+        {
+            batches_.add(batch);
+            indices_.add(index);
+            members_.add(member);
+            affectedFiles_.addAll(member.getAffectedFiles());
+        }
+    }
+
+    /**
+     * A pending proposal that might be added to a proposal group. Its group member is computed the first time it is
+     * considered for a group, <code>null</code> until then.
+     */
+    private static class GroupCandidate
+    {
+        private final ProposalBatch batch_;
+        private final Integer index_;
+        private ProposalEvaluator.GroupMember member_;
+
+        private GroupCandidate(ProposalBatch batch, Integer index)
+        {
+            batch_ = batch;
+            index_ = index;
+            member_ = null;
+        }
+    }
+
+    /**
+     * An evaluation thread evaluates pending proposals on a replica of the shadow pool, concurrently with the
+     * calculator thread.
+     */
+    private class EvaluationThread extends Thread
+    {
+        private final ProposalEvaluator evaluator_;
+        private final ProposalBatch batch_;
+        private volatile InvalidatedException invalidatedException_ = null;
+
+        private EvaluationThread(ProposalEvaluator evaluator, ProposalBatch batch)
+        {
+            super("Speculation Evaluator (" + evaluator.getShadowProject().getName() + ")");
+            setPriority(Thread.MIN_PRIORITY);
+            evaluator_ = evaluator;
+            batch_ = batch;
+        }
+
+        public void run()
+        {
+            try
+            {
+                evaluatePendingProposals(evaluator_, batch_, batch_.pendingProposals_);
+            }
+            catch (InvalidatedException e)
+            {
+                invalidatedException_ = e;
+            }
+            catch (Exception e)
+            {
+                logger.log(Level.SEVERE, "During speculative analysis on shadow = "
+                        + evaluator_.getShadowProject().getName() + ", an exception occurred.", e);
+            }
+        }
+
+        private InvalidatedException getInvalidatedException()
+        {
+            return invalidatedException_;
         }
     }
 
@@ -618,109 +1410,6 @@ public class SpeculationCalculator extends MortalThread implements ProjectModifi
 //        return proposalConverter_.convert(shadowProposals, shadowLocation);
 //    }
 
-    // returns the remaining compilation errors after the proposal is applied to the project.
-    private Squiggly [] processProposal(IJavaCompletionProposal shadowProposal) throws InvalidatedException
-    {
-        if (activationRecord_.isInvalid() || isDead())
-            throw new InvalidatedException();
-        if (SpeculationUtility.isFlaggedProposal(shadowProposal))
-//            return new Squiggly[1];
-            return Squiggly.NOT_COMPUTED;
-        if (SpeculationUtility.isInteractiveProposal(shadowProposal))
-//            return new Squiggly[1];
-            return Squiggly.NOT_COMPUTED;
-        
-        Squiggly [] errors = Squiggly.UNKNOWN;
-        if (shadowProposal instanceof ChangeCorrectionProposal)
-        {
-            ChangeCorrectionProposal shadowChangeCorrection = (ChangeCorrectionProposal) shadowProposal;
-            logger.fine("For change correction = " + shadowChangeCorrection.getDisplayString()
-                    + ", shadowProposal.class() = " + shadowProposal.getClass());
-            Change shadowChange = null;
-            try
-            {
-                shadowChange = shadowChangeCorrection.getChange();
-                Pair <Change, Squiggly []> result = applyChange(shadowChange);
-                Change undo = result.getValue1();
-                errors = result.getValue2();
-                boolean success = applyUndo(undo);
-                if (!success)
-                {
-                    logger.warning("Exception raised while trying to apply undo... Re-syncing the projects...");
-                    logger.warning("change.getClass() = " + shadowChange.getClass());
-                    syncProjects();
-                }
-            }
-            catch (Exception e)
-            {
-                logger.log(
-                        Level.SEVERE,
-                        "Cannot get change for proposal due to internal exception: "
-                                + shadowProposal.getDisplayString(), e);
-                logger.severe("Re-syncing projects...");
-                syncProjects();
-            }
-        }
-        else if (shadowProposal instanceof LinkedNamesAssistProposal)
-        {
-            // This is Rename field ...
-            logger.info("Proposal: " + shadowProposal.getDisplayString()
-                    + " is not a ChangeCorrectionProposal. Proposal.class = " + shadowProposal.getClass());
-        }
-        else
-            logger.warning("Proposal: " + shadowProposal.getDisplayString()
-                    + " is not a ChangeCorrectionProposal. Proposal.class = " + shadowProposal.getClass());
-        return errors;
-    }
-
-    private Pair <Change, Squiggly []> applyChange(Change shadowChange)
-    {
-        if (shadowChange == null)
-            return null;
-        Change undo = null;
-        Squiggly [] errors = Squiggly.UNKNOWN;
-        logger.finer("change.getClass() = " + shadowChange.getClass());
-        logger.finer("change.getModifiedElement() = " + shadowChange.getModifiedElement());
-        logger.finest("change.isEnabled() = " + shadowChange.isEnabled());
-        try
-        {
-            /*
-             * Problem: If I build the project before actually saving it, the markers are not generated correctly... The
-             * changed files buffer should be saved! Weird but true...
-             */
-            logger.fine("Performing change...");
-            undo = performChangeAndSave(shadowChange);
-            logger.fine("Performed change...");
-            buildShadowProject();
-            errors = getShadowCEs();
-            logger.fine("Number of compilation errors = " + errors.length);
-        }
-        catch (CoreException e)
-        {
-            logger.log(Level.SEVERE, "Cannot perform change!", e);
-        }
-        return new Pair <Change, Squiggly []>(undo, errors);
-    }
-
-    private boolean applyUndo(Change undo)
-    {
-        boolean result = true;
-        try
-        {
-            logger.fine("Performing undo...");
-            performChangeAndSave(undo);
-            buildShadowProject();
-        }
-        catch (CoreException e)
-        {
-            // This should not happen if I check the compilation errors correctly and the projects
-            // are in sync.
-            logger.log(Level.SEVERE, "Cannot perform undo!", e);
-            result = false;
-        }
-        return result;
-    }
-
     public boolean isSynched()
     {
         // Both sub-calls are thread safe.
@@ -732,6 +1421,7 @@ public class SpeculationCalculator extends MortalThread implements ProjectModifi
         kill();
         logger.finer("Killed the calculator.");
         activationRecord_.activate();
+        resume();
         logger.finer("Notified the calculator.");
         try
         {
@@ -763,7 +1453,9 @@ public class SpeculationCalculator extends MortalThread implements ProjectModifi
         // will be eventually called and we will be re-activated again.
         
         // invalidate current calculation.
-        QuickFixDialogCoordinator.getCoordinator().clear();
+        if (!isPaused())
+            // The dialogs belong to the active project, a paused calculator must not touch them.
+            QuickFixDialogCoordinator.getCoordinator().clear();
     }
 
     @Override
@@ -777,6 +1469,16 @@ public class SpeculationCalculator extends MortalThread implements ProjectModifi
         speculativeAnalysisListenersLock_.unlock();
     }
 
+    @Override
+    public void signalProposalEvaluated(AugmentedCompletionProposal proposal)
+    {
+        speculativeAnalysisListenersLock_.lock();
+        processRemoveList();
+        for (SpeculativeAnalysisListener listener: speculativeAnalysisListeners_)
+            listener.proposalEvaluated(proposal);
+        speculativeAnalysisListenersLock_.unlock();
+    }
+
     @Override
     public void signalSpeculativeAnalysisStart()
     {
@@ -832,59 +1534,6 @@ public class SpeculationCalculator extends MortalThread implements ProjectModifi
             speculativeAnalysisListeners_.remove(listener);
     }
 
-    private class CompilationErrorComparator implements Comparator <Squiggly>
-    {
-        private final String currentFilePath_;
-        private final int cursorOffset_;
-        
-        private CompilationErrorComparator()
-        {
-            cursorOffset_ = currentCursorOffset_;
-            IFile currentFile = currentFile_;
-            if (currentFile != null)
-                currentFilePath_ = currentFile.getProjectRelativePath().toString();
-            else
-                currentFilePath_ = null;
-        }
-
-        @Override
-        public int compare(Squiggly error1, Squiggly error2)
-        {
-            String path1 = error1.getResource().getProjectRelativePath().toString();
-            String path2 = error2.getResource().getProjectRelativePath().toString();
-            if (currentFilePath_ != null)
-            {
-                if (currentFilePath_.equals(path1))
-                {
-                    if (currentFilePath_.equals(path2))
-                    {
-                        // Both compilation errors are on the current editor file. We need to compare the offsets.
-                        int offset1 = error1.getLocation().getOffset();
-                        int offset2 = error2.getLocation().getOffset();
-                        
-                        int diff1 = Math.abs(cursorOffset_ - offset1);
-                        int diff2 = Math.abs(cursorOffset_ - offset2);
-                        
-                        return diff1 - diff2;
-                    }
-                    // The first compilation error is on the current editor file whereas the second one is not.
-                    // So, we process the first one earlier.
-                    else
-                        return -1;
-                }
-                // The second compilation error is on the current editor file whereas the first one is not.
-                // So, we process the second one earlier.
-                else if (currentFilePath_.equals(path2))
-                    return 1;
-                else
-                    return 0;
-            }
-            // There is no selected file in the Eclipse editor, so all compilation errors are equal.
-            else
-                return 0;
-        }
-    }
-
     /*********************
      * GETTERS & SETTERS *
      ********************/
@@ -898,12 +1547,93 @@ public class SpeculationCalculator extends MortalThread implements ProjectModifi
      */
     public void setCurrentFile(IFile file)
     {
-        currentFile_ = file;
+        scheduler_.setCurrentFile(file);
     }
     
+    /**
+     * Pauses 'this' (e.g., when the user switches to a file from another project). <br>
+     * The results of the last speculative analysis round are kept. If a round is in progress, it is invalidated so
+     * that it is redone once 'this' is resumed.
+     */
+    public void pause()
+    {
+        synchronized (pauseCondition_)
+        {
+            paused_ = true;
+        }
+        if (!super.isSynched())
+            activationRecord_.invalidate();
+        logger.info("Paused the calculator for project = " + synchronizer_.getProject().getName());
+    }
+
+    /**
+     * Resumes 'this' after a {@link #pause()}. <br>
+     * A new speculative analysis round starts only if the project is modified (or the last round is invalidated) while
+     * 'this' was paused.
+     */
+    public void resume()
+    {
+        synchronized (pauseCondition_)
+        {
+            paused_ = false;
+            pauseCondition_.notifyAll();
+        }
+    }
+
+    public boolean isPaused()
+    {
+        synchronized (pauseCondition_)
+        {
+            return paused_;
+        }
+    }
+
     public void setCursorOffset(int offset)
     {
-        currentCursorOffset_ = offset;
+        scheduler_.setCursorOffset(offset);
+        // The user is likely to invoke a quick fix when the cursor moves onto a compilation error.
+        if (isCursorOnCompilationError())
+            getTaskWorker().expediteTypingSessionSignal();
+    }
+
+    private boolean isCursorOnCompilationError()
+    {
+        Squiggly [] compilationErrors;
+        synchronized (this)
+        {
+            compilationErrors = shadowCompilationErrors_;
+        }
+        if (compilationErrors == null)
+            return false;
+        for (Squiggly compilationError: compilationErrors)
+        {
+            if (scheduler_.isUnderCursor(compilationError))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Makes the compilation errors at the given locations the most urgent ones for the speculative analysis. <br>
+     * If the calculator is processing a less urgent compilation error, it is preempted after the proposal that is being
+     * evaluated. <br>
+     * Called by the {@link SpeculationGrabber}s that wait for the results of a quick fix popup.
+     * 
+     * @param locations The locations of the compilation errors that a quick fix popup is waiting for.
+     */
+    public void prioritize(IProblemLocation [] locations)
+    {
+        scheduler_.prioritize(locations);
+    }
+
+    /**
+     * Reverts {@link #prioritize(IProblemLocation[])} for the given locations (e.g., when the quick fix popup is closed).
+     * 
+     * @param locations The locations that were prioritized.
+     */
+    public void deprioritize(IProblemLocation [] locations)
+    {
+        scheduler_.deprioritize(locations);
     }
 
     /**
@@ -977,6 +1707,27 @@ public class SpeculationCalculator extends MortalThread implements ProjectModifi
             AugmentedCompletionProposal [] shadowCalculatedProposals)
     {
         speculativeProposalsMap_.put(shadowCompilationError, shadowCalculatedProposals);
+        partialProposalsMap_.remove(shadowCompilationError);
+    }
+
+    /**
+     * Returns the results of the proposals of the given compilation error that are evaluated so far, or
+     * <code>null</code> if there are none. The proposals that are not evaluated yet are marked as
+     * {@link Squiggly#NOT_COMPUTED}. <br>
+     * Partial results are only available for the compilation errors that are prioritized by
+     * {@link #prioritize(IProblemLocation[])} and not completed yet.
+     * 
+     * @param shadowCompilationError The compilation error.
+     * @return The partial results for the given compilation error, or <code>null</code>.
+     */
+    public AugmentedCompletionProposal [] getPartialProposals(Squiggly shadowCompilationError)
+    {
+        if (activationRecord_.isInvalid())
+            return null;
+        synchronized(this)
+        {
+            return partialProposalsMap_.get(shadowCompilationError);
+        }
     }
 
     /**
@@ -989,6 +1740,7 @@ public class SpeculationCalculator extends MortalThread implements ProjectModifi
     private synchronized void clearSpeculativeProposalsMap()
     {
         speculativeProposalsMap_.clear();
+        partialProposalsMap_.clear();
     }
 
     /**
@@ -1074,6 +1826,26 @@ public class SpeculationCalculator extends MortalThread implements ProjectModifi
         return result;
     }
 
+    /**
+     * Returns the number of proposals whose results are retrieved from the result cache so far.
+     * 
+     * @return The number of result cache hits.
+     */
+    public long getResultCacheHits()
+    {
+        return resultCache_.getHits();
+    }
+
+    /**
+     * Returns the number of proposals that are looked up in the result cache but needed to be evaluated so far.
+     * 
+     * @return The number of result cache misses.
+     */
+    public long getResultCacheMisses()
+    {
+        return resultCache_.getMisses();
+    }
+
     public Date getLocalSpeculationCompletionTime()
     {
         Date result;
@@ -1109,9 +1881,39 @@ public class SpeculationCalculator extends MortalThread implements ProjectModifi
         return QuickFixUtility.computeQuickFix(shadowCE);
     }
 
-    private Change performChangeAndSave(Change shadowChange) throws CoreException
+    /**
+     * Returns the proposals offered for the given compilation error. <br>
+     * If the same compilation error existed in the previous round and the results of all its proposals are still
+     * valid, the proposals of the previous round are reused instead of computing the quick fixes again.
+     * 
+     * @param shadowCE The compilation error in the shadow project.
+     * @return The proposals offered for the given compilation error.
+     * @throws Exception If the quick fixes cannot be computed.
+     */
+    private IJavaCompletionProposal [] getShadowProposals(Squiggly shadowCE) throws Exception
     {
-        return SpeculationUtility.performChangeAndSave(shadowChange);
+        IPath path = shadowCE.getResource().getProjectRelativePath();
+        Squiggly previousCE = null;
+        for (Squiggly candidate: previousShadowProposalsMap_.keySet())
+        {
+            if (path.equals(candidate.getResource().getProjectRelativePath())
+                    && SpeculationUtility.sameProblemLocationContent(candidate.getLocation(), shadowCE.getLocation()))
+            {
+                previousCE = candidate;
+                break;
+            }
+        }
+        if (previousCE != null)
+        {
+            IJavaCompletionProposal [] previousProposals = previousShadowProposalsMap_.remove(previousCE);
+            if (previousProposals != null && resultCache_.containsAll(shadowCE, previousProposals))
+            {
+                logger.info("Reusing " + previousProposals.length + " proposal(s) of the previous round for: "
+                        + shadowCE);
+                return previousProposals;
+            }
+        }
+        return computeShadowProposals(shadowCE);
     }
 
     private void syncProjects()
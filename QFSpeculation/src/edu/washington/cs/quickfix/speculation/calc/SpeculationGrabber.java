@@ -21,6 +21,7 @@ import edu.washington.cs.quickfix.speculation.gui.SpeculationPreferencePage;
 import edu.washington.cs.quickfix.speculation.hack.QuickFixDialogCoordinator;
 import edu.washington.cs.quickfix.speculation.model.SpeculationUtility;
 import edu.washington.cs.synchronization.ProjectSynchronizer;
+import edu.washington.cs.synchronization.SynchronizerExecutor;
 import edu.washington.cs.util.eclipse.QuickFixUtility;
 import edu.washington.cs.util.eclipse.model.Squiggly;
 
@@ -93,6 +94,8 @@ public class SpeculationGrabber extends Thread implements SpeculativeAnalysisLis
         {
             QuickFixDialogCoordinator.getCoordinator().addQFPopupListener(this);
             calculator_.addListener(this);
+            // Let the calculator process the compilation errors that the user is waiting for first.
+            calculator_.prioritize(locations_);
         }
         attemptToRetrieveResults();
     }
@@ -146,7 +149,8 @@ public class SpeculationGrabber extends Thread implements SpeculativeAnalysisLis
      * This might be related to QFSpeculationCalculator.
      */
     // @formatter:on
-    private void attemptToRetrieveResults()
+    // Synchronized so that the concurrent attempts do not overwrite newer partial results with older ones.
+    private synchronized void attemptToRetrieveResults()
     {
         if (cachedCompilationErrors_ == null)
         {
@@ -160,12 +164,19 @@ public class SpeculationGrabber extends Thread implements SpeculativeAnalysisLis
         Map <Squiggly, IJavaCompletionProposal []> problemLocationToProposalMap = calculator_.getProposalsMap();
         Map <Squiggly, AugmentedCompletionProposal []> problemLocationToCompilationErrorMap = calculator_
                 .getSpeculativeProposalsMap();
+        boolean completed = true;
         for (Squiggly compilationError: cachedCompilationErrors_)
         {
             IJavaCompletionProposal [] proposals = problemLocationToProposalMap.get(compilationError);
             AugmentedCompletionProposal [] augmentedProposals = problemLocationToCompilationErrorMap
                     .get(compilationError);
             if (augmentedProposals == null)
+            {
+                // The proposals of this location might be evaluated right now, show the ones that are ready.
+                augmentedProposals = calculator_.getPartialProposals(compilationError);
+                completed = false;
+            }
+            if (augmentedProposals == null || proposals == null)
             {
                 /*
                  * If resultMap does not contain the searched location, we should wait for the calculation to advance.
@@ -185,9 +196,10 @@ public class SpeculationGrabber extends Thread implements SpeculativeAnalysisLis
                     calculatedProposals.add(augmentedProposals[a]);
             }
         }
-        calculator_.removeListener(this);
+        if (completed)
+            calculator_.removeListener(this);
         logger.info("For the clicked quick fix, there are: " + calculatedProposals.size()
-                + " proposals calculated in advance.");
+                + " proposals calculated in advance" + (completed ? "." : " so far."));
         for (int a = 0; a < calculatedProposals.size(); a++)
             logger.finer((a + 1) + "-) " + calculatedProposals.get(a).getDisplayString() + " will result with "
                     + calculatedProposals.get(a).getRemainingErrors().length + " compilation errors.");
@@ -210,13 +222,13 @@ public class SpeculationGrabber extends Thread implements SpeculativeAnalysisLis
     
     private void retrieveResultsConcurrently()
     {
-        new Thread()
+        SynchronizerExecutor.execute(new Runnable()
         {
             public void run()
             {
                 attemptToRetrieveResults();
             }
-        }.start();
+        });
     }
     
     @Override
@@ -226,6 +238,20 @@ public class SpeculationGrabber extends Thread implements SpeculativeAnalysisLis
 //        attemptToRetrieveResults();
     }
 
+    @Override
+    public void proposalEvaluated(AugmentedCompletionProposal proposal)
+    {
+        IProblemLocation location = proposal.getCompilationError().getLocation();
+        for (IProblemLocation loc: locations_)
+        {
+            if (SpeculationUtility.sameProblemLocationContent(location, loc))
+            {
+                QuickFixDialogCoordinator.getCoordinator().patchProposal(eclipseProposals_, proposal);
+                return;
+            }
+        }
+    }
+
     @Override
     public void speculativeAnalysisStarted()
     {
@@ -242,5 +268,6 @@ public class SpeculationGrabber extends Thread implements SpeculativeAnalysisLis
     public void popupClosed()
     {
         calculator_.removeListener(this);
+        calculator_.deprioritize(locations_);
     }
 }
@@ -131,7 +131,7 @@ public class AugmentedCompletionProposal implements Comparable <AugmentedComplet
 //        result = new Color(item.getDisplay(), 0, 150, 0);
 //        if (true)
 //        	return result;
-        if (errorsAfter_ == Squiggly.NOT_COMPUTED)
+        if (errorsAfter_ == Squiggly.NOT_COMPUTED || errorsAfter_ == Squiggly.TIMED_OUT)
             result = null;
         else if (errorsAfter_ == Squiggly.UNKNOWN)
             result = null;
@@ -474,7 +474,8 @@ public class AugmentedCompletionProposal implements Comparable <AugmentedComplet
     
     public boolean isResultAvaliable()
     {
-        return errorsAfter_ != Squiggly.NOT_COMPUTED && errorsAfter_ != Squiggly.UNKNOWN; 
+        return errorsAfter_ != Squiggly.NOT_COMPUTED && errorsAfter_ != Squiggly.UNKNOWN
+                && errorsAfter_ != Squiggly.TIMED_OUT; 
     }
     
     private String resolveErrorsAfter()
@@ -485,12 +486,16 @@ public class AugmentedCompletionProposal implements Comparable <AugmentedComplet
         else if (errorsAfter_ == Squiggly.NOT_COMPUTED)
 //            return "1";
             return "?";
+        else if (errorsAfter_ == Squiggly.TIMED_OUT)
+            return "timed out";
         
         return errorsAfter_.length + "";
     }
 
     public boolean canFix(Squiggly compilationError)
     {
+        if (errorsAfter_ == Squiggly.TIMED_OUT)
+            return false;
         for(Squiggly errorAfter: errorsAfter_)
         {
             // Here, I cannot use the exact offset information since after the application of the proposal, the line
@@ -4,6 +4,13 @@ public interface SpeculativeAnalysisListener
 {
     void speculativeAnalysisRoundCompleted();
 
+    /**
+     * Called when the result of a single proposal is computed, before the round of its compilation error completes.
+     * 
+     * @param proposal The evaluated proposal (in the shadow project).
+     */
+    void proposalEvaluated(AugmentedCompletionProposal proposal);
+
     void speculativeAnalysisStarted();
 
     void speculativeAnalysisCompleted();
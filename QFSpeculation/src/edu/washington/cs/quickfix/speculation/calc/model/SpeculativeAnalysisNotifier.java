@@ -4,6 +4,8 @@ public interface SpeculativeAnalysisNotifier
 {
     void signalSpeculativeAnalysisRoundComplete();
 
+    void signalProposalEvaluated(AugmentedCompletionProposal proposal);
+
     void signalSpeculativeAnalysisStart();
 
     void signalSpeculativeAnalysisComplete();
@@ -17,6 +17,8 @@ import org.eclipse.ui.IWorkbenchPreferencePage;
 
 import edu.washington.cs.quickfix.speculation.SpeculationStarter;
 import edu.washington.cs.quickfix.speculation.Speculator;
+import edu.washington.cs.synchronization.ProjectSynchronizer;
+import edu.washington.cs.synchronization.sync.task.internal.TypingSessionEstimator;
 import edu.washington.cs.util.eclipse.EclipseUIUtility;
 import edu.washington.cs.util.eclipse.PreferencePageUtility;
 import edu.washington.cs.util.eclipse.PreferencesUtility;
@@ -33,17 +35,23 @@ import edu.washington.cs.util.exception.NotInitializedException;
 public class SpeculationPreferencePage extends FieldEditorPreferencePage implements IWorkbenchPreferencePage
 {
     private IntegerFieldEditor typingSessionLengthField_;
+    private IntegerFieldEditor shadowPoolSizeField_;
     private Button speculationDisabledButton_;
     private Button speculationEnabledButton_;
     private Button speculationAugmentedButton_;
     private final PreferencesUtility preferences_;
     public static final String QF_SPECULATION_TYPING_SESSION_LENGTH = "QF Speculation Typing Session Time";
+    public static final String QF_SPECULATION_SHADOW_POOL_SIZE = "QF Speculation Shadow Pool Size";
     public static final String QF_SPECULATION_DISABLED = "QF Speculation Disabled";
     public static final String QF_SPECULATION_ENABLED = "QF Speculation Enabled";
     public static final String QF_SPECULATION_AUGMENTED = "QF Speculation Augmented";
     public static SpeculationPreferencePage instance_ = new SpeculationPreferencePage();
     
     private static final int DEFAULT_TYPING_SESSION_LENGTH = 2000;
+    // Only the primary shadow is used by default: replicas are opt-in until their speed-up is measured, since the
+    // builds of the shadow projects are serialized by the workspace.
+    private static final int DEFAULT_SHADOW_POOL_SIZE = 1;
+    private static final int MAX_SHADOW_POOL_SIZE = Math.max(1, Runtime.getRuntime().availableProcessors());
     
     private static final Logger logger = Logger.getLogger(SpeculationPreferencePage.class.getName());
 
@@ -65,6 +73,12 @@ public class SpeculationPreferencePage extends FieldEditorPreferencePage impleme
         return preferences_.get(QF_SPECULATION_TYPING_SESSION_LENGTH, DEFAULT_TYPING_SESSION_LENGTH);
     }
     
+    public int getShadowPoolSize()
+    {
+        int poolSize = preferences_.get(QF_SPECULATION_SHADOW_POOL_SIZE, DEFAULT_SHADOW_POOL_SIZE);
+        return Math.min(Math.max(poolSize, 1), MAX_SHADOW_POOL_SIZE);
+    }
+    
     public boolean isActivated()
     {
         return preferences_.getBoolean(QF_SPECULATION_AUGMENTED) || preferences_.getBoolean(QF_SPECULATION_ENABLED);
@@ -92,6 +106,7 @@ public class SpeculationPreferencePage extends FieldEditorPreferencePage impleme
     {
         super.performDefaults();
         typingSessionLengthField_.setStringValue(DEFAULT_TYPING_SESSION_LENGTH + "");
+        shadowPoolSizeField_.setStringValue(DEFAULT_SHADOW_POOL_SIZE + "");
         speculationDisabledButton_.setSelection(true);
         speculationEnabledButton_.setSelection(false);
         speculationAugmentedButton_.setSelection(false);
@@ -110,6 +125,7 @@ public class SpeculationPreferencePage extends FieldEditorPreferencePage impleme
         boolean result = super.performOk();
         saveChanges();
         Speculator.getSpeculator().updateTypingSessionTime(getTypingSessionLength());
+        Speculator.getSpeculator().updateShadowPoolSize(getShadowPoolSize());
         if (wasActivated && !isActivated)
             // plug-in is deactivated, kill the current speculative analysis.
             Speculator.getSpeculator().stopSpeculation();
@@ -164,16 +180,49 @@ public class SpeculationPreferencePage extends FieldEditorPreferencePage impleme
         PreferencePageUtility.makeControlVisible(activationGroup);
         // Install typing session field.
         typingSessionLengthField_ = new IntegerFieldEditor("Typing session field editor",
-                "Pause Before Computation (in ms):", getFieldEditorParent());
+                "Maximum Pause Before Computation (in ms):", getFieldEditorParent());
         installIntegerFieldEditor(typingSessionLengthField_, QF_SPECULATION_TYPING_SESSION_LENGTH, 1,
                 Integer.MAX_VALUE, "Typing session length must be a positive integer.");
+        // Install typing session statistics.
+        Group typingSessionGroup = PreferencePageUtility.createVerticalGroup(getFieldEditorParent(), "Adaptive Pause Statistics");
+        PreferencePageUtility.createLabel(typingSessionGroup, describeTypingSession());
+        PreferencePageUtility.makeControlVisible(typingSessionGroup);
+        // Install shadow pool size field.
+        shadowPoolSizeField_ = new IntegerFieldEditor("Shadow pool size field editor",
+                "Number of Shadow Projects Used in Parallel:", getFieldEditorParent());
+        installIntegerFieldEditor(shadowPoolSizeField_, QF_SPECULATION_SHADOW_POOL_SIZE, 1, MAX_SHADOW_POOL_SIZE,
+                "Shadow pool size must be between 1 and " + MAX_SHADOW_POOL_SIZE + ".");
         
         loadInitialValues();
     }
     
+    /**
+     * Returns a description of the adaptive pause before computation (i.e., the typing session length that is actually
+     * used, which is at most the one set by the user) and the statistics it is computed from.
+     */
+    private String describeTypingSession()
+    {
+        ProjectSynchronizer synchronizer = Speculator.getSpeculator().getCurrentSynchronizer();
+        if (synchronizer == null)
+            return "Not available until the speculative analysis starts.";
+        TypingSessionEstimator estimator = synchronizer.getTaskWorker().getTypingSessionEstimator();
+        String ls = System.getProperty("line.separator");
+        StringBuilder result = new StringBuilder();
+        result.append("Current pause before computation: " + estimator.getEffectiveDelay() + " ms" + ls);
+        if (estimator.getPercentile(50) == -1)
+            result.append("Not enough keystrokes observed yet (" + estimator.getSampleCount() + ").");
+        else
+            result.append("Time between keystrokes (" + estimator.getSampleCount() + " samples): median = "
+                    + estimator.getPercentile(50) + " ms, 90th percentile = " + estimator.getPercentile(90)
+                    + " ms, 99th percentile = " + estimator.getPercentile(99) + " ms");
+        result.append(ls + "Last speculative analysis round: " + estimator.getRoundCost() + " ms");
+        return result.toString();
+    }
+    
     private void loadInitialValues()
     {
         typingSessionLengthField_.setStringValue(preferences_.get(QF_SPECULATION_TYPING_SESSION_LENGTH, DEFAULT_TYPING_SESSION_LENGTH) + "");
+        shadowPoolSizeField_.setStringValue(getShadowPoolSize() + "");
         speculationDisabledButton_.setSelection(preferences_.get(QF_SPECULATION_DISABLED, true));
         speculationEnabledButton_.setSelection(preferences_.getBoolean(QF_SPECULATION_ENABLED));
         speculationAugmentedButton_.setSelection(preferences_.getBoolean(QF_SPECULATION_AUGMENTED));
@@ -197,6 +246,7 @@ public class SpeculationPreferencePage extends FieldEditorPreferencePage impleme
     private void saveChanges()
     {
       preferences_.put(QF_SPECULATION_TYPING_SESSION_LENGTH, typingSessionLengthField_.getIntValue());
+      preferences_.put(QF_SPECULATION_SHADOW_POOL_SIZE, shadowPoolSizeField_.getIntValue());
       preferences_.put(QF_SPECULATION_AUGMENTED, speculationAugmentedButton_.getSelection());
       preferences_.put(QF_SPECULATION_ENABLED, speculationEnabledButton_.getSelection());
       preferences_.put(QF_SPECULATION_DISABLED, speculationDisabledButton_.getSelection());
@@ -212,7 +262,15 @@ public class SpeculationPreferencePage extends FieldEditorPreferencePage impleme
         }
         catch (NumberFormatException e)
         {}
-        if (typingSessionLength > 0)
+        int shadowPoolSize = Integer.MIN_VALUE;
+        try
+        {
+            shadowPoolSize = shadowPoolSizeField_.getIntValue();
+        }
+        catch (NumberFormatException e)
+        {}
+        boolean validPoolSize = shadowPoolSize >= 1 && shadowPoolSize <= MAX_SHADOW_POOL_SIZE;
+        if (typingSessionLength > 0 && validPoolSize)
             // Spawn a thread and change the main project that we are speculating on.
             return true;
         else
@@ -222,6 +280,8 @@ public class SpeculationPreferencePage extends FieldEditorPreferencePage impleme
                 errorMessage += "Typing session length must be a positive integer value.\n";
             else if (typingSessionLength <= 0)
                 errorMessage += "Typing session length must be positive.\n";
+            if (!validPoolSize)
+                errorMessage += "Shadow pool size must be between 1 and " + MAX_SHADOW_POOL_SIZE + ".\n";
             errorMessage = errorMessage.substring(0, errorMessage.length() - 1);
             setErrorMessage(errorMessage);
             return false;
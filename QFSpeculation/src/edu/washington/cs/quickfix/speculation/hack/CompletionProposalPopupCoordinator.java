@@ -3,6 +3,7 @@ package edu.washington.cs.quickfix.speculation.hack;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -28,6 +29,8 @@ import edu.washington.cs.util.log.CommonLoggers;
 public class CompletionProposalPopupCoordinator
 {
     private static final CompletionProposalPopupCoordinator instance_ = new CompletionProposalPopupCoordinator();
+    // Minimum delay (in milliseconds) between two patches of the proposal table, i.e., roughly one frame.
+    private static final int PATCH_INTERVAL = 16;
 
     private static final Logger logger = Logger.getLogger(CompletionProposalPopupCoordinator.class.getName());
     static
@@ -45,6 +48,18 @@ public class CompletionProposalPopupCoordinator
     private ArrayList <AugmentedCompletionProposal> localProposals_;
     
     private Object lock_ = new Object();
+    // Proposals whose table items wait to be patched, keyed by display string. Protected by lock_.
+    private LinkedHashMap <String, AugmentedCompletionProposal> pendingPatches_ = new LinkedHashMap <String, AugmentedCompletionProposal>();
+    // true if a patch is already scheduled in the UI thread. Protected by lock_.
+    private boolean patchScheduled_ = false;
+    private final Runnable patchRunnable_ = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            patchProposalTableInternal();
+        }
+    };
 
     // singleton
     private CompletionProposalPopupCoordinator() {}
@@ -71,6 +86,91 @@ public class CompletionProposalPopupCoordinator
         updateProposalTableInternalInUIThread();
     }
 
+    /*
+     * Updates the table item of the given (local) proposal in place, instead of rebuilding the whole table.
+     * The patches are coalesced: the proposals that arrive while a patch is scheduled are applied together
+     * (at most one patch per frame), and only the most recent result of a proposal is applied.
+     * The table is not re-ordered here, this is done by the next updatePopup().
+     */
+    void patchProposal(AugmentedCompletionProposal localProposal)
+    {
+        if (!isCurrentPopupActive())
+            return;
+        try
+        {
+            localProposal.cacheDisplayFields();
+        }
+        catch (CoreException e)
+        {
+            logger.log(Level.FINE, "Cannot compute the display fields for proposal = "
+                    + localProposal.getDisplayString(), e);
+            return;
+        }
+        boolean schedule;
+        synchronized(lock_)
+        {
+            pendingPatches_.put(localProposal.getDisplayString(), localProposal);
+            schedule = !patchScheduled_;
+            patchScheduled_ = true;
+        }
+        if (schedule)
+        {
+            Display.getDefault().asyncExec(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    // timerExec can only be called from the UI thread.
+                    Display.getCurrent().timerExec(PATCH_INTERVAL, patchRunnable_);
+                }
+            });
+        }
+    }
+
+    // Must run in Eclipse UI thread (due to the access on TableItem).
+    private void patchProposalTableInternal()
+    {
+        LinkedHashMap <String, AugmentedCompletionProposal> patches;
+        Table table;
+        HashSet <String> globalBestDisplayStrings = new HashSet <String>();
+        synchronized(lock_)
+        {
+            patches = pendingPatches_;
+            pendingPatches_ = new LinkedHashMap <String, AugmentedCompletionProposal>();
+            patchScheduled_ = false;
+            table = table_;
+            if (globalBestProposals_ != null)
+            {
+                for (AugmentedCompletionProposal globalBestProposal: globalBestProposals_)
+                    globalBestDisplayStrings.add(globalBestProposal.getDisplayString());
+            }
+        }
+        if (patches.isEmpty() || table == null || table.isDisposed() || !isCurrentPopupActive())
+            return;
+        for (TableItem item: table.getItems())
+        {
+            Object data = item.getData();
+            if (!(data instanceof ICompletionProposal))
+                continue;
+            String displayString = ((ICompletionProposal) data).getDisplayString();
+            // Global best proposals that share the display string belong to another compilation error.
+            if (globalBestDisplayStrings.contains(displayString))
+                continue;
+            AugmentedCompletionProposal patch = patches.get(displayString);
+            if (patch == null)
+                continue;
+            try
+            {
+                patch.setYourselfAsTableItem(item);
+            }
+            catch (CoreException e)
+            {
+                // Display fields are cached before the patch is scheduled, so this should not happen.
+                logger.log(Level.FINE, "Cannot patch the table item for proposal = " + displayString, e);
+            }
+        }
+    }
+
     private void computeTableValues(HashSet <String> addedProposals, ArrayList <AugmentedCompletionProposal> globalBestProposals,
             ArrayList <AugmentedCompletionProposal> localProposals, ArrayList <ICompletionProposal> tableProposals)
     {
@@ -355,6 +455,7 @@ public class CompletionProposalPopupCoordinator
         {
             localProposals_ = null;
             globalBestProposals_ = null;
+            pendingPatches_.clear();
             table_ = null;
             popup_ = null;
         }
@@ -191,6 +191,39 @@ public class QuickFixDialogCoordinator implements QFPopupNotifier
             logger.finer(compilationError.toString());
         update();
     }
+
+    /**
+     * Updates the row of a single evaluated proposal in the quick fix popup, without rebuilding the table. <br>
+     * The hover and the ordering of the popup are updated by the next
+     * {@link #updateWithSpeculationResults(IJavaCompletionProposal[], AugmentedCompletionProposal[], Squiggly[])}.
+     * 
+     * @param eclipseProposals The proposals that Eclipse offers for the invoked quick fix.
+     * @param calculatedProposal The evaluated proposal (in the shadow project).
+     */
+    public void patchProposal(IJavaCompletionProposal [] eclipseProposals,
+            AugmentedCompletionProposal calculatedProposal)
+    {
+        Boolean augmented = SpeculationPreferencePage.getInstance().isAugmentationActivated();
+        if (augmented == null || !augmented || eclipseProposals == null)
+            return;
+        ICompletionProposal eclipseProposal = findEclipseProposal(eclipseProposals, calculatedProposal);
+        if (eclipseProposal == null)
+            return;
+        completionProposalPopupCoordinator_.patchProposal(new AugmentedCompletionProposal(eclipseProposal, null,
+                calculatedProposal.getRemainingErrors(), calculatedProposal.getErrorBefore()));
+    }
+
+    private ICompletionProposal findEclipseProposal(ICompletionProposal [] eclipseProposals,
+            AugmentedCompletionProposal calculatedProposal)
+    {
+        ICompletionProposal result = null;
+        for (ICompletionProposal eclipseProp: eclipseProposals)
+        {
+            if (eclipseProp.getDisplayString().equals(calculatedProposal.getDisplayString()))
+                result = eclipseProp;
+        }
+        return result;
+    }
     
     private void update()
     {
@@ -275,13 +308,7 @@ public class QuickFixDialogCoordinator implements QFPopupNotifier
             ICompletionProposal eclipseProposal = (SpeculationCalculator.TEST_TRANSFORMATION) ? calculatedProposal
                     .getProposal() : null;
             if (eclipseProposal == null)
-            {
-                for (ICompletionProposal eclipseProp: eclipseProposals)
-                {
-                    if (eclipseProp.getDisplayString().equals(calculatedProposal.getDisplayString()))
-                        eclipseProposal = eclipseProp;
-                }
-            }
+                eclipseProposal = findEclipseProposal(eclipseProposals, calculatedProposal);
             if (eclipseProposal == null)
             {
                 String ls = System.getProperty("line.separator");
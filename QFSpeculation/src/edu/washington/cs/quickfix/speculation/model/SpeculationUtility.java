@@ -123,12 +123,28 @@ public class SpeculationUtility
     }
     
     public static boolean sameProblemLocationContent(IProblemLocation location1, IProblemLocation location2)
+    {
+        return sameProblemLocationContent(location1, location1.getOffset(), location1.getLength(), location2);
+    }
+
+    /**
+     * Returns <code>true</code> if the given locations represent the same problem, assuming that the first location is
+     * moved to the given region (e.g., by the edits that are done after it is computed), <code>false</code> otherwise.
+     * 
+     * @param location1 The first location.
+     * @param offset1 The current offset of the first location.
+     * @param length1 The current length of the first location.
+     * @param location2 The second location.
+     * @return <code>true</code> if the given locations represent the same problem.
+     */
+    public static boolean sameProblemLocationContent(IProblemLocation location1, int offset1, int length1,
+            IProblemLocation location2)
     {
         if (location1.getProblemId() != location2.getProblemId())
             return false;
-        if (location1.getLength() != location2.getLength())
+        if (length1 != location2.getLength())
             return false;
-         if (location1.getOffset() != location2.getOffset())
+         if (offset1 != location2.getOffset())
              return false;
         String [] args1 = location1.getProblemArguments();
         String [] args2 = location2.getProblemArguments();
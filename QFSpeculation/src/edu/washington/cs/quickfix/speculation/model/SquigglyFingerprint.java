@@ -0,0 +1,70 @@
+package edu.washington.cs.quickfix.speculation.model;
+
+import java.util.Arrays;
+
+import org.eclipse.jdt.ui.text.java.IProblemLocation;
+
+import edu.washington.cs.util.eclipse.model.Squiggly;
+
+/**
+ * Squiggly fingerprint is a hashable summary of a compilation error: the file that contains it, its problem id, its
+ * problem arguments and its context (with the whitespace normalized). <br>
+ * Two compilation errors with different fingerprints are very unlikely to be the same compilation error, so the
+ * fingerprints are used to find the candidate matches of a compilation error without comparing it with all other
+ * compilation errors. The candidates still need to be confirmed with
+ * {@link SpeculationUtility#sameSquigglyContent(Squiggly, Squiggly)}.
+ *
+ * @author Kivanc Muslu
+ */
+public class SquigglyFingerprint
+{
+    private final String file_;
+    private final int problemId_;
+    private final String [] arguments_;
+    private final String context_;
+    private final int hashCode_;
+
+    /**
+     * Creates the fingerprint of the given compilation error.
+     *
+     * @param squiggly The compilation error.
+     * @param context Context of the compilation error (either its cached context or its current context).
+     */
+    public SquigglyFingerprint(Squiggly squiggly, String context)
+    {
+        file_ = squiggly.getResource() == null ? "" : squiggly.getResource().getProjectRelativePath().toString();
+        IProblemLocation location = squiggly.getLocation();
+        problemId_ = location == null ? -1 : location.getProblemId();
+        String [] arguments = location == null ? null : location.getProblemArguments();
+        arguments_ = arguments == null ? new String [0] : arguments;
+        context_ = context == null ? "" : context.trim().replaceAll("\\s+", " ");
+        int hashCode = file_.hashCode();
+        hashCode = 31 * hashCode + problemId_;
+        hashCode = 31 * hashCode + Arrays.hashCode(arguments_);
+        hashCode = 31 * hashCode + context_.hashCode();
+        hashCode_ = hashCode;
+    }
+
+    public int hashCode()
+    {
+        return hashCode_;
+    }
+
+    public boolean equals(Object other)
+    {
+        if (other instanceof SquigglyFingerprint)
+            return equals((SquigglyFingerprint) other);
+        return false;
+    }
+
+    public boolean equals(SquigglyFingerprint other)
+    {
+        return hashCode_ == other.hashCode_ && problemId_ == other.problemId_ && file_.equals(other.file_)
+                && context_.equals(other.context_) && Arrays.equals(arguments_, other.arguments_);
+    }
+
+    public String toString()
+    {
+        return "[SquigglyFingerprint: file = " + file_ + ", problem id = " + problemId_ + ", context = " + context_ + "]";
+    }
+}
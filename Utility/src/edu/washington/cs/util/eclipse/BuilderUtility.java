@@ -4,9 +4,7 @@ import java.util.ArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.eclipse.core.resources.IMarker;
 import org.eclipse.core.resources.IProject;
-import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IWorkspace;
 import org.eclipse.core.resources.IWorkspaceDescription;
 import org.eclipse.core.resources.IncrementalProjectBuilder;
@@ -14,7 +12,6 @@ import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.core.runtime.Platform;
-import org.eclipse.jdt.core.IJavaModelMarker;
 
 import edu.washington.cs.util.eclipse.model.Squiggly;
 
@@ -209,39 +206,16 @@ public class BuilderUtility
     }
 
     /**
-     * Retrieves the compilation errors and warnings for the given project.
+     * Retrieves the compilation errors and warnings for the given project. <br>
+     * The project must be built before calling this method. The markers are retrieved from the {@link MarkerIndex},
+     * which is updated with the marker deltas of each build, so only the changed markers are converted to new
+     * squigglies.
      * 
      * @param project The target project.
      * @return The compilation errors and warnings for the target project.
-     * @see #findJavaProblemMarkers(IProject)
      */
     private static Squiggly [] calculateSquigglies(IProject project)
     {
-        IMarker [] markers = findJavaProblemMarkers(project);
-        Squiggly [] result = new Squiggly [markers.length];
-        for (int a = 0; a < markers.length; a++)
-            result[a] = new Squiggly(markers[a]);
-        return result;
-    }
-
-    /**
-     * Returns the compilation errors and warnings for the given project. <br>
-     * The project must be built before calling this method. <br>
-     * 
-     * @param project The target project.
-     * @return The compilation errors and warnings for the target project.
-     */
-    private static IMarker [] findJavaProblemMarkers(IProject project)
-    {
-        IMarker [] markers = null;
-        try
-        {
-            markers = project.findMarkers(IJavaModelMarker.JAVA_MODEL_PROBLEM_MARKER, true, IResource.DEPTH_INFINITE);
-        }
-        catch (CoreException e)
-        {
-            logger.log(Level.SEVERE, "Cannot find java problem markers for project: " + project.getName(), e);
-        }
-        return markers;
+        return MarkerIndex.getIndex().getSquigglies(project);
     }
 }
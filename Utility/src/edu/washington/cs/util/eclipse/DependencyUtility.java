@@ -0,0 +1,321 @@
+package edu.washington.cs.util.eclipse;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IField;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.IMethod;
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jdt.core.search.IJavaSearchConstants;
+import org.eclipse.jdt.core.search.IJavaSearchScope;
+import org.eclipse.jdt.core.search.SearchEngine;
+import org.eclipse.jdt.core.search.SearchMatch;
+import org.eclipse.jdt.core.search.SearchParticipant;
+import org.eclipse.jdt.core.search.SearchPattern;
+import org.eclipse.jdt.core.search.SearchRequestor;
+
+/**
+ * This utility class provides static helper methods for computing the dependencies between the compilation units of a
+ * project. <br>
+ * A file depends on a compilation unit if it references one of the types (or the members of the types) declared in
+ * that compilation unit. The references are found using the JDT search engine, so the result is only as precise as the
+ * search index. <br>
+ * References to the types and members that are removed (or renamed) by a modification cannot be found through the
+ * declarations after the modification. Such references are found by name, using the declarations recorded before the
+ * modification (see {@link #getDeclarations(IFile)} and {@link #findDependentFiles(IProject, Collection, Map)}).
+ * <br>
+ * In the other direction, a compilation unit depends on the files that declare the types, methods and fields it
+ * references (see {@link #findReferencedFiles(ICompilationUnit)}).
+ *
+ * @author Kivanc Muslu
+ */
+public class DependencyUtility
+{
+    /** Logger for debugging. */
+    private static final Logger logger = Logger.getLogger(DependencyUtility.class.getName());
+    static
+    {
+        logger.setLevel(Level.INFO);
+    }
+
+    /**
+     * This class cannot be instantiated.
+     */
+    private DependencyUtility()
+    {}
+
+    /**************
+     * PUBLIC API *
+     *************/
+    /**
+     * Returns the given files together with the files of the given project that depend on them. <br>
+     * Returns <code>null</code> if the dependencies cannot be computed precisely, which happens if one of the given
+     * paths does not represent an existing file, if a java file on the class-path does not declare any types (e.g., it
+     * cannot be parsed), or if the search fails. The caller should assume that every file is affected in that case.
+     *
+     * @param project The project that contains the files.
+     * @param files Project relative paths of the files.
+     * @return The given files and the files that depend on them (as project relative paths), or <code>null</code>.
+     */
+    public static Set <IPath> findDependentFiles(IProject project, Collection <IPath> files)
+    {
+        return findDependentFiles(project, files, null);
+    }
+
+    /**
+     * Returns the given (modified) files together with the files of the given project that depend on them, either
+     * through their current declarations or through the declarations that the modifications removed. <br>
+     * Returns <code>null</code> if the dependencies cannot be computed precisely (see
+     * {@link #findDependentFiles(IProject, Collection)}), or if the declarations of a modified java file before the
+     * modification are unknown.
+     *
+     * @param project The project that contains the files.
+     * @param files Project relative paths of the modified files.
+     * @param previousDeclarations The declarations of the modified files before the modifications (see
+     *            {@link #getDeclarations(IFile)}), keyed by their project relative paths. <code>null</code> if the
+     *            removed declarations should not be searched.
+     * @return The given files and the files that depend on them (as project relative paths), or <code>null</code>.
+     */
+    public static Set <IPath> findDependentFiles(IProject project, Collection <IPath> files,
+            Map <IPath, Set <String>> previousDeclarations)
+    {
+        Set <IPath> result = new HashSet <IPath>(files);
+        ArrayList <SearchPattern> patterns = new ArrayList <SearchPattern>();
+        try
+        {
+            for (IPath path: files)
+            {
+                IFile file = project.getFile(path);
+                if (!file.exists())
+                {
+                    logger.fine("Cannot compute the dependents of " + path + " since it is not an existing file.");
+                    return null;
+                }
+                if (!ResourceUtility.isJavaLike(file) || !ResourceUtility.isOnClassPath(file))
+                {
+                    // Build path changes affect every file.
+                    if (path.lastSegment().startsWith("."))
+                        return null;
+                    continue;
+                }
+                ICompilationUnit unit = JavaCore.createCompilationUnitFrom(file);
+                IType [] types = unit == null ? new IType [0] : unit.getAllTypes();
+                if (types.length == 0)
+                {
+                    logger.fine("Cannot compute the dependents of " + path + " since it does not declare any types.");
+                    return null;
+                }
+                for (IType type: types)
+                    addReferencePatterns(type, patterns);
+                if (previousDeclarations != null)
+                {
+                    Set <String> previous = previousDeclarations.get(path);
+                    if (previous == null)
+                    {
+                        logger.fine("Cannot compute the dependents of " + path
+                                + " since its declarations before the modification are unknown.");
+                        return null;
+                    }
+                    Set <String> removed = new HashSet <String>(previous);
+                    removed.removeAll(getDeclarations(types));
+                    for (String declaration: removed)
+                        patterns.add(createRemovedDeclarationPattern(declaration));
+                }
+            }
+            if (!patterns.isEmpty())
+                result.addAll(searchReferences(project, patterns));
+        }
+        catch (CoreException e)
+        {
+            logger.log(Level.WARNING, "Cannot compute the dependents of files in project = " + project.getName(), e);
+            return null;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the files of the given compilation unit's project that declare the types, methods and fields referenced
+     * by the given compilation unit. <br>
+     * The compilation unit can be a working copy, in which case the references are computed on its (unsaved) contents.
+     * Declarations in binaries and in other projects are ignored. <br>
+     * Returns <code>null</code> if the search fails. The caller should assume that the compilation unit might depend on
+     * every file in that case.
+     *
+     * @param unit The compilation unit.
+     * @return The files that declare the elements referenced by the given compilation unit (as project relative paths),
+     *         or <code>null</code>.
+     */
+    public static Set <IPath> findReferencedFiles(ICompilationUnit unit)
+    {
+        final IProject project = unit.getJavaProject().getProject();
+        final Set <IPath> result = new HashSet <IPath>();
+        SearchRequestor requestor = new SearchRequestor()
+        {
+            @Override
+            public void acceptSearchMatch(SearchMatch match) throws CoreException
+            {
+                IResource resource = match.getResource();
+                if (resource != null && resource.getType() == IResource.FILE && project.equals(resource.getProject()))
+                    result.add(resource.getProjectRelativePath());
+            }
+        };
+        try
+        {
+            SearchEngine engine = new SearchEngine();
+            engine.searchDeclarationsOfReferencedTypes(unit, requestor, null);
+            engine.searchDeclarationsOfSentMessages(unit, requestor, null);
+            engine.searchDeclarationsOfAccessedFields(unit, requestor, null);
+        }
+        catch (CoreException e)
+        {
+            logger.log(Level.WARNING, "Cannot compute the files referenced by " + unit.getElementName(), e);
+            return null;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the declarations (i.e., the types and their constructors, methods and fields) of the given file, which
+     * can later be passed to {@link #findDependentFiles(IProject, Collection, Map)} as the declarations before a
+     * modification. <br>
+     * Returns an empty set for the files that do not exist or are not java files on the class-path, and
+     * <code>null</code> if the declarations cannot be computed.
+     *
+     * @param file The file.
+     * @return The declarations of the given file, or <code>null</code> if they cannot be computed.
+     */
+    public static Set <String> getDeclarations(IFile file)
+    {
+        if (!file.exists() || !ResourceUtility.isJavaLike(file) || !ResourceUtility.isOnClassPath(file))
+            return new HashSet <String>();
+        try
+        {
+            ICompilationUnit unit = JavaCore.createCompilationUnitFrom(file);
+            IType [] types = unit == null ? new IType [0] : unit.getAllTypes();
+            if (types.length == 0)
+                return null;
+            return getDeclarations(types);
+        }
+        catch (JavaModelException e)
+        {
+            logger.log(Level.FINE, "Cannot compute the declarations of " + file.getProjectRelativePath(), e);
+            return null;
+        }
+    }
+
+    /***************
+     * PRIVATE API *
+     **************/
+    /**
+     * Returns the declarations of the given types. <br>
+     * A declaration is represented as its kind ('T' for types, 'C' for constructors, 'M' for methods and 'F' for
+     * fields), followed by ':' and its name (and the parameter types for constructors and methods).
+     */
+    private static Set <String> getDeclarations(IType [] types) throws JavaModelException
+    {
+        Set <String> result = new HashSet <String>();
+        for (IType type: types)
+        {
+            result.add("T:" + type.getElementName());
+            for (IMethod method: type.getMethods())
+            {
+                String kind = method.isConstructor() ? "C:" : "M:";
+                result.add(kind + method.getElementName() + "(" + join(method.getParameterTypes()) + ")");
+            }
+            for (IField field: type.getFields())
+                result.add("F:" + field.getElementName());
+        }
+        return result;
+    }
+
+    private static String join(String [] values)
+    {
+        StringBuilder result = new StringBuilder();
+        for (int a = 0; a < values.length; a++)
+        {
+            if (a != 0)
+                result.append(",");
+            result.append(values[a]);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Returns a pattern that matches the references to the given (removed) declaration by name. <br>
+     * The pattern also matches the references to the declarations of other types with the same name, which is safe
+     * since it can only report more dependents.
+     */
+    private static SearchPattern createRemovedDeclarationPattern(String declaration)
+    {
+        char kind = declaration.charAt(0);
+        int end = declaration.indexOf('(');
+        String name = declaration.substring(2, end == -1 ? declaration.length() : end);
+        int searchFor;
+        if (kind == 'T')
+            searchFor = IJavaSearchConstants.TYPE;
+        else if (kind == 'C')
+            searchFor = IJavaSearchConstants.CONSTRUCTOR;
+        else if (kind == 'M')
+            searchFor = IJavaSearchConstants.METHOD;
+        else
+            searchFor = IJavaSearchConstants.FIELD;
+        return SearchPattern.createPattern(name, searchFor, IJavaSearchConstants.REFERENCES,
+                SearchPattern.R_EXACT_MATCH | SearchPattern.R_CASE_SENSITIVE);
+    }
+
+    private static void addReferencePatterns(IType type, ArrayList <SearchPattern> patterns)
+            throws JavaModelException
+    {
+        patterns.add(SearchPattern.createPattern(type, IJavaSearchConstants.REFERENCES));
+        for (IMethod method: type.getMethods())
+            patterns.add(SearchPattern.createPattern(method, IJavaSearchConstants.REFERENCES));
+        for (IField field: type.getFields())
+            patterns.add(SearchPattern.createPattern(field, IJavaSearchConstants.REFERENCES));
+    }
+
+    private static Set <IPath> searchReferences(IProject project, ArrayList <SearchPattern> patterns)
+            throws CoreException
+    {
+        SearchPattern pattern = null;
+        for (SearchPattern current: patterns)
+        {
+            if (current == null)
+                continue;
+            pattern = pattern == null ? current : SearchPattern.createOrPattern(pattern, current);
+        }
+        final Set <IPath> result = new HashSet <IPath>();
+        if (pattern == null)
+            return result;
+        IJavaProject javaProject = JavaCore.create(project);
+        IJavaSearchScope scope = SearchEngine.createJavaSearchScope(new IJavaElement [] {javaProject},
+                IJavaSearchScope.SOURCES);
+        SearchRequestor requestor = new SearchRequestor()
+        {
+            @Override
+            public void acceptSearchMatch(SearchMatch match) throws CoreException
+            {
+                IResource resource = match.getResource();
+                if (resource != null && resource.getType() == IResource.FILE)
+                    result.add(resource.getProjectRelativePath());
+            }
+        };
+        new SearchEngine().search(pattern, new SearchParticipant [] {SearchEngine.getDefaultSearchParticipant()},
+                scope, requestor, null);
+        return result;
+    }
+}
@@ -0,0 +1,200 @@
+package edu.washington.cs.util.eclipse;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.resources.IMarkerDelta;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.jdt.core.IJavaModelMarker;
+
+import edu.washington.cs.util.eclipse.model.Squiggly;
+
+/**
+ * Marker index keeps the java problem markers of the projects that are queried through
+ * {@link #getSquigglies(IProject)}, so that the compilation errors of a project can be retrieved after each build
+ * without scanning all of its markers. <br>
+ * The markers of a project are found with a full scan the first time the project is queried. From then on, the index is
+ * updated with the marker deltas of the resource change events. A {@link Squiggly} is created once for each marker (the
+ * first time it is queried), and shared until the marker changes. <br>
+ * <br>
+ * The index is synchronized over 'this', the squigglies are created without holding this lock.
+ *
+ * @author Kivanc Muslu
+ */
+class MarkerIndex implements IResourceChangeListener
+{
+    /** Logger for debugging. */
+    private static final Logger logger = Logger.getLogger(MarkerIndex.class.getName());
+    static
+    {
+        logger.setLevel(Level.INFO);
+    }
+    private static MarkerIndex instance_ = null;
+
+    /** Markers of each indexed project, keyed by their ids (i.e., in the order they are created). */
+    private final HashMap <IProject, TreeMap <Long, Entry>> projects_;
+
+    private MarkerIndex()
+    {
+        projects_ = new HashMap <IProject, TreeMap <Long, Entry>>();
+    }
+
+    /**
+     * Returns the marker index, which is registered as a resource change listener when it is first created.
+     *
+     * @return The marker index.
+     */
+    static synchronized MarkerIndex getIndex()
+    {
+        if (instance_ == null)
+        {
+            instance_ = new MarkerIndex();
+            ResourcesPlugin.getWorkspace().addResourceChangeListener(instance_, IResourceChangeEvent.POST_CHANGE);
+        }
+        return instance_;
+    }
+
+    /**************
+     * PUBLIC API *
+     *************/
+    /**
+     * Returns the compilation errors and warnings of the given project. <br>
+     * Only the markers that are added or changed since the last query are converted to new squigglies.
+     *
+     * @param project The target project.
+     * @return The compilation errors and warnings of the target project.
+     */
+    Squiggly [] getSquigglies(IProject project)
+    {
+        ArrayList <Entry> entries;
+        synchronized (this)
+        {
+            TreeMap <Long, Entry> markers = projects_.get(project);
+            if (markers == null)
+            {
+                markers = scan(project);
+                if (markers == null)
+                    return new Squiggly [0];
+                projects_.put(project, markers);
+            }
+            entries = new ArrayList <Entry>(markers.values());
+        }
+        // Squigglies read the compilation units, so they are created without holding the lock.
+        Squiggly [] result = new Squiggly [entries.size()];
+        int created = 0;
+        for (int a = 0; a < result.length; a++)
+        {
+            Entry entry = entries.get(a);
+            synchronized (entry)
+            {
+                if (entry.squiggly_ == null)
+                {
+                    entry.squiggly_ = new Squiggly(entry.marker_);
+                    created++;
+                }
+                result[a] = entry.squiggly_;
+            }
+        }
+        logger.fine("Retrieved " + result.length + " squigglies for project = " + project.getName() + ", created "
+                + created + " of them.");
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Updates the indexed projects with the java problem marker deltas of the event.
+     * </p>
+     */
+    @Override
+    public synchronized void resourceChanged(IResourceChangeEvent event)
+    {
+        if (projects_.isEmpty())
+            return;
+        IResourceDelta delta = event.getDelta();
+        if (delta == null)
+            return;
+        forgetRemovedProjects(delta);
+        for (IMarkerDelta markerDelta: event.findMarkerDeltas(IJavaModelMarker.JAVA_MODEL_PROBLEM_MARKER, true))
+        {
+            TreeMap <Long, Entry> markers = projects_.get(markerDelta.getResource().getProject());
+            if (markers == null)
+                continue;
+            Long id = markerDelta.getId();
+            if (markerDelta.getKind() == IResourceDelta.REMOVED)
+                markers.remove(id);
+            else
+                // Both for the added and changed markers the squiggly will be (re-)created.
+                markers.put(id, new Entry(markerDelta.getMarker()));
+        }
+    }
+
+    /***************
+     * PRIVATE API *
+     **************/
+    /**
+     * Forgets the projects that are removed or closed, so that they are scanned again if they are queried later.
+     */
+    private void forgetRemovedProjects(IResourceDelta delta)
+    {
+        for (IResourceDelta projectDelta: delta.getAffectedChildren())
+        {
+            IResource resource = projectDelta.getResource();
+            if (!(resource instanceof IProject) || !projects_.containsKey(resource))
+                continue;
+            if (projectDelta.getKind() == IResourceDelta.REMOVED
+                    || (projectDelta.getFlags() & IResourceDelta.OPEN) != 0)
+            {
+                logger.fine("Forgetting the markers of project = " + resource.getName() + ".");
+                projects_.remove(resource);
+            }
+        }
+    }
+
+    /**
+     * Returns the java problem markers of the given project, <code>null</code> if they cannot be found.
+     */
+    private TreeMap <Long, Entry> scan(IProject project)
+    {
+        try
+        {
+            IMarker [] markers = project.findMarkers(IJavaModelMarker.JAVA_MODEL_PROBLEM_MARKER, true,
+                    IResource.DEPTH_INFINITE);
+            TreeMap <Long, Entry> result = new TreeMap <Long, Entry>();
+            for (IMarker marker: markers)
+                result.put(marker.getId(), new Entry(marker));
+            return result;
+        }
+        catch (CoreException e)
+        {
+            logger.log(Level.SEVERE, "Cannot find java problem markers for project: " + project.getName(), e);
+            return null;
+        }
+    }
+
+    /**
+     * A marker together with its squiggly, which is created lazily. <br>
+     * {@link #squiggly_} is protected by the entry.
+     */
+    private static class Entry
+    {
+        private final IMarker marker_;
+        private Squiggly squiggly_;
+
+        private Entry(IMarker marker)
+        {
+            marker_ = marker;
+            squiggly_ = null;
+        }
+    }
+}
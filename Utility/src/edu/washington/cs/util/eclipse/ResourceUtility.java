@@ -1,8 +1,17 @@
 package edu.washington.cs.util.eclipse;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.zip.CRC32;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -20,6 +29,7 @@ import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IAdaptable;
 import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Platform;
 import org.eclipse.jdt.core.IJavaElement;
 import org.eclipse.jdt.core.IJavaProject;
 import org.eclipse.jdt.core.JavaCore;
@@ -44,6 +54,10 @@ public class ResourceUtility
 {
     /** The URL where the version list is stored in the Internet. */
     public static final String VERSION_URL = "http://www.kivancmuslu.com/Quick_Fix_Scout_Files/version.txt";
+    /** Files that are at least this large (in bytes) are compared and copied directly on the local file system. */
+    private static final long DIRECT_IO_THRESHOLD = 64 * 1024;
+    /** Size of the regions (in bytes) that are mapped to memory at once during a file comparison. */
+    private static final long MAPPED_REGION_SIZE = 8 * 1024 * 1024;
     /** Logger for file comparison operations. */
     private static final Logger fileComparisonLogger_ = Logger.getLogger(ResourceUtility.class.getName()
             + ".file.comparison");
@@ -269,6 +283,9 @@ public class ResourceUtility
     {
         if (target.exists())
             deleteResource(target);
+        if (source.getType() == IResource.FILE && target.getType() == IResource.FILE
+                && copyFileDirectly((IFile) source, (IFile) target))
+            return true;
         
         boolean result = true;
         IPath path = target.getFullPath();
@@ -285,6 +302,74 @@ public class ResourceUtility
         return result;
     }
 
+    /**
+     * Creates the given file as a link to the given location on the local file system. <br>
+     * Deleting the link later on does not delete the file at the given location.
+     * 
+     * @param file The file that will be created as a link.
+     * @param location The location that the file will be linked to.
+     * @return <code>true</code> if the link is created successfully, <code>false</code> otherwise.
+     * @see #unlinkFile(IFile)
+     */
+    public static boolean linkFile(IFile file, IPath location)
+    {
+        boolean result = true;
+        try
+        {
+            file.createLink(location, IResource.NONE, null);
+            logger_.fine("Linked " + file.getName() + " to " + location + ".");
+        }
+        catch (CoreException e)
+        {
+            result = false;
+            logger_.log(Level.SEVERE, "Cannot link file = " + file.getName() + " to " + location + "!", e);
+        }
+        return result;
+    }
+
+    /**
+     * Replaces the given linked file with a copy of the file that it is linked to, so that it can be modified without
+     * modifying the linked location. <br>
+     * Does nothing if the given file is not a link.
+     * 
+     * @param file The input file.
+     * @return <code>true</code> if the file is not a link anymore, <code>false</code> otherwise.
+     * @see #linkFile(IFile, IPath)
+     */
+    public static boolean unlinkFile(IFile file)
+    {
+        if (!file.isLinked())
+            return true;
+        File location = toLocalFile(file);
+        if (location == null)
+            return false;
+        boolean result = true;
+        InputStream is = null;
+        try
+        {
+            is = new FileInputStream(location);
+            // Deleting a link does not delete the file that it is linked to.
+            file.delete(false, null);
+            file.create(is, true, null);
+            logger_.fine("Replaced link " + file.getName() + " with a copy of " + location + ".");
+        }
+        catch (IOException e)
+        {
+            result = false;
+            logger_.log(Level.SEVERE, "Cannot read linked location = " + location + "!", e);
+        }
+        catch (CoreException e)
+        {
+            result = false;
+            logger_.log(Level.SEVERE, "Cannot replace link = " + file.getName() + " with a copy!", e);
+        }
+        finally
+        {
+            close(is, location);
+        }
+        return result;
+    }
+
     /**
      * Copies the content of 'source' to the 'target'. <br>
      * This method assumes that the target exists.
@@ -296,6 +381,8 @@ public class ResourceUtility
      */
     public static boolean copyFile(IFile source, IFile target)
     {
+        if (copyFileDirectly(source, target))
+            return true;
         boolean result = true;
         try
         {
@@ -398,6 +485,22 @@ public class ResourceUtility
                     + file2.getName()
                     + " and it failed. However, this was an optimization and does not affect the execution.", e);
         }
+        File local1 = toLocalFile(file1);
+        File local2 = toLocalFile(file2);
+        if (local1 != null && local2 != null && local1.length() >= DIRECT_IO_THRESHOLD && canMapFiles())
+        {
+            try
+            {
+                boolean same = areLocalFilesIdentical(local1, local2);
+                fileComparisonLogger_.info("Comparison result (memory mapped): " + same);
+                return same;
+            }
+            catch (IOException e)
+            {
+                fileComparisonLogger_.log(Level.WARNING, "Cannot compare files " + file1.getName() + " and "
+                        + file2.getName() + " through memory mapping, falling back to streams.", e);
+            }
+        }
         InputStream is1 = null;
         InputStream is2 = null;
         boolean same = false;
@@ -465,6 +568,100 @@ public class ResourceUtility
         return same;
     }
     
+    /**
+     * Computes a checksum of the contents of the given file. <br>
+     * The content is read from disc, so the buffer of the file (if any) should be saved before calling this method.
+     * 
+     * @param file The input file.
+     * @return The checksum of the contents of the given file, or <code>-1</code> if the file cannot be read.
+     */
+    public static long computeChecksum(IFile file)
+    {
+        CRC32 checksum = new CRC32();
+        InputStream is = null;
+        try
+        {
+            is = file.getContents();
+            byte [] data = new byte [4 * 1024];
+            int length;
+            while ((length = is.read(data)) != -1)
+                checksum.update(data, 0, length);
+            return checksum.getValue();
+        }
+        catch (CoreException e)
+        {
+            logger_.log(Level.WARNING, "Cannot get contents of file = " + file.getName(), e);
+        }
+        catch (IOException e)
+        {
+            logger_.log(Level.WARNING, "Cannot read contents of file = " + file.getName(), e);
+        }
+        finally
+        {
+            try
+            {
+                if (is != null)
+                    is.close();
+            }
+            catch (IOException e)
+            {
+                logger_.log(Level.SEVERE, "Cannot close input stream for file = " + file.getName(), e);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Computes the SHA-1 digest of the contents of the given file as a hexadecimal string. <br>
+     * Unlike {@link #computeChecksum(IFile)}, the digest is strong enough to decide that two files are identical. The
+     * content is read from disc, so the buffer of the file (if any) should be saved before calling this method.
+     * 
+     * @param file The input file.
+     * @return The digest of the contents of the given file, or <code>null</code> if the file cannot be read.
+     */
+    public static String computeDigest(IFile file)
+    {
+        InputStream is = null;
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            is = file.getContents();
+            byte [] data = new byte [4 * 1024];
+            int length;
+            while ((length = is.read(data)) != -1)
+                digest.update(data, 0, length);
+            StringBuilder result = new StringBuilder();
+            for (byte b: digest.digest())
+                result.append(String.format("%02x", b));
+            return result.toString();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            logger_.log(Level.SEVERE, "Cannot compute the digest of file = " + file.getName(), e);
+        }
+        catch (CoreException e)
+        {
+            logger_.log(Level.WARNING, "Cannot get contents of file = " + file.getName(), e);
+        }
+        catch (IOException e)
+        {
+            logger_.log(Level.WARNING, "Cannot read contents of file = " + file.getName(), e);
+        }
+        finally
+        {
+            try
+            {
+                if (is != null)
+                    is.close();
+            }
+            catch (IOException e)
+            {
+                logger_.log(Level.SEVERE, "Cannot close input stream for file = " + file.getName(), e);
+            }
+        }
+        return null;
+    }
+
     /**
      * Returns the information for the given file.
      * 
@@ -519,6 +716,143 @@ public class ResourceUtility
         return result;
     }
 
+    /**
+     * Returns the file that represents the given resource on the local file system, <code>null</code> if the resource
+     * is not stored on the local file system.
+     * 
+     * @param file The input file.
+     * @return The local file that represents the given resource.
+     */
+    private static File toLocalFile(IFile file)
+    {
+        IPath location = file.getLocation();
+        return location == null ? null : location.toFile();
+    }
+
+    /**
+     * Returns <code>true</code> if the files can be mapped to memory for comparison. <br>
+     * Mapped regions cannot be released explicitly and Windows does not allow writing to a file while a region of it is
+     * mapped, so files are never mapped on Windows.
+     * 
+     * @return <code>true</code> if the files can be mapped to memory for comparison.
+     */
+    private static boolean canMapFiles()
+    {
+        return !Platform.OS_WIN32.equals(Platform.getOS());
+    }
+
+    /**
+     * Compares the given local files by mapping them to memory region by region.
+     * 
+     * @param file1 First input file.
+     * @param file2 Second input file.
+     * @return <code>true</code> if two given files are identical in content, <code>false</code> otherwise.
+     * @throws IOException If any of the files cannot be read.
+     */
+    private static boolean areLocalFilesIdentical(File file1, File file2) throws IOException
+    {
+        FileInputStream is1 = null;
+        FileInputStream is2 = null;
+        try
+        {
+            is1 = new FileInputStream(file1);
+            is2 = new FileInputStream(file2);
+            FileChannel channel1 = is1.getChannel();
+            FileChannel channel2 = is2.getChannel();
+            long size = channel1.size();
+            if (size != channel2.size())
+                return false;
+            for (long position = 0; position < size; position += MAPPED_REGION_SIZE)
+            {
+                long length = Math.min(MAPPED_REGION_SIZE, size - position);
+                MappedByteBuffer region1 = channel1.map(FileChannel.MapMode.READ_ONLY, position, length);
+                MappedByteBuffer region2 = channel2.map(FileChannel.MapMode.READ_ONLY, position, length);
+                if (!region1.equals(region2))
+                    return false;
+            }
+            return true;
+        }
+        finally
+        {
+            close(is1, file1);
+            close(is2, file2);
+        }
+    }
+
+    /**
+     * Copies the content of 'source' to 'target' directly on the local file system and refreshes only the target. <br>
+     * This is only done for large files that are not Java-like, since Java-like files might be connected to buffers
+     * that should be modified through the Eclipse resource API.
+     * 
+     * @param source The source file.
+     * @param target The target file.
+     * @return <code>true</code> if the copy is done, <code>false</code> if the file should be copied through the
+     *         Eclipse resource API instead.
+     */
+    private static boolean copyFileDirectly(IFile source, IFile target)
+    {
+        File from = toLocalFile(source);
+        File to = toLocalFile(target);
+        if (from == null || to == null || from.length() < DIRECT_IO_THRESHOLD || isJavaLike(target)
+                || from.equals(to) || !to.getParentFile().isDirectory())
+            return false;
+        FileInputStream is = null;
+        FileOutputStream os = null;
+        try
+        {
+            is = new FileInputStream(from);
+            os = new FileOutputStream(to);
+            FileChannel input = is.getChannel();
+            FileChannel output = os.getChannel();
+            long size = input.size();
+            long position = 0;
+            while (position < size)
+                position += input.transferTo(position, size - position, output);
+        }
+        catch (IOException e)
+        {
+            logger_.log(Level.WARNING, "Cannot copy file = " + source.getName()
+                    + " directly, falling back to the resource API.", e);
+            return false;
+        }
+        finally
+        {
+            close(is, from);
+            close(os, to);
+        }
+        try
+        {
+            // Only the target is modified on the file system.
+            target.refreshLocal(IResource.DEPTH_ZERO, null);
+        }
+        catch (CoreException e)
+        {
+            logger_.log(Level.WARNING, "Cannot refresh file = " + target.getName() + " after copying it directly.", e);
+            return false;
+        }
+        logger_.fine("Copied " + target.getName() + " directly to shadow project.");
+        return true;
+    }
+
+    /**
+     * Closes the given stream (if any) of the given file, logging the failure instead of throwing it.
+     * 
+     * @param closeable The stream that will be closed, can be <code>null</code>.
+     * @param file The file that the stream is opened for.
+     */
+    public static void close(Closeable closeable, File file)
+    {
+        try
+        {
+            if (closeable != null)
+                closeable.close();
+        }
+        catch (IOException e)
+        {
+            logger_.log(Level.SEVERE, "Cannot close stream for file = " + file.getName(), e);
+        }
+    }
+
     /**
      * Compares two files and returns <code>true</code> if the input files have the same size and <code>false</code>
      * otherwise.
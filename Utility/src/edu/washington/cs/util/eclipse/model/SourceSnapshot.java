@@ -0,0 +1,330 @@
+package edu.washington.cs.util.eclipse.model;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.jdt.core.BufferChangedEvent;
+import org.eclipse.jdt.core.IBuffer;
+import org.eclipse.jdt.core.IBufferChangedListener;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+
+/**
+ * Source snapshot is the content of a compilation unit at a certain moment, together with the offsets of its lines and
+ * its AST (which are computed lazily). <br>
+ * The snapshots are shared between the squigglies of the same file: a snapshot is reused as long as the file is not
+ * modified (i.e., its modification stamp is the same) and the buffer it is read from does not change. This way the
+ * content of a file is read, split into lines and parsed once no matter how many squigglies it contains. <br>
+ * A snapshot listens to its buffer until the first change, which removes it from the cache, or until it is evicted
+ * from the cache. <br>
+ * Snapshots of working copy contents (see {@link #getSnapshot(String)}) are not cached and do not listen to any buffer.
+ * <p>
+ * Snapshots are immutable except for the lazily computed line offsets and AST, which are protected by 'this'.
+ * </p>
+ *
+ * @author Kivanc Muslu
+ */
+class SourceSnapshot
+{
+    private static final Logger logger = Logger.getLogger(SourceSnapshot.class.getName());
+    static
+    {
+        logger.setLevel(Level.INFO);
+    }
+    /** Maximum number of snapshots that are kept for reuse. */
+    private static final int MAX_CACHED_SNAPSHOTS = 256;
+    /** Most recent snapshot of each file, in access order. Protected by the class. */
+    private static final LinkedHashMap <IResource, SourceSnapshot> snapshots_ = new LinkedHashMap <IResource, SourceSnapshot>(
+            16, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry <IResource, SourceSnapshot> eldest)
+        {
+            if (size() <= MAX_CACHED_SNAPSHOTS)
+                return false;
+            evicted_.add(eldest.getValue().invalidator_);
+            return true;
+        }
+    };
+    /**
+     * Invalidators of the snapshots that are evicted from the cache, which should stop listening to their buffers.
+     * Protected by the class.
+     */
+    private static final ArrayList <Invalidator> evicted_ = new ArrayList <Invalidator>();
+    /** Most recent snapshot of working copy contents (see {@link #getSnapshot(String)}). Protected by the class. */
+    private static SourceSnapshot lastWorkingCopySnapshot_ = null;
+
+    private final String content_;
+    /** Modification stamp of the file when the content is read. */
+    private final long stamp_;
+    /** Invalidator that listens to the buffer the content is read from, <code>null</code> for working copies. */
+    private final Invalidator invalidator_;
+    /** Offsets of the first character of each line, <code>null</code> until they are computed. */
+    private int [] lineOffsets_;
+    /** AST of the content, <code>null</code> until it is parsed. */
+    private CompilationUnit ast_;
+
+    private SourceSnapshot(String content, long stamp, Invalidator invalidator)
+    {
+        content_ = content;
+        stamp_ = stamp;
+        invalidator_ = invalidator;
+        lineOffsets_ = null;
+        ast_ = null;
+    }
+
+    /**
+     * Returns the current snapshot of the given compilation unit, <code>null</code> if its content cannot be read.
+     *
+     * @param compilationUnit The compilation unit.
+     * @return The current snapshot of the given compilation unit.
+     */
+    static SourceSnapshot getSnapshot(ICompilationUnit compilationUnit)
+    {
+        IResource resource = compilationUnit.getResource();
+        long stamp = resource == null ? IResource.NULL_STAMP : resource.getModificationStamp();
+        try
+        {
+            IBuffer buffer = compilationUnit.getBuffer();
+            if (buffer == null)
+                return null;
+            boolean cacheable = resource instanceof IFile && stamp != IResource.NULL_STAMP;
+            if (cacheable)
+            {
+                synchronized (SourceSnapshot.class)
+                {
+                    SourceSnapshot snapshot = snapshots_.get(resource);
+                    if (snapshot != null && snapshot.stamp_ == stamp && snapshot.invalidator_.buffer_ == buffer)
+                        return snapshot;
+                }
+            }
+            // The invalidator starts listening before the content is read, so that no change can be missed.
+            Invalidator invalidator = new Invalidator(resource, buffer);
+            if (cacheable)
+                buffer.addBufferChangedListener(invalidator);
+            SourceSnapshot result = new SourceSnapshot(buffer.getContents(), stamp, invalidator);
+            if (cacheable)
+            {
+                synchronized (SourceSnapshot.class)
+                {
+                    if (!invalidator.fired_)
+                    {
+                        SourceSnapshot previous = snapshots_.put(resource, result);
+                        if (previous != null)
+                            evicted_.add(previous.invalidator_);
+                    }
+                }
+                stopEvictedInvalidators();
+            }
+            return result;
+        }
+        catch (JavaModelException e)
+        {
+            logger.log(Level.SEVERE, "Cannot read the content of compilation unit = " + compilationUnit.getElementName(),
+                    e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns a snapshot of the given working copy content. <br>
+     * The snapshot is not cached, but consecutive calls with the same content (e.g., for the problems of a single
+     * reconcile) return the same snapshot so that it is split into lines and parsed once.
+     *
+     * @param content The content of a working copy.
+     * @return A snapshot of the given content.
+     */
+    static synchronized SourceSnapshot getSnapshot(String content)
+    {
+        if (lastWorkingCopySnapshot_ == null || lastWorkingCopySnapshot_.content_ != content)
+            lastWorkingCopySnapshot_ = new SourceSnapshot(content, IResource.NULL_STAMP, null);
+        return lastWorkingCopySnapshot_;
+    }
+
+    /**************
+     * PUBLIC API *
+     *************/
+    /**
+     * Returns the text in the given region of this snapshot.
+     *
+     * @param offset Offset of the region.
+     * @param length Length of the region.
+     * @return The text in the given region.
+     * @throws IndexOutOfBoundsException If the region is not inside this snapshot.
+     */
+    String getText(int offset, int length)
+    {
+        return content_.substring(offset, offset + length);
+    }
+
+    /**
+     * Returns the (1-based) line that contains the given offset.
+     *
+     * @param offset An offset in this snapshot.
+     * @return The line that contains the given offset.
+     */
+    int getLine(int offset)
+    {
+        int [] lineOffsets = getLineOffsets();
+        int low = 0;
+        int high = lineOffsets.length - 1;
+        // Find the last line that starts at or before the offset.
+        while (low < high)
+        {
+            int middle = (low + high + 1) / 2;
+            if (lineOffsets[middle] <= offset)
+                low = middle;
+            else
+                high = middle - 1;
+        }
+        return low + 1;
+    }
+
+    /**
+     * Returns the offset of the first character of the given (1-based) line.
+     *
+     * @param line A line in this snapshot.
+     * @return The offset of the first character of the given line.
+     */
+    int getLineOffset(int line)
+    {
+        return getLineOffsets()[line - 1];
+    }
+
+    /**
+     * Returns the AST of this snapshot, which is parsed (without bindings) the first time it is requested. <br>
+     * The positions of the AST nodes are offsets in this snapshot.
+     *
+     * @param project The java project whose compiler options are used for parsing, can be <code>null</code>.
+     * @return The AST of this snapshot.
+     */
+    synchronized CompilationUnit getAST(IJavaProject project)
+    {
+        if (ast_ == null)
+        {
+            ASTParser parser = ASTParser.newParser(AST.JLS3);
+            parser.setKind(ASTParser.K_COMPILATION_UNIT);
+            parser.setSource(content_.toCharArray());
+            if (project != null)
+                parser.setCompilerOptions(project.getOptions(true));
+            ASTNode result = parser.createAST(null);
+            assert result instanceof CompilationUnit: "Parsed java file does not yield to a compilation unit.";
+            ast_ = (CompilationUnit) result;
+        }
+        return ast_;
+    }
+
+    char charAt(int offset)
+    {
+        return content_.charAt(offset);
+    }
+
+    int getLength()
+    {
+        return content_.length();
+    }
+
+    /***************
+     * PRIVATE API *
+     **************/
+    private synchronized int [] getLineOffsets()
+    {
+        if (lineOffsets_ == null)
+        {
+            int count = 1;
+            for (int a = 0; a < content_.length(); a++)
+            {
+                if (isLineEnd(a))
+                    count++;
+            }
+            int [] lineOffsets = new int [count];
+            int line = 1;
+            for (int a = 0; a < content_.length(); a++)
+            {
+                if (isLineEnd(a))
+                    lineOffsets[line++] = a + 1;
+            }
+            lineOffsets_ = lineOffsets;
+        }
+        return lineOffsets_;
+    }
+
+    /**
+     * Returns <code>true</code> if the character at the given offset ends a line ('\n', or '\r' that is not followed by
+     * '\n').
+     */
+    private boolean isLineEnd(int offset)
+    {
+        char c = content_.charAt(offset);
+        if (c == '\n')
+            return true;
+        return c == '\r' && (offset + 1 == content_.length() || content_.charAt(offset + 1) != '\n');
+    }
+
+    /**
+     * Makes the invalidators of the evicted snapshots stop listening to their buffers. <br>
+     * The listeners are removed without holding the lock of the class, since the buffers notify their listeners while
+     * holding their own locks.
+     */
+    private static void stopEvictedInvalidators()
+    {
+        Invalidator [] evicted;
+        synchronized (SourceSnapshot.class)
+        {
+            if (evicted_.isEmpty())
+                return;
+            evicted = evicted_.toArray(new Invalidator [evicted_.size()]);
+            evicted_.clear();
+        }
+        for (Invalidator invalidator: evicted)
+            invalidator.stop();
+    }
+
+    /**
+     * Removes the cached snapshot of a buffer when the buffer changes (or is closed), then stops listening. <br>
+     * {@link #fired_} is protected by the {@link SourceSnapshot} class.
+     */
+    private static class Invalidator implements IBufferChangedListener
+    {
+        private final IResource resource_;
+        private final IBuffer buffer_;
+        private boolean fired_;
+
+        private Invalidator(IResource resource, IBuffer buffer)
+        {
+            resource_ = resource;
+            buffer_ = buffer;
+            fired_ = false;
+        }
+
+        @Override
+        public void bufferChanged(BufferChangedEvent event)
+        {
+            synchronized (SourceSnapshot.class)
+            {
+                fired_ = true;
+                SourceSnapshot snapshot = snapshots_.get(resource_);
+                if (snapshot != null && snapshot.invalidator_ == this)
+                    snapshots_.remove(resource_);
+            }
+            stop();
+        }
+
+        private void stop()
+        {
+            buffer_.removeBufferChangedListener(this);
+        }
+    }
+}
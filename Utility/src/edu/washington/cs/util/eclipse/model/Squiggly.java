@@ -1,6 +1,6 @@
 package edu.washington.cs.util.eclipse.model;
 
-import java.util.Scanner;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -8,6 +8,8 @@ import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IMarker;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
 import org.eclipse.jdt.core.CorrectionEngine;
 import org.eclipse.jdt.core.ICompilationUnit;
 import org.eclipse.jdt.core.IJavaElement;
@@ -15,9 +17,7 @@ import org.eclipse.jdt.core.IJavaModelMarker;
 import org.eclipse.jdt.core.JavaCore;
 import org.eclipse.jdt.core.JavaModelException;
 import org.eclipse.jdt.core.compiler.IProblem;
-import org.eclipse.jdt.core.dom.AST;
 import org.eclipse.jdt.core.dom.ASTNode;
-import org.eclipse.jdt.core.dom.ASTParser;
 import org.eclipse.jdt.core.dom.CompilationUnit;
 import org.eclipse.jdt.core.dom.MethodDeclaration;
 import org.eclipse.jdt.internal.ui.text.correction.ProblemLocation;
@@ -25,6 +25,20 @@ import org.eclipse.jdt.ui.text.java.IProblemLocation;
 import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.Document;
 
+import edu.washington.cs.util.eclipse.UpdaterUtility;
+
+/**
+ * Squiggly represents a compilation error or a warning, either as a marker or as a problem reported while reconciling a
+ * working copy. <br>
+ * The attributes of a marker are copied into primitive fields when the squiggly is created, so a squiggly stays usable
+ * after its marker is deleted (e.g., by the next build). The rest (the compilation unit, the problem location, the
+ * context and the line) is computed lazily. The context, the line and the covering method are computed from a
+ * {@link SourceSnapshot} of the file taken the first time one of them is needed, which is shared by all squigglies of
+ * the same file (i.e., the file is split into lines and parsed once). The squigglies of a reconciled working copy use a
+ * snapshot of the working copy instead, since their offsets belong to it.
+ *
+ * @author Kivanc Muslu
+ */
 @SuppressWarnings("restriction")
 public class Squiggly
 {
@@ -37,87 +51,163 @@ public class Squiggly
     public static final Squiggly [] UNKNOWN = new Squiggly [0];
     // NOT_COMPUTED is a constant type compilation error for flagged proposals.
     public static final Squiggly [] NOT_COMPUTED = new Squiggly[0];
+    // TIMED_OUT is a constant type compilation error for proposals that are skipped for exceeding their time budget.
+    public static final Squiggly [] TIMED_OUT = new Squiggly [0];
     
     private final IMarker marker_;
-    private final IProblemLocation location_;
-    private final ICompilationUnit compilationUnit_;
+    private final IResource resource_;
+    // Attributes of the marker (or the problem), -1 if unknown.
+    private final int problemId_;
+    private final int start_;
+    private final int end_;
+    private final int severity_;
+    private final String [] arguments_;
+    private final String markerType_;
     
-    // Lazily computed field.
+    // Lazily computed fields.
+    // Content of the file that the offsets refer to, null if it cannot be read.
+    private SourceSnapshot source_;
+    private boolean sourceComputed_;
+    private ICompilationUnit compilationUnit_;
+    private boolean compilationUnitComputed_;
+    private IProblemLocation location_;
+    private boolean locationComputed_;
     private SquigglyDetails details_;
-    private CompilationUnit compilationUnitNode_;
     private String cachedContext_ = null;
  
     public Squiggly(IMarker marker)
     {
         marker_ = marker;
-        compilationUnit_ = getCompilationUnitFromMarker(marker_);
-        location_ = convertMarkerToProblemLocation(marker_, compilationUnit_);
-        details_ = null;
-        compilationUnitNode_ = null;
-        
+        resource_ = marker.getResource();
+        Map <?, ?> attributes = null;
+        String [] arguments = null;
+        String markerType = null;
         try
         {
-            cachedContext_ = getContext();
+            // A single call that copies all attributes instead of one look-up per attribute.
+            attributes = marker.getAttributes();
+            arguments = CorrectionEngine.getProblemArguments(marker);
+            markerType = marker.getType();
         }
-        catch (JavaModelException e)
+        catch (CoreException e)
         {
-            e.printStackTrace();
+            logger.log(Level.SEVERE, "Cannot read the attributes of marker: " + marker, e);
         }
-        catch (BadLocationException e)
+        problemId_ = getIntAttribute(attributes, IJavaModelMarker.ID, -1);
+        start_ = getIntAttribute(attributes, IMarker.CHAR_START, -1);
+        end_ = getIntAttribute(attributes, IMarker.CHAR_END, -1);
+        severity_ = getIntAttribute(attributes, IMarker.SEVERITY, IMarker.SEVERITY_INFO);
+        arguments_ = arguments;
+        markerType_ = markerType;
+        compilationUnit_ = null;
+        compilationUnitComputed_ = false;
+        location_ = null;
+        locationComputed_ = false;
+        details_ = null;
+        source_ = null;
+        sourceComputed_ = false;
+    }
+    
+    /**
+     * Creates a squiggly from a problem that is reported while reconciling a working copy, so there is no marker
+     * associated with it. <br>
+     * Since the problem belongs to a modified copy of the compilation unit, the content of the working copy must be
+     * given explicitly. The context, the line and the covering method are computed from that content.
+     * 
+     * @param problem The problem reported by the reconciler.
+     * @param compilationUnit The (primary) compilation unit that the working copy is created from.
+     * @param source The content of the working copy when the problem is reported.
+     */
+    public Squiggly(IProblem problem, ICompilationUnit compilationUnit, String source)
+    {
+        marker_ = null;
+        resource_ = compilationUnit == null ? null : compilationUnit.getResource();
+        problemId_ = problem.getID();
+        start_ = problem.getSourceStart();
+        end_ = problem.getSourceEnd() + 1;
+        severity_ = problem.isError() ? IMarker.SEVERITY_ERROR : IMarker.SEVERITY_WARNING;
+        arguments_ = problem.getArguments();
+        markerType_ = null;
+        source_ = SourceSnapshot.getSnapshot(source);
+        sourceComputed_ = true;
+        compilationUnit_ = compilationUnit;
+        compilationUnitComputed_ = true;
+        location_ = new ProblemLocation(problem);
+        locationComputed_ = true;
+        details_ = null;
+        // The working copy no longer exists when the context is requested, so it is computed right away.
+        boolean inside = start_ >= 0 && start_ <= end_ && end_ <= source.length();
+        cachedContext_ = inside ? source.substring(start_, end_) : "";
+    }
+    
+    /**
+     * Creates a copy of the given squiggly that is reported on the given resource instead (e.g., to map a squiggly of a
+     * replica of a project back to the same file in the project that it is copied from). <br>
+     * The copy has no marker. The lazily computed fields that the given squiggly has already computed on its content
+     * are shared, the compilation unit is computed from the given resource.
+     * 
+     * @param squiggly The squiggly that is copied.
+     * @param resource The resource that the copy is reported on.
+     */
+    public Squiggly(Squiggly squiggly, IResource resource)
+    {
+        marker_ = null;
+        resource_ = resource;
+        problemId_ = squiggly.problemId_;
+        start_ = squiggly.start_;
+        end_ = squiggly.end_;
+        severity_ = squiggly.severity_;
+        arguments_ = squiggly.arguments_;
+        markerType_ = squiggly.markerType_;
+        compilationUnit_ = null;
+        compilationUnitComputed_ = false;
+        details_ = null;
+        synchronized (squiggly)
         {
-            e.printStackTrace();
+            source_ = squiggly.source_;
+            sourceComputed_ = squiggly.sourceComputed_;
+            location_ = squiggly.location_;
+            locationComputed_ = squiggly.locationComputed_;
+            cachedContext_ = squiggly.cachedContext_;
         }
     }
     
-    public String getCachedContext() throws JavaModelException, BadLocationException
+    public synchronized String getCachedContext() throws JavaModelException, BadLocationException
     {
-        return cachedContext_ == null ? getContext() : cachedContext_;
+        if (cachedContext_ == null)
+            cachedContext_ = getContext();
+        return cachedContext_;
     }
     
     private int computeSeverity() throws CoreException
     {
-        int severity = (Integer) marker_.getAttribute(IMarker.SEVERITY);
-        return severity;
+        return severity_;
     }
     
-    public SquigglyDetails computeDetails() throws CoreException
+    public synchronized SquigglyDetails computeDetails() throws CoreException
     {
         if (details_ != null)
             return details_;
         
-        assert location_ != null: "To compute compilation error details, its location must be non-null.";
-        
+        assert getLocation() != null: "To compute compilation error details, its location must be non-null.";
+        assert getResource() instanceof IFile: "Compilation error markers must be owned by an iFile.";
+        IFile file = (IFile) getResource();
+        SourceSnapshot source = getSourceSnapshot();
+        if (source == null)
+            throw new CoreException(new Status(IStatus.ERROR, UpdaterUtility.PLUG_IN_ID, "Cannot read the content of "
+                    + file.getName() + " to compute the details of " + this));
+        int line = source.getLine(start_);
+        int lineOffset = source.getLineOffset(line);
         // +1 comes from the fact that Eclipse represents the first character to be '1'st offset on a line.
-        // However, internally getOffset() returns the offset as it is an array index (i.e., the first element is
-        // represented by offset 0).
-        int offset = location_.getOffset() + 1;
-        int line = -1;
-        assert marker_.getResource() instanceof IFile: "Compilation error markers must be owned by an iFile.";
-        IFile file = (IFile) marker_.getResource();
-        Scanner reader = new Scanner(file.getContents());
-        line = 1;
-        while (reader.hasNext())
+        int offset = start_ - lineOffset + 1;
+        // Convert the tabs in the line into proper offsets (i.e., add 3 offset for each tab).
+        // TODO Make this consistent with the actual tab spacing.
+        int limit = offset;
+        for (int a = 0; a < limit && lineOffset + a < source.getLength(); a++)
         {
-        	String text = reader.nextLine();
-        	offset -= text.length();
-        	if (offset <= 0)
-        	{
-        		offset = offset + text.length();
-        		// Convert the tabs in the last line into proper offsets (i.e., add 3 offset for each tab).
-        		// TODO Make this consistent with the actual tab spacing.
-        		int limit = offset;
-        		for (int a = 0; a < limit; a++)
-        		{
-        			if (text.charAt(a) == '\t')
-        				offset += 3;
-        		}
-        		break;
-        	}
-        	// Remove '1' offset for the newline character.
-        	offset --;
-        	line ++;
+            if (source.charAt(lineOffset + a) == '\t')
+                offset += 3;
         }
-        reader.close();
         details_ = new SquigglyDetails(file, line, offset);
         return details_;
     }
@@ -137,24 +227,34 @@ public class Squiggly
         return marker_;
     }
     
-    public IProblemLocation getLocation()
+    public synchronized IProblemLocation getLocation()
     {
+        if (!locationComputed_)
+        {
+            location_ = createProblemLocation();
+            locationComputed_ = true;
+        }
         return location_;
     }
     
-    public ICompilationUnit getCompilationUnit()
+    public synchronized ICompilationUnit getCompilationUnit()
     {
+        if (!compilationUnitComputed_)
+        {
+            compilationUnit_ = getCompilationUnitFromResource(resource_);
+            compilationUnitComputed_ = true;
+        }
         return compilationUnit_;
     }
     
     public IResource getResource()
     {
-        return marker_ == null ? null : marker_.getResource();
+        return resource_;
     }
     
     public String toString()
     {
-        return marker_.getResource().getName() + ":" + location_.getOffset();
+        return getResource().getName() + ":" + start_;
     }
     
     public String toDetailedString() throws CoreException
@@ -168,55 +268,46 @@ public class Squiggly
      **************/
     
     /**
-     * Converts the given marker to a corresponding {@link IProblemLocation} <br>
+     * Converts the marker attributes of 'this' to a corresponding {@link IProblemLocation} <br>
      * Note: This method is copied (and slightly changed) from the source code of Eclipse. TODO Mention where it is
      * taken from.
      * 
-     * @param marker Problem marker that will be converted to a problem location.
-     * @return The problem location correspondence of the given marker.
+     * @return The problem location correspondence of the marker.
      */
-    private IProblemLocation convertMarkerToProblemLocation(IMarker marker, ICompilationUnit compilationUnit)
+    private IProblemLocation createProblemLocation()
     {
-        try
-        {
-            int id = marker.getAttribute(IJavaModelMarker.ID, -1);
-            int start = marker.getAttribute(IMarker.CHAR_START, -1);
-            int end = marker.getAttribute(IMarker.CHAR_END, -1);
-            int severity = marker.getAttribute(IMarker.SEVERITY, IMarker.SEVERITY_INFO);
-            String [] arguments = CorrectionEngine.getProblemArguments(marker);
-            String markerType = marker.getType();
-            if (compilationUnit != null && id != -1 && start != -1 && end != -1 && arguments != null)
-            {
-                boolean isError = (severity == IMarker.SEVERITY_ERROR);
-                return new ProblemLocation(start, end - start, id, arguments, isError, markerType);
-            }
-            else
-            {
-                String log = "Cannot create problem location from marker = " + marker;
-                log += "\ncu = " + (compilationUnit == null ? "null" : compilationUnit.getResource().getProjectRelativePath());
-                log += "\nid = " + id;
-                log += "\nstart = " + start;
-                log += "\nend = " + end;
-                log += "\nseverity = " + severity;
-                logger.warning(log);
-            }
-        }
-        catch (CoreException e)
+        ICompilationUnit compilationUnit = getCompilationUnit();
+        if (compilationUnit != null && problemId_ != -1 && start_ != -1 && end_ != -1 && arguments_ != null)
         {
-            logger.log(Level.SEVERE, "Cannot create problem location from marker: " + marker, e);
+            boolean isError = (severity_ == IMarker.SEVERITY_ERROR);
+            return new ProblemLocation(start_, end_ - start_, problemId_, arguments_, isError, markerType_);
         }
+        String log = "Cannot create problem location from marker = " + marker_;
+        log += "\ncu = " + (compilationUnit == null ? "null" : compilationUnit.getResource().getProjectRelativePath());
+        log += "\nid = " + problemId_;
+        log += "\nstart = " + start_;
+        log += "\nend = " + end_;
+        log += "\nseverity = " + severity_;
+        logger.warning(log);
         return null;
     }
 
+    private static int getIntAttribute(Map <?, ?> attributes, String name, int defaultValue)
+    {
+        Object value = attributes == null ? null : attributes.get(name);
+        return value instanceof Integer ? ((Integer) value).intValue() : defaultValue;
+    }
+
     /**
-     * Returns the compilation unit that contains the given marker.
+     * Returns the compilation unit of the given resource.
      * 
-     * @param marker The marker that will be used to retrieve the compilation unit that contains it.
-     * @return The compilation unit that contains the given marker.
+     * @param resource The resource that contains the squiggly.
+     * @return The compilation unit of the given resource, <code>null</code> if it is not a compilation unit.
      */
-    private ICompilationUnit getCompilationUnitFromMarker(IMarker marker)
+    private static ICompilationUnit getCompilationUnitFromResource(IResource resource)
     {
-        IResource resource = marker.getResource();
+        if (resource == null)
+            return null;
         IJavaElement javaElement = JavaCore.create(resource);
         ICompilationUnit cu = null;
         if (javaElement instanceof ICompilationUnit)
@@ -226,14 +317,30 @@ public class Squiggly
     
     public String getContext() throws JavaModelException, BadLocationException
     {
-        Document document = new Document(compilationUnit_.getBuffer().getContents());
-        return document.get(location_.getOffset(), location_.getLength());
+        // Reconcile problems belong to a working copy that no longer exists, their context is given at construction.
+        if (marker_ == null && cachedContext_ != null)
+            return cachedContext_;
+        IProblemLocation location = getLocation();
+        SourceSnapshot source = getSourceSnapshot();
+        if (source == null)
+        {
+            Document document = new Document(getCompilationUnit().getBuffer().getContents());
+            return document.get(location.getOffset(), location.getLength());
+        }
+        try
+        {
+            return source.getText(location.getOffset(), location.getLength());
+        }
+        catch (IndexOutOfBoundsException e)
+        {
+            throw new BadLocationException("Squiggly " + this + " is outside of its file.");
+        }
     }
     
     // This code is copied and modified from ProblemLocation.java in org.eclipse.jdt.internal.ui.text.correction
     public String getErrorCode()
     {
-        int code = location_.getProblemId();
+        int code = problemId_;
         StringBuffer buf = new StringBuffer();
         if ((code & IProblem.TypeRelated) != 0)
         {
@@ -271,23 +378,29 @@ public class Squiggly
         return buf.toString();
     }
     
-    private CompilationUnit getCompilationUnitNode()
+    /**
+     * Returns the source snapshot that 'this' is computed on: the snapshot of the compilation unit taken the first time
+     * it is requested, or the snapshot of the working copy for reconcile squigglies.
+     */
+    private synchronized SourceSnapshot getSourceSnapshot()
     {
-        if (compilationUnitNode_ == null)
+        if (!sourceComputed_)
         {
-            ASTParser parser = ASTParser.newParser(AST.JLS3);
-            parser.setSource(compilationUnit_);
-            ASTNode result = parser.createAST(null);
-            assert result instanceof CompilationUnit: "Parsed java file does not yield to a compilation unit: " + getResource().getName();
-            compilationUnitNode_ = (CompilationUnit) result;
+            ICompilationUnit compilationUnit = getCompilationUnit();
+            source_ = compilationUnit == null ? null : SourceSnapshot.getSnapshot(compilationUnit);
+            sourceComputed_ = true;
         }
-        return compilationUnitNode_;
+        return source_;
     }
 
     public MethodDeclaration getCoveringMethod()
     {
-        CompilationUnit compilationUnit = getCompilationUnitNode();
-        ASTNode result = location_.getCoveringNode(compilationUnit);
+        SourceSnapshot source = getSourceSnapshot();
+        if (source == null || getLocation() == null)
+            return null;
+        // The AST is shared by all squigglies of the same snapshot.
+        CompilationUnit compilationUnit = source.getAST(getCompilationUnit().getJavaProject());
+        ASTNode result = getLocation().getCoveringNode(compilationUnit);
         while (result != null && result.getNodeType() != ASTNode.METHOD_DECLARATION)
             result = result.getParent();
         return (MethodDeclaration) result;
@@ -295,7 +408,16 @@ public class Squiggly
 
     public String getCoveringMethodName(ASTNode coveringMethod) throws JavaModelException, BadLocationException
     {
-        Document document = new Document(compilationUnit_.getBuffer().getContents());
-        return document.get(coveringMethod.getStartPosition(), coveringMethod.getLength());  
+        SourceSnapshot source = getSourceSnapshot();
+        if (source == null)
+            throw new BadLocationException("Cannot read the content of " + getResource().getName() + ".");
+        try
+        {
+            return source.getText(coveringMethod.getStartPosition(), coveringMethod.getLength());
+        }
+        catch (IndexOutOfBoundsException e)
+        {
+            throw new BadLocationException("Covering method of " + this + " is outside of its file.");
+        }  
     }
 }
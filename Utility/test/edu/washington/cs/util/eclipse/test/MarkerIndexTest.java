@@ -0,0 +1,154 @@
+package edu.washington.cs.util.eclipse.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.HashSet;
+import java.util.Scanner;
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.jdt.core.IJavaModelMarker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.washington.cs.util.eclipse.BuilderUtility;
+import edu.washington.cs.util.eclipse.ResourceUtility;
+import edu.washington.cs.util.eclipse.model.Squiggly;
+
+public class MarkerIndexTest
+{
+    private IProject oneErrorProject_;
+    private IProject oneWarningOneErrorProject_;
+
+    private static final String TEST_ATTRIBUTE = "edu.washington.cs.util.eclipse.test.MarkerIndexTest";
+    private static final String EXTRA_ERROR = "class MarkerIndexTest04 { UnknownType field; }";
+
+    @Before
+    public void setUp()
+    {
+        oneErrorProject_ = ResourceUtility.getProject("Builder Test 03");
+        oneWarningOneErrorProject_ = ResourceUtility.getProject("Builder Test 04");
+        // The projects are built explicitly so that the results are not read in the middle of an auto-build.
+        BuilderUtility.setAutoBuilding(false);
+    }
+
+    @After
+    public void tearDown()
+    {
+        oneErrorProject_ = null;
+        oneWarningOneErrorProject_ = null;
+        BuilderUtility.setAutoBuilding(true);
+    }
+
+    @Test
+    public void testInit()
+    {
+        Assert.assertTrue(oneErrorProject_.exists());
+        Assert.assertTrue(oneWarningOneErrorProject_.exists());
+    }
+
+    @Test
+    public void testIncrementalBuild() throws CoreException
+    {
+        IProject project = oneWarningOneErrorProject_;
+        assertMatchesFullScan(project);
+        IFile file = (IFile) BuilderUtility.calculateCompilationErrors(project)[0].getResource();
+        String content = readContent(file);
+        try
+        {
+            writeContent(file, content + "\n" + EXTRA_ERROR + "\n");
+            BuilderUtility.build(project);
+            Assert.assertEquals(2, BuilderUtility.getNumberOfCompilationErrors(project));
+            Assert.assertEquals(1, BuilderUtility.getNumberOfWarnings(project));
+            assertMatchesFullScan(project);
+        }
+        finally
+        {
+            writeContent(file, content);
+            BuilderUtility.build(project);
+        }
+        Assert.assertEquals(1, BuilderUtility.getNumberOfCompilationErrors(project));
+        assertMatchesFullScan(project);
+    }
+
+    @Test
+    public void testSquigglyReuse() throws CoreException
+    {
+        Squiggly error = BuilderUtility.calculateCompilationErrors(oneErrorProject_)[0];
+        Assert.assertSame(error, BuilderUtility.calculateCompilationErrors(oneErrorProject_)[0]);
+        IMarker marker = error.getMarker();
+        try
+        {
+            marker.setAttribute(TEST_ATTRIBUTE, true);
+            Squiggly changed = BuilderUtility.calculateCompilationErrors(oneErrorProject_)[0];
+            Assert.assertNotSame(error, changed);
+            Assert.assertEquals(marker.getId(), changed.getMarker().getId());
+            Assert.assertSame(changed, BuilderUtility.calculateCompilationErrors(oneErrorProject_)[0]);
+        }
+        finally
+        {
+            marker.setAttribute(TEST_ATTRIBUTE, null);
+        }
+    }
+
+    @Test
+    public void testReopenedProject() throws CoreException
+    {
+        Squiggly error = BuilderUtility.calculateCompilationErrors(oneErrorProject_)[0];
+        oneErrorProject_.close(null);
+        Assert.assertFalse(oneErrorProject_.isOpen());
+        oneErrorProject_.open(null);
+        BuilderUtility.build(oneErrorProject_);
+        Squiggly [] errors = BuilderUtility.calculateCompilationErrors(oneErrorProject_);
+        Assert.assertEquals(1, errors.length);
+        // The project is scanned again, so its squigglies are re-created.
+        Assert.assertNotSame(error, errors[0]);
+        assertMatchesFullScan(oneErrorProject_);
+    }
+
+    private void assertMatchesFullScan(IProject project) throws CoreException
+    {
+        Set <Long> expected = new HashSet <Long>();
+        IMarker [] markers = project.findMarkers(IJavaModelMarker.JAVA_MODEL_PROBLEM_MARKER, true,
+                IResource.DEPTH_INFINITE);
+        for (IMarker marker: markers)
+        {
+            if (marker.getAttribute(IMarker.SEVERITY, -1) == IMarker.SEVERITY_ERROR)
+                expected.add(marker.getId());
+        }
+        Set <Long> actual = new HashSet <Long>();
+        for (Squiggly error: BuilderUtility.calculateCompilationErrors(project))
+            actual.add(error.getMarker().getId());
+        Assert.assertEquals(expected, actual);
+    }
+
+    private String readContent(IFile file) throws CoreException
+    {
+        InputStream is = file.getContents();
+        Scanner scanner = new Scanner(is, file.getCharset());
+        scanner.useDelimiter("\\A");
+        String result = scanner.hasNext() ? scanner.next() : "";
+        scanner.close();
+        return result;
+    }
+
+    private void writeContent(IFile file, String content) throws CoreException
+    {
+        try
+        {
+            file.setContents(new ByteArrayInputStream(content.getBytes(file.getCharset())), true, false, null);
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            Assert.fail();
+        }
+    }
+}
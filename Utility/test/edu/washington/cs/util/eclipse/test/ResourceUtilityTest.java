@@ -1,10 +1,13 @@
 package edu.washington.cs.util.eclipse.test;
 
+import java.io.ByteArrayInputStream;
+
 import junit.framework.Assert;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.runtime.CoreException;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -22,6 +25,8 @@ public class ResourceUtilityTest
     private IFile file3_;
 
     private static final String TEST_WS_NAME = "QFS Test";
+    /** Large enough to be compared and copied directly on the local file system. */
+    private static final int LARGE_FILE_SIZE = 256 * 1024;
 
 
     @Before
@@ -101,4 +106,80 @@ public class ResourceUtilityTest
         Assert.assertTrue(result);
         Assert.assertFalse(file1Copy.exists());
     }
+
+    @Test
+    public void testLargeFileOperations() throws CoreException
+    {
+        IFile large0 = resourceTestProject_.getFile("large0.bin");
+        IFile large1 = resourceTestProject_.getFile("large1.bin");
+        try
+        {
+            byte [] content = createContent(LARGE_FILE_SIZE);
+            large0.create(new ByteArrayInputStream(content), true, null);
+            content[content.length - 1]++;
+            large1.create(new ByteArrayInputStream(content), true, null);
+            boolean compare = ResourceUtility.areFilesIdentical(large0, large1);
+            Assert.assertFalse(compare);
+
+            boolean result = ResourceUtility.copyFile(large0, large1);
+            Assert.assertTrue(result);
+            Assert.assertTrue(large1.isSynchronized(0));
+            compare = ResourceUtility.areFilesIdentical(large0, large1);
+            Assert.assertTrue(compare);
+
+            result = ResourceUtility.copyResource(large0, large1);
+            Assert.assertTrue(result);
+            compare = ResourceUtility.areFilesIdentical(large0, large1);
+            Assert.assertTrue(compare);
+        }
+        finally
+        {
+            ResourceUtility.deleteResource(large0);
+            ResourceUtility.deleteResource(large1);
+        }
+    }
+
+    @Test
+    public void testLinkOperations() throws CoreException
+    {
+        IFile original = resourceTestProject_.getFile("original.bin");
+        IFile link = resourceTestProject_.getFile("link.bin");
+        try
+        {
+            original.create(new ByteArrayInputStream(createContent(LARGE_FILE_SIZE)), true, null);
+            boolean result = ResourceUtility.linkFile(link, original.getLocation());
+            Assert.assertTrue(result);
+            Assert.assertTrue(link.isLinked());
+            boolean compare = ResourceUtility.areFilesIdentical(original, link);
+            Assert.assertTrue(compare);
+
+            result = ResourceUtility.unlinkFile(link);
+            Assert.assertTrue(result);
+            Assert.assertFalse(link.isLinked());
+            Assert.assertTrue(original.exists());
+            compare = ResourceUtility.areFilesIdentical(original, link);
+            Assert.assertTrue(compare);
+
+            // Modifying the copy does not modify the file that it was linked to.
+            link.setContents(new ByteArrayInputStream(new byte [] {1}), true, false, null);
+            compare = ResourceUtility.areFilesIdentical(original, link);
+            Assert.assertFalse(compare);
+
+            result = ResourceUtility.unlinkFile(original);
+            Assert.assertTrue(result);
+        }
+        finally
+        {
+            ResourceUtility.deleteResource(link);
+            ResourceUtility.deleteResource(original);
+        }
+    }
+
+    private byte [] createContent(int size)
+    {
+        byte [] result = new byte [size];
+        for (int a = 0; a < size; a++)
+            result[a] = (byte) (a % 127);
+        return result;
+    }
 }